@@ -19,12 +19,18 @@ import audio.AudioRecord;
 import audio.AudioRecorderFactory;
 import data.PassData;
 import data.SatelliteData;
+import data.TrackPlan;
 import decode.Decoder;
 import decode.DecoderFactory;
 import instrument.*;
 import sattrack.SatTrack;
 import sattrack.SatTrackFactory;
+import tracking.DopplerEngine;
+import tracking.PassPlanner;
+import tracking.TrajectoryExecutor;
+import utils.LatencyRegistry;
 import utils.Log;
+import utils.ResultUtils;
 import utils.TLEUtils;
 import utils.TimeUtils;
 import utils.enums.Verbosity;
@@ -35,6 +41,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Main program.
@@ -54,33 +64,50 @@ public class Main {
         new Log(ConfigurationUtils.getStrProperty("LOG_PATH"), Verbosity.valueOf(ConfigurationUtils
                 .getStrProperty("LOG_LEVEL")));
 
-        Rotator rotator = InstrumentFactory.createRotator(ConfigurationUtils.getStrProperty("ROTATOR_MODEL"));
-        Transceiver transceiver = InstrumentFactory.createTransceiver(ConfigurationUtils
-                .getStrProperty("TRANSCEIVER_MODEL"));
-
-        List<Instrument> physicalInstruments = new ArrayList<>();
-        physicalInstruments.add(rotator);
-        physicalInstruments.add(transceiver);
-        for (Instrument instrument : physicalInstruments) { // Verify connection status for all hardware instruments
-            if (!instrument.testConnect().isSuccessful() || !instrument.readInstrument().isSuccessful()) {
-                throw new RuntimeException("Instrument setup failed for " + instrument);
-            }
-        }
-
         AudioRecord audio = AudioRecorderFactory.createAudioRecord(ConfigurationUtils
                 .getStrProperty("RECORDER_MODEL"));
         Decoder dec = DecoderFactory.createDecoder(ConfigurationUtils.getStrProperty("DECODER_MODEL"));
+        dec.setDecoderPath(ConfigurationUtils.getStrProperty("DECODER_PATH"));
+        boolean audioDoppler = ConfigurationUtils.getStrProperty("DOPPLER_MODE").equalsIgnoreCase("AUDIO");
+        if (audioDoppler && !dec.setAudioSource(audio::getRingBuffer,
+                ConfigurationUtils.getIntProperty("RECORDER_SAMPLE_RATE")).isSuccessful()) {
+            // The decoder would read the sound card itself, without the Doppler correction
+            throw new RuntimeException("DOPPLER_MODE AUDIO requires a decoder that reads the corrected audio, "
+                    + ConfigurationUtils.getStrProperty("DECODER_MODEL") + " does not");
+        }
         SatTrack satTrack = SatTrackFactory.createSatTrack(ConfigurationUtils
                 .getStrProperty("SATELLITE_TRACK_MODEL"));
 
         String[] tle = TLEUtils.fileToStrArray(ConfigurationUtils.getStrProperty("TLE_PATH"));
-        SatelliteData sat = new SatelliteData(tle[0], tle, ConfigurationUtils
-                .getIntProperty("SAT_DL_FREQ_HZ"), 146000000); // Uplink frequency currently unused.
+        SatelliteData sat = new SatelliteData(tle[0], tle, ConfigurationUtils.getIntProperty("SAT_DL_FREQ_HZ"),
+                ConfigurationUtils.getIntProperty("SAT_UL_FREQ_HZ"));
 
         /*
-         * Step 2: Predict next passes of satellite, get user input
+         * Step 2: Bring up the instruments (verify connection status for all hardware instruments), predict the next
+         * passes of the satellite and check the decoder at the same time, as each spends most of its time waiting.
+         * Then get user input.
          */
-        List<PassData> next48h = satTrack.getNext48hOfPasses(sat);
+        long startupMillis = System.currentTimeMillis();
+        Rotator rotator;
+        Transceiver transceiver;
+        List<PassData> next48h;
+        try (ExecutorService startup = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory())) {
+            Future<Rotator> rotatorSetup = startup.submit(InstrumentDiscovery::bringUpRotator);
+            Future<Transceiver> transceiverSetup = startup.submit(InstrumentDiscovery::bringUpTransceiver);
+            Future<List<PassData>> prediction = startup.submit(() -> satTrack.getNext48hOfPasses(sat));
+            Future<ResultUtils> decoderCheck = startup.submit(dec::preflight);
+            rotator = rotatorSetup.get();
+            transceiver = transceiverSetup.get();
+            next48h = prediction.get();
+            if (!decoderCheck.get().isSuccessful()) {
+                throw new RuntimeException("Decoder setup failed for " + dec);
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        Log.info("Startup completed in " + (System.currentTimeMillis() - startupMillis) + "ms");
+        AsyncRotator asyncRotator = new AsyncRotator(rotator);
+
         Log.noPrefix("=========================== Next 48h ===========================");
         for (int i = next48h.size()-1; i >= 0; i--) {
             Log.noPrefix("ID (" + i + ")");
@@ -103,16 +130,21 @@ public class Main {
         for (int passId : passIDs) { // Loop over all passes selected by user.
             Log.info("Configuring for pass " + passCount + " of " + passIDs.size());
             PassData pass = next48h.get(passId);
-            List<Double> azProfile = pass.getAzProfile();
-            List<Double> elProfile = pass.getElProfile();
+            pass.setTrackPlan(PassPlanner.plan(pass, rotator));
+            TrackPlan trackPlan = pass.getTrackPlan();
+            Log.debug(trackPlan.toString());
+            TrajectoryExecutor trajectoryExecutor = new TrajectoryExecutor(asyncRotator, pass);
 
             /*
-             * Step 3: Wait until 1 min before pass.
+             * Step 3: Wait until 1 min before pass, or earlier if the rotator needs longer to reach the AOS position.
              */
             Log.info("Tracking satellite " + sat.getId());
             Log.info("Set to record pass beginning at " + pass.getAos() + ", ending at " + pass.getLos());
             ZonedDateTime setupTime = pass.getAos().minusMinutes(1);
-            Log.info("Waiting until AOS minus 1 min to start setup...");
+            if (trajectoryExecutor.getPrePositionTime().isBefore(setupTime)) {
+                setupTime = trajectoryExecutor.getPrePositionTime();
+            }
+            Log.info("Waiting until " + setupTime + " to start setup...");
             Log.debug("Waiting for " + setupTime + " before rotator setup");
             while (ZonedDateTime.now(ZoneId.of("UTC")).isBefore(setupTime)) {
 
@@ -122,16 +154,42 @@ public class Main {
              * Step 4: Configure transceiver, set initial rotator position, and configure threads for the audio recorder
              * and decoder tools.
              */
-            int initAz = azProfile.getFirst().intValue();
-            int initEl = elProfile.getFirst().intValue();
-            Log.debug("Moving rotator to initial position Az " + initAz + ", El " + initEl);
-            rotator.goToAzEl(initAz, initEl);
-            Log.debug("Set transceiver to nominal DL freq " + ConfigurationUtils.getIntProperty("SAT_DL_FREQ_HZ"));
-            transceiver.setFrequency(ConfigurationUtils.getIntProperty("SAT_DL_FREQ_HZ"));
+            trajectoryExecutor.prePosition();
+            boolean uploadTrack = ConfigurationUtils.getStrProperty("ROTATOR_TRACK_MODE").equalsIgnoreCase("UPLOAD")
+                    && rotator.supportsTrackUpload();
+            if (uploadTrack && !rotator.uploadTrack(trackPlan, pass.getProfileSampleIntervalS()).isSuccessful()) {
+                Log.warn("Track upload to rotator failed, rotator will be stepped through the track instead.");
+                uploadTrack = false;
+            }
+            boolean fullDuplex = !pass.getUlFreqHzAdjProfile().isEmpty() && transceiver.supportsSatelliteMode();
+            if (fullDuplex && (!transceiver.setSatelliteMode(true).isSuccessful()
+                    || !transceiver.setSatelliteFrequencies(pass.getDlFreqHzAdjProfile().getFirst(),
+                    pass.getUlFreqHzAdjProfile().getFirst()).isSuccessful())) {
+                Log.warn("Satellite mode setup failed, only the downlink will be tuned.");
+                fullDuplex = false;
+            }
+            if (!fullDuplex) {
+                Log.debug("Set transceiver to nominal DL freq " + ConfigurationUtils.getIntProperty("SAT_DL_FREQ_HZ"));
+                transceiver.setFrequency(ConfigurationUtils.getIntProperty("SAT_DL_FREQ_HZ"));
+            }
+            DopplerEngine doppler = new DopplerEngine(transceiver, pass,
+                    ConfigurationUtils.getDoubleProperty("DOPPLER_RATE_HZ"),
+                    ConfigurationUtils.getIntProperty("DOPPLER_DEADBAND_HZ"), fullDuplex);
+            if (audioDoppler) { // Downlink stays at the frequency set above, the offset is removed from the audio
+                long fixedDlHz = fullDuplex ? pass.getDlFreqHzAdjProfile().getFirst()
+                        : ConfigurationUtils.getIntProperty("SAT_DL_FREQ_HZ");
+                Log.debug("Correcting Doppler shift in the audio, downlink fixed at " + fixedDlHz + "Hz");
+                audio.setDopplerShift(() -> fixedDlHz - doppler.getDownlinkFreqHz(System.currentTimeMillis()));
+                doppler.holdDownlink(fixedDlHz); // Still tracks the uplink in satellite mode
+            }
+            boolean runDoppler = !audioDoppler || fullDuplex;
 
             audio.setSampleRate(ConfigurationUtils.getIntProperty("RECORDER_SAMPLE_RATE"));
             audio.setRecordDurationS(pass.getDurationS());
-            dec.setDecoderPath(ConfigurationUtils.getStrProperty("DECODER_PATH"));
+            int preRollS = ConfigurationUtils.getIntProperty("RECORDER_PRE_ROLL_S");
+            if (preRollS > 0 && !audio.startPreRoll(preRollS).isSuccessful()) { // Capture before AOS
+                Log.warn("Audio pre-roll capture failed, recording will start at AOS.");
+            }
             dec.setDurationS(pass.getDurationS());
             Thread audioThread = new Thread(audio);
             Thread decoderThread = new Thread(dec);
@@ -147,21 +205,52 @@ public class Main {
             /*
              * Step 6: During pass: begin audio recording/decoding, update rotator and transceiver throughout.
              */
+            if (uploadTrack) {
+                rotator.startTrack();
+            }
+            double telemetryHz = ConfigurationUtils.getDoubleProperty("ROTATOR_TELEMETRY_HZ");
+            RotatorTelemetry telemetry = null;
+            if (telemetryHz > 0) {
+                telemetry = new RotatorTelemetry(rotator, telemetryHz, (int) Math.ceil(telemetryHz * (pass.getDurationS() + 60)));
+                telemetry.start();
+            }
             audioThread.start();
             decoderThread.start();
 
-            for (int i = 0; i < azProfile.size(); i++) {
-                long startTime = System.currentTimeMillis();
-                rotator.goToAzEl(azProfile.get(i).intValue(), elProfile.get(i).intValue());
-                transceiver.setFrequency(pass.getDlFreqHzAdjProfile().get(i));
-                long stopTime = System.currentTimeMillis();
-                if (stopTime-startTime < pass.getProfileSampleIntervalS()*1000L) {
-                    TimeUtils.delayMillis((pass.getProfileSampleIntervalS()*1000L) - (stopTime-startTime));
+            boolean monitorTrack = uploadTrack;
+            SetpointActor<Integer> rotatorActor = SetpointActor.start("Rotator", sample -> {
+                if (monitorTrack) { // Controller steps through the track, only monitor progress
+                    trajectoryExecutor.monitor();
                 } else {
-                    Log.warn("TIME MISALIGNMENT: Setting rotator and transceiver took longer than specified delay.\n" +
-                            "Rotator position may lag desired position!");
+                    trajectoryExecutor.step();
                 }
+                return ResultUtils.createSuccessfulResult();
+            });
+            if (runDoppler) {
+                doppler.start();
+            }
+            for (int i = 0; i < trackPlan.getAzTrack().size(); i++) {
+                long startTime = System.currentTimeMillis();
+                rotatorActor.submit(i);
+                long stopTime = System.currentTimeMillis();
+                TimeUtils.delayMillis(Math.max(0, (pass.getProfileSampleIntervalS()*1000L) - (stopTime-startTime)));
+            }
+            rotatorActor.close();
+            doppler.stop();
+            rotatorActor.logSummary();
+            if (runDoppler) {
+                doppler.logSummary();
+            }
+            trajectoryExecutor.logSummary();
+            if (fullDuplex) {
+                transceiver.setSatelliteMode(false);
+            }
+            if (telemetry != null) {
+                telemetry.stop();
+                trajectoryExecutor.logTelemetrySummary(telemetry);
             }
+            LatencyRegistry.logSummary(); // Instrument command latencies during this pass
+            LatencyRegistry.reset();
 
             /*
              * Step 7: Clean up: Once profiles have been completed, join audio and decoder threads (i.e. wait for them to
@@ -179,5 +268,6 @@ public class Main {
                 Log.storeDecodedData(d);
             }
         }
+        asyncRotator.shutdown();
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package audio;
+
+import utils.Log;
+
+/**
+ * Removes residual Doppler shift from captured audio while the transceiver stays at a fixed frequency. The audio is
+ * converted to an analytic signal with a Hilbert transform FIR filter, mixed with a numerically controlled oscillator
+ * (NCO) at the shift frequency, and the real part kept. This shifts the whole audio spectrum by the shift frequency
+ * without producing an image, so a signal received at {@code f + offset} is returned to {@code f} with a shift of
+ * {@code -offset}.
+ *
+ * <P>All buffers are allocated on construction, so {@link AudioDopplerCorrector#process(byte[], int)} does not
+ * allocate. Not thread safe other than {@link AudioDopplerCorrector#setShiftHz(double)}, which may be called from any
+ * thread.</P>
+ */
+public class AudioDopplerCorrector {
+
+    private static final int TAPS = 127; // Hilbert filter length, odd. Passband roughly 150 Hz to fs/2 - 150 Hz at 48 kHz
+    private static final int DELAY = (TAPS - 1) / 2; // Group delay of the Hilbert filter, applied to the in-phase path
+    private static final int TABLE_BITS = 12;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    private static final double[] SIN_TABLE = new double[TABLE_SIZE];
+    private static final double PHASE_SCALE = 4294967296.0; // 2^32, one NCO cycle
+
+    static {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            SIN_TABLE[i] = Math.sin(2 * Math.PI * i / TABLE_SIZE);
+        }
+    }
+
+    private final int sampleRate;
+    private final double[] coefficients; // Every other tap only, the taps at an even distance from the centre are zero
+    private final double[] history = new double[2 * TAPS]; // Delay line stored twice to avoid wrapping in the filter loop
+    private int historyPos = 0;
+    private int phase = 0; // NCO phase, wraps at one cycle
+    private volatile int phaseStep = 0;
+    private volatile double shiftHz = 0;
+    private long processedSamples = 0;
+    private long processingNanos = 0;
+    private long clippedSamples = 0;
+
+    /**
+     * Create a corrector for mono audio.
+     * @param sampleRate Sample rate of the audio in hertz.
+     */
+    public AudioDopplerCorrector(int sampleRate) {
+        this.sampleRate = sampleRate;
+
+        /*
+         * Step 1: Design the Hilbert filter, an ideal 2/(pi*n) response for odd n windowed with a Blackman window.
+         */
+        coefficients = new double[(DELAY + 1) / 2 * 2];
+        int c = 0;
+        for (int k = 0; k < TAPS; k++) {
+            int n = k - DELAY;
+            if (n % 2 != 0) {
+                double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * k / (TAPS - 1))
+                        + 0.08 * Math.cos(4 * Math.PI * k / (TAPS - 1));
+                coefficients[c++] = 2 / (Math.PI * n) * window;
+            }
+        }
+    }
+
+    /**
+     * Set the frequency shift applied to subsequent audio. Takes effect from the next call to
+     * {@link AudioDopplerCorrector#process(byte[], int)} without a phase discontinuity.
+     * @param shiftHz Shift in hertz, positive to move the spectrum up. Limited to half the sample rate.
+     */
+    public void setShiftHz(double shiftHz) {
+        double limited = Math.max(-sampleRate / 2.0, Math.min(sampleRate / 2.0, shiftHz));
+        this.shiftHz = limited;
+        this.phaseStep = (int) Math.round(limited / sampleRate * PHASE_SCALE);
+    }
+
+    /**
+     * Get the frequency shift currently applied.
+     * @return Shift in hertz.
+     */
+    public double getShiftHz() {
+        return shiftHz;
+    }
+
+    /**
+     * Shift a buffer of signed 16 bit big-endian mono samples in place. The output is delayed by the filter group delay
+     * ({@value #DELAY} samples) relative to the input.
+     * @param buffer Audio bytes.
+     * @param length Number of valid bytes in the buffer, rounded down to whole samples.
+     */
+    public void process(byte[] buffer, int length) {
+        long startNanos = System.nanoTime();
+        int step = phaseStep;
+        int samples = length / 2;
+        for (int s = 0; s < samples; s++) {
+            /*
+             * Step 1: Add the sample to both copies of the delay line.
+             */
+            int i = 2 * s;
+            double x = (short) ((buffer[i] << 8) | (buffer[i + 1] & 0xFF));
+            history[historyPos] = x;
+            history[historyPos + TAPS] = x;
+
+            /*
+             * Step 2: The in-phase component is the input delayed to match the filter, the quadrature component is
+             * the Hilbert filter output. Oldest sample is at historyPos + 1.
+             */
+            int base = historyPos + 1;
+            double inPhase = history[base + DELAY];
+            double quadrature = 0;
+            for (int c = 0, k = 0; c < coefficients.length; c++, k += 2) {
+                quadrature += coefficients[c] * history[base + TAPS - 1 - k];
+            }
+            historyPos = historyPos == TAPS - 1 ? 0 : historyPos + 1;
+
+            /*
+             * Step 3: Mix with the NCO and keep the real part, Re{(I + jQ)(cos + j sin)}.
+             */
+            int index = phase >>> (32 - TABLE_BITS);
+            double sin = SIN_TABLE[index];
+            double cos = SIN_TABLE[(index + TABLE_SIZE / 4) & (TABLE_SIZE - 1)];
+            phase += step;
+            long y = Math.round(inPhase * cos - quadrature * sin);
+            if (y > Short.MAX_VALUE || y < Short.MIN_VALUE) {
+                clippedSamples++;
+                y = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, y));
+            }
+            buffer[i] = (byte) (y >> 8);
+            buffer[i + 1] = (byte) y;
+        }
+        processedSamples += samples;
+        processingNanos += System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Get the number of samples processed.
+     * @return Sample count.
+     */
+    public long getProcessedSamples() {
+        return processedSamples;
+    }
+
+    /**
+     * Get the ratio of processing time to audio duration over all samples processed. Must stay well below 1 to keep
+     * up with the audio interface.
+     * @return Processing load, 0 if nothing has been processed.
+     */
+    public double getLoad() {
+        return processedSamples == 0 ? 0 : (processingNanos / 1e9) / ((double) processedSamples / sampleRate);
+    }
+
+    /**
+     * Log the amount of audio corrected and the processing load.
+     */
+    public void logSummary() {
+        Log.info(String.format("Audio Doppler correction: %.1fs of audio processed, load %.2f%%, %d samples clipped, "
+                + "final shift %.0fHz.", (double) processedSamples / sampleRate, 100 * getLoad(), clippedSamples, shiftHz));
+    }
+
+}
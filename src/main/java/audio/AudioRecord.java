@@ -19,6 +19,8 @@ package audio;
 
 import utils.ResultUtils;
 
+import java.util.function.DoubleSupplier;
+
 /**
  * Defines methods required to configure and begin audio recording. Extends {@link Runnable} to allow audio recording
  * to take place in a separate thread.
@@ -31,6 +33,16 @@ public interface AudioRecord extends Runnable {
      */
     ResultUtils recordAudio();
 
+    /**
+     * Start capturing audio before {@link AudioRecord#recordAudio()} is called, keeping the most recent audio in a
+     * circular buffer. When recording starts the buffered audio is saved first, so the recording begins before it was
+     * started instead of missing the time taken to open the audio source. Call after
+     * {@link AudioRecord#setSampleRate(int)} and {@link AudioRecord#setDopplerShift(DoubleSupplier)}.
+     * @param preRollS Seconds of audio before the start of the recording to save.
+     * @return The success/failure status of the operation.
+     */
+    ResultUtils startPreRoll(int preRollS);
+
     /**
      * Set how long {@link AudioRecord#recordAudio()} will record for.
      * @param recordDurationS duration of the recording in seconds.
@@ -43,4 +55,20 @@ public interface AudioRecord extends Runnable {
      */
     void setSampleRate(int sampleRate);
 
+    /**
+     * Remove residual Doppler shift from the recorded audio using an {@link AudioDopplerCorrector}, for use while the
+     * transceiver stays at a fixed frequency.
+     * @param shiftHz Supplies the shift in hertz to apply to the audio as it is captured, or null to record the audio
+     * unchanged.
+     */
+    void setDopplerShift(DoubleSupplier shiftHz);
+
+    /**
+     * Get the ring buffer the audio is captured into (after any Doppler correction), for consumers other than the
+     * recorder such as a decoder. Each consumer reads at its own {@link AudioRingBuffer.Cursor}, and must keep up with
+     * capture or be overrun.
+     * @return The ring buffer, or null if not capturing.
+     */
+    AudioRingBuffer getRingBuffer();
+
 }
@@ -20,26 +20,40 @@ package audio;
 import utils.Log;
 import utils.ResultUtils;
 
-import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.TargetDataLine;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
 
 /**
  * Class for recording audio using the {@link javax.sound.sampled} package. The computers default sound card is used
- * by this class so long as it is compatible with the sample rate specified.
+ * by this class so long as it is compatible with the sample rate specified. A capture thread reads the sound card into
+ * an {@link AudioRingBuffer}, which the recorder reads from at its own cursor and streams to the WAV file as it is
+ * captured (see {@link WavFileWriter}), so memory use does not depend on the length of the pass. Other consumers can
+ * read the same audio from {@link AudioRecordJavaxSoundSampled#getRingBuffer()} while capture is running.
  */
 public class AudioRecordJavaxSoundSampled implements AudioRecord {
 
+    private static final int RING_MARGIN_S = 10; // Extra ring capacity, about how far a consumer can fall behind
+    private static final int POLL_MILLIS = 10;
+
     private int sampleRate;
     private int recordDurationS;
+    private DoubleSupplier dopplerShiftHz;
+    private final byte[] buffer = new byte[4096];
+    // Open from the start of the pre-roll (or recording) until the end of the recording
+    private TargetDataLine targetLine;
+    private AudioFormat format;
+    private AudioDopplerCorrector corrector;
+    private volatile AudioRingBuffer ring;
+    private Thread captureThread;
+    private volatile boolean captureRunning = false;
+    private int preRollS = 0;
 
     public AudioRecordJavaxSoundSampled() {}
 
@@ -48,65 +62,143 @@ public class AudioRecordJavaxSoundSampled implements AudioRecord {
         recordAudio();
     }
 
+    /**
+     * Configure audio format and input source, open and start the source, and capture it into a new ring buffer on a
+     * new thread.
+     * @throws LineUnavailableException
+     */
+    private void startCapture() throws LineUnavailableException {
+        /*
+         * Step 1: Configure audio format and input source, then open the source.
+         */
+        Log.debug("Setting up audio recorder with sample rate " + sampleRate);
+        format = new AudioFormat(sampleRate, 16, 1, true, true);
+        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+        if (!AudioSystem.isLineSupported(info)) {
+            Log.error("Error setting up audio recording.");
+            throw new LineUnavailableException(
+                    "The system does not support the specified format.");
+        }
+
+        targetLine = AudioSystem.getTargetDataLine(format);
+        targetLine.open(format);
+        targetLine.start();
+        corrector = dopplerShiftHz == null ? null : new AudioDopplerCorrector(sampleRate);
+
+        /*
+         * Step 2: Read bytes from the source into the ring until stopped, correcting Doppler shift if enabled.
+         */
+        ring = new AudioRingBuffer(sampleRate * (2 * preRollS + RING_MARGIN_S)); // Pre-roll fits the headroom
+        captureRunning = true;
+        captureThread = Thread.ofPlatform().name("AudioCapture").daemon().start(() -> {
+            while (captureRunning) {
+                int bytesRead = targetLine.read(buffer, 0, buffer.length);
+                if (corrector != null) {
+                    corrector.setShiftHz(dopplerShiftHz.getAsDouble());
+                    corrector.process(buffer, bytesRead);
+                }
+                ring.write(buffer, bytesRead);
+            }
+        });
+    }
+
+    public ResultUtils startPreRoll(int preRollS) {
+        try {
+            Log.info("Starting audio pre-roll capture.");
+            this.preRollS = preRollS;
+            startCapture();
+        } catch (LineUnavailableException e) {
+            Log.error(e.getClass() + "\n" + e.getMessage());
+            stopCapture();
+            return ResultUtils.createFailedResult();
+        }
+        Log.info("Audio pre-roll capture started, keeping the last " + preRollS + "s before recording starts.");
+        return ResultUtils.createSuccessfulResult();
+    }
+
     public ResultUtils recordAudio() {
         try {
             /*
-             * Step 1: Configure audio format and input source, open the source and create a buffer to read datta to.
+             * Step 1: Start capture, unless already capturing the pre-roll. The recorder starts reading the ring at the
+             * pre-roll, and the source keeps capturing, so no audio is lost.
              */
             Log.info("Starting audio recording service.");
-            Log.debug("Setting up audio recorder with sample rate " + sampleRate);
-            AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, true);
-            DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
-            if (!AudioSystem.isLineSupported(info)) {
-                Log.error("Error setting up audio recording.");
-                throw new LineUnavailableException(
-                        "The system does not support the specified format.");
+            if (ring == null) {
+                preRollS = 0;
+                startCapture();
             }
-
-            TargetDataLine targetLine = AudioSystem.getTargetDataLine(format);
-            targetLine.open(format);
-            targetLine.start();
-
-            byte[] buffer = new byte[4096];
-            int bytesRead = 0;
-
-            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
-
-            /*
-             * Step 2: Read bytes from audio interface then store to buffer for duration of pass.
-             */
-            Log.info("Audio recording started. Will record for " + recordDurationS + "s.");
-            long endTime = java.time.Instant.now().getEpochSecond() + recordDurationS;
-            while (java.time.Instant.now().getEpochSecond() < endTime) {
-                bytesRead = targetLine.read(buffer, 0, buffer.length);
-                recordBytes.write(buffer, 0, bytesRead);
+            AudioRingBuffer.Cursor cursor = ring.newCursor(preRollS * sampleRate);
+            if (preRollS > 0) {
+                Log.info("Saving " + ring.available(cursor) / sampleRate + "s of pre-roll audio.");
             }
-            Log.info("Audio recording complete.");
-
-            /*
-             * Step 3: Store audio to file.
-             */
-            byte[] audioData = recordBytes.toByteArray();
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(audioData);
-            AudioInputStream audioInputStream = new AudioInputStream(byteArrayInputStream, format,
-                    audioData.length / format.getFrameSize());
 
             //TODO: Audio shouldn't be saved here as it breaks modularity.
             // Should pass the stream back to main to be saved there.
             File writeFile = Log.getNextAudioFile();
             Log.info("Saving audio to " + writeFile.getAbsolutePath());
-            AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, writeFile);
 
-            audioInputStream.close();
-            recordBytes.close();
+            /*
+             * Step 2: Write the audio from the ring to the file for duration of pass. The file is closed (and its
+             * header completed) even if recording fails part way.
+             */
+            try (WavFileWriter writer = new WavFileWriter(writeFile, format,
+                    (long) (recordDurationS + preRollS) * sampleRate * format.getFrameSize())) {
+                Log.info("Audio recording started. Will record for " + recordDurationS + "s.");
+                long endTime = java.time.Instant.now().getEpochSecond() + recordDurationS;
+                while (java.time.Instant.now().getEpochSecond() < endTime) {
+                    if (ring.poll(cursor, writer::write, Integer.MAX_VALUE) == 0) {
+                        TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+                    }
+                }
+                Log.info("Audio recording complete, " + writer.getDataBytes() + " bytes saved.");
+            }
+            if (cursor.getOverruns() > 0) {
+                Log.warn("Audio recorder fell behind capture " + cursor.getOverruns() + " times, "
+                        + cursor.getDroppedSamples() + " samples lost.");
+            }
+            if (corrector != null) {
+                corrector.logSummary();
+            }
 
         } catch (LineUnavailableException | IOException e) {
             Log.error(e.getClass() + "\n" + e.getMessage());
             return ResultUtils.createFailedResult();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResultUtils.createFailedResult();
+        } finally {
+            stopCapture();
         }
         return ResultUtils.createSuccessfulResult();
     }
 
+    public AudioRingBuffer getRingBuffer() {
+        return ring;
+    }
+
+    /**
+     * Stop capture and close the source, ready for the next pass.
+     */
+    private void stopCapture() {
+        captureRunning = false;
+        if (targetLine != null) {
+            targetLine.stop();
+            targetLine.close(); // Returns the capture thread from a blocked read
+        }
+        if (captureThread != null) {
+            try {
+                captureThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        captureThread = null;
+        targetLine = null;
+        corrector = null;
+        ring = null;
+        preRollS = 0;
+    }
+
     public void setRecordDurationS(int recordDurationS) {
         this.recordDurationS = recordDurationS;
     }
@@ -115,4 +207,8 @@ public class AudioRecordJavaxSoundSampled implements AudioRecord {
         this.sampleRate = sampleRate;
     }
 
+    public void setDopplerShift(DoubleSupplier shiftHz) {
+        this.dopplerShiftHz = shiftHz;
+    }
+
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package audio;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring buffer of audio samples with one producer (the capture thread) and any number of consumers (e.g. the
+ * recorder, demodulators, spectrum analysis, level meters). Each consumer reads at its own {@link Cursor}, and is
+ * handed the samples in place in the ring, so nothing is copied and nothing is allocated after construction.
+ *
+ * <P>The producer never waits for consumers: a consumer that falls more than the capacity behind is overrun, and the
+ * samples it missed are skipped and counted on its cursor. A consumer within a quarter of the capacity of being overrun
+ * is moved forward, so the producer is unlikely to reach the samples it is reading. Samples that were overwritten while
+ * a consumer was reading them anyway are detected after the read (with a claim sequence, like a seqlock) and counted
+ * as an overrun as well.</P>
+ */
+public class AudioRingBuffer {
+
+    private final short[] samples;
+    private final int mask;
+    private final int headroom; // Samples left between a consumer and the producer when a consumer is moved forward
+    private final AtomicLong claimed = new AtomicLong(); // Samples up to here may be being written
+    private final AtomicLong published = new AtomicLong(); // Samples before here are written and can be read
+
+    /**
+     * Handles samples read from the ring. The samples must not be kept after returning, as they are overwritten.
+     */
+    @FunctionalInterface
+    public interface SampleHandler {
+        /**
+         * @param samples Ring array holding the samples.
+         * @param offset Index of the first sample.
+         * @param length Number of samples.
+         * @throws IOException
+         */
+        void accept(short[] samples, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Read position and overrun count of one consumer. Each cursor is used by a single thread.
+     */
+    public static class Cursor {
+        private long position;
+        private long overruns = 0;
+        private long droppedSamples = 0;
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Get the number of times this consumer was overrun by the producer.
+         * @return Number of overruns.
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        /**
+         * Get the number of samples skipped or overwritten while reading because this consumer was overrun.
+         * @return Number of samples.
+         */
+        public long getDroppedSamples() {
+            return droppedSamples;
+        }
+    }
+
+    /**
+     * Create an empty ring.
+     * @param minCapacity Minimum number of samples held, rounded up to a power of two.
+     */
+    public AudioRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        this.samples = new short[capacity];
+        this.mask = capacity - 1;
+        this.headroom = capacity / 4;
+    }
+
+    public int getCapacity() {
+        return samples.length;
+    }
+
+    /**
+     * Get the number of samples written since the ring was created.
+     * @return Total samples written.
+     */
+    public long getWritten() {
+        return published.getAcquire();
+    }
+
+    /**
+     * Add 16 bit big-endian PCM audio to the ring, overwriting the oldest samples. Only called by the producer.
+     * @param pcm Audio bytes.
+     * @param length Number of bytes, at most twice the capacity.
+     */
+    public void write(byte[] pcm, int length) {
+        int n = length / 2;
+        if (n > samples.length) {
+            throw new IllegalArgumentException("Write of " + n + " samples exceeds ring capacity " + samples.length);
+        }
+        long start = published.getPlain();
+        claimed.set(start + n);
+        VarHandle.storeStoreFence(); // Claim is visible before any sample is overwritten
+        for (int i = 0; i < n; i++) {
+            samples[(int) ((start + i) & mask)] = (short) ((pcm[2 * i] << 8) | (pcm[2 * i + 1] & 0xFF));
+        }
+        published.setRelease(start + n);
+    }
+
+    /**
+     * Create a cursor for a new consumer.
+     * @param backlogSamples Number of samples already in the ring to read first (e.g. a pre-roll), 0 to read only
+     * samples written from now on. Limited to the samples held.
+     * @return The cursor.
+     */
+    public Cursor newCursor(int backlogSamples) {
+        long head = published.getAcquire();
+        long backlog = Math.min(Math.max(0, backlogSamples), Math.min(head, samples.length - headroom));
+        return new Cursor(head - backlog);
+    }
+
+    /**
+     * Get the number of samples a consumer has not read yet.
+     * @param cursor Cursor of the consumer.
+     * @return Number of samples.
+     */
+    public long available(Cursor cursor) {
+        return published.getAcquire() - cursor.position;
+    }
+
+    /**
+     * Hand the next samples for a consumer to a handler, in at most two parts (where the ring wraps), and advance the
+     * cursor past them. Does not wait for samples.
+     * @param cursor Cursor of the consumer.
+     * @param handler Handler of the samples.
+     * @param maxSamples Maximum number of samples to handle.
+     * @return Number of samples handled, 0 if none were available.
+     * @throws IOException If thrown by the handler.
+     */
+    public int poll(Cursor cursor, SampleHandler handler, int maxSamples) throws IOException {
+        /*
+         * Step 1: Skip forward if the producer has overrun (or nearly overrun) this consumer.
+         */
+        long head = published.getAcquire();
+        long start = cursor.position;
+        if (head - start > samples.length - headroom) {
+            long skipTo = head - (samples.length - headroom);
+            cursor.overruns++;
+            cursor.droppedSamples += skipTo - start;
+            start = skipTo;
+        }
+        int n = (int) Math.min(head - start, maxSamples);
+        if (n <= 0) {
+            cursor.position = start;
+            return 0;
+        }
+
+        /*
+         * Step 2: Hand over the samples in place.
+         */
+        int offset = (int) (start & mask);
+        int first = Math.min(n, samples.length - offset);
+        handler.accept(samples, offset, first);
+        if (first < n) {
+            handler.accept(samples, 0, n - first);
+        }
+
+        /*
+         * Step 3: Check the producer did not overwrite any of the samples while they were being handled.
+         */
+        VarHandle.loadLoadFence(); // Samples are read before the claim
+        long overwrittenTo = claimed.get() - samples.length;
+        if (overwrittenTo > start) {
+            cursor.overruns++;
+            cursor.droppedSamples += Math.min(n, overwrittenTo - start);
+        }
+        cursor.position = start + n;
+        return n;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes PCM audio to a WAV file as it is captured, so memory use does not grow with the length of the recording. The
+ * file is preallocated to the expected length, to avoid growing it (and fragmenting it) on every write, and is cut to
+ * the recorded length on {@link WavFileWriter#close()}.
+ *
+ * <P>The lengths in the WAV header are updated after every second of audio, so if the program stops before the file is
+ * closed, the audio recorded up to the last update can still be played and decoded. Any preallocated space after the
+ * audio is then ignored by players as it is outside the data chunk.</P>
+ *
+ * <P>WAV files are little-endian, so big-endian samples (as captured by {@link AudioRecordJavaxSoundSampled}) are
+ * swapped as they are written. The write buffer is allocated on construction, so writing does not allocate.</P>
+ */
+public class WavFileWriter implements Closeable {
+
+    private static final int HEADER_BYTES = 44;
+    private static final int RIFF_SIZE_OFFSET = 4;
+    private static final int DATA_SIZE_OFFSET = 40;
+    private static final int BUFFER_BYTES = 65536;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int frameSize;
+    private final int sampleBytes;
+    private final boolean swapBytes;
+    private final long headerUpdateBytes; // Bytes of audio between header updates
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer sizeField = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    private long dataBytes = 0;
+    private long headerDataBytes = 0; // Data length in the header
+    private boolean closed = false;
+
+    /**
+     * Create the file, write the header and preallocate space for the audio.
+     * @param file File to write, replaced if it exists.
+     * @param format Format of the audio (signed PCM, any sample size and byte order).
+     * @param expectedBytes Expected number of bytes of audio, 0 if unknown. Writing more is allowed.
+     * @throws IOException
+     */
+    public WavFileWriter(File file, AudioFormat format, long expectedBytes) throws IOException {
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())) {
+            throw new IllegalArgumentException("WAV writer requires signed PCM audio, got " + format.getEncoding());
+        }
+        this.file = file;
+        this.frameSize = format.getFrameSize();
+        this.sampleBytes = format.getSampleSizeInBits() / 8;
+        this.swapBytes = format.isBigEndian() && this.sampleBytes > 1;
+        this.headerUpdateBytes = Math.max(frameSize, (long) format.getFrameRate() * frameSize);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        /*
+         * Step 1: Write the header with empty lengths, then extend the file to the expected length.
+         */
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt(HEADER_BYTES - 8).put("WAVE".getBytes());
+        header.put("fmt ".getBytes()).putInt(16).putShort((short) 1) // PCM
+                .putShort((short) format.getChannels()).putInt((int) format.getSampleRate())
+                .putInt((int) format.getSampleRate() * frameSize).putShort((short) frameSize)
+                .putShort((short) format.getSampleSizeInBits());
+        header.put("data".getBytes()).putInt(0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        if (expectedBytes > 0) {
+            channel.write(ByteBuffer.wrap(new byte[1]), HEADER_BYTES + expectedBytes - 1);
+        }
+        channel.position(HEADER_BYTES);
+    }
+
+    /**
+     * Write audio to the file.
+     * @param data Audio in the format given on construction.
+     * @param length Number of bytes to write, a whole number of frames.
+     * @throws IOException
+     */
+    public void write(byte[] data, int length) throws IOException {
+        write(data, 0, length);
+    }
+
+    /**
+     * Write part of an array of audio to the file.
+     * @param data Audio in the format given on construction.
+     * @param offset Index of the first byte to write.
+     * @param length Number of bytes to write, a whole number of frames.
+     * @throws IOException
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        /*
+         * Step 1: Copy the audio to the direct buffer in little-endian order and write it, a buffer at a time.
+         */
+        length -= length % frameSize;
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(end - offset, BUFFER_BYTES);
+            buffer.clear();
+            if (swapBytes) {
+                for (int i = offset; i < offset + n; i += sampleBytes) {
+                    for (int j = sampleBytes - 1; j >= 0; j--) {
+                        buffer.put(data[i + j]);
+                    }
+                }
+            } else {
+                buffer.put(data, offset, n);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            offset += n;
+        }
+        dataBytes += length;
+
+        /*
+         * Step 2: Update the header after every second of audio.
+         */
+        if (dataBytes - headerDataBytes >= headerUpdateBytes) {
+            updateHeader();
+        }
+    }
+
+    /**
+     * Write 16 bit samples to the file, e.g. from an {@link AudioRingBuffer}.
+     * @param samples Samples (the format given on construction must be 16 bit).
+     * @param offset Index of the first sample to write.
+     * @param length Number of samples to write, a whole number of frames.
+     * @throws IOException
+     */
+    public void write(short[] samples, int offset, int length) throws IOException {
+        if (sampleBytes != 2) {
+            throw new IllegalStateException("Samples can only be written to a 16 bit WAV file");
+        }
+        length -= length % (frameSize / 2);
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(end - offset, BUFFER_BYTES / 2);
+            buffer.clear();
+            for (int i = offset; i < offset + n; i++) {
+                buffer.putShort(samples[i]);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            offset += n;
+        }
+        dataBytes += 2L * length;
+        if (dataBytes - headerDataBytes >= headerUpdateBytes) {
+            updateHeader();
+        }
+    }
+
+    /**
+     * Write the current data length into the header.
+     */
+    private void updateHeader() throws IOException {
+        long size = Math.min(dataBytes, 0xFFFFFFFFL - (HEADER_BYTES - 8)); // WAV lengths are 32 bit
+        writeSize(RIFF_SIZE_OFFSET, size + HEADER_BYTES - 8);
+        writeSize(DATA_SIZE_OFFSET, size);
+        headerDataBytes = dataBytes;
+    }
+
+    private void writeSize(int offset, long size) throws IOException {
+        sizeField.clear();
+        sizeField.putInt((int) size).flip();
+        while (sizeField.hasRemaining()) {
+            channel.write(sizeField, offset + sizeField.position());
+        }
+    }
+
+    /**
+     * Get the number of bytes of audio written.
+     * @return Bytes of audio, excluding the header.
+     */
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Update the header, cut off unused preallocated space and close the file.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            updateHeader();
+            channel.truncate(HEADER_BYTES + dataBytes);
+        } finally {
+            channel.close();
+        }
+    }
+}
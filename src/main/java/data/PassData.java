@@ -19,6 +19,7 @@ package data;
 
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -36,6 +37,8 @@ public class PassData {
     private List<Double> azProfile;
     private List<Double> elProfile;
     private List<Long> dlFreqHzAdjProfile;
+    private List<Long> ulFreqHzAdjProfile;
+    private TrackPlan trackPlan;
 
     /**
      * Create a pass object.
@@ -48,6 +51,22 @@ public class PassData {
      * @param dlFreqHzAdjProfile Corrected frequency throughout the pass, sampled at {@link PassData#dlFreqHzAdjProfile}.
      */
     public PassData(SatelliteData sat, ZonedDateTime aos, ZonedDateTime los, int profileSampleIntervalS, List<Double> azProfile, List<Double> elProfile, List<Long> dlFreqHzAdjProfile) {
+        this(sat, aos, los, profileSampleIntervalS, azProfile, elProfile, dlFreqHzAdjProfile, new ArrayList<>());
+    }
+
+    /**
+     * Create a pass object for a satellite with an uplink.
+     * @param sat {@link SatelliteData} object of the satellite that will be passing.
+     * @param aos Time the satellite will rise above the horizon.
+     * @param los Time the satellite will fall below the horizon.
+     * @param profileSampleIntervalS Sample interval in seconds of all profiles.
+     * @param azProfile Azimuth heading throughout the pass, sampled at {@link PassData#profileSampleIntervalS}.
+     * @param elProfile Elevation heading throughout the pass, sampled at {@link PassData#profileSampleIntervalS}.
+     * @param dlFreqHzAdjProfile Corrected downlink frequency throughout the pass, sampled at {@link PassData#profileSampleIntervalS}.
+     * @param ulFreqHzAdjProfile Corrected uplink frequency throughout the pass, sampled at
+     * {@link PassData#profileSampleIntervalS}. Empty if the satellite has no uplink.
+     */
+    public PassData(SatelliteData sat, ZonedDateTime aos, ZonedDateTime los, int profileSampleIntervalS, List<Double> azProfile, List<Double> elProfile, List<Long> dlFreqHzAdjProfile, List<Long> ulFreqHzAdjProfile) {
         this.sat = sat;
         this.aos = aos;
         this.los = los;
@@ -56,6 +75,8 @@ public class PassData {
         this.azProfile = azProfile;
         this.elProfile = elProfile;
         this.dlFreqHzAdjProfile = dlFreqHzAdjProfile;
+        this.ulFreqHzAdjProfile = ulFreqHzAdjProfile;
+        this.trackPlan = new TrackPlan(azProfile, elProfile, false, false); // Follow the profile directly until planned
     }
 
     /**
@@ -114,6 +135,32 @@ public class PassData {
         return dlFreqHzAdjProfile;
     }
 
+    /**
+     * Get a list of the frequencies to transmit on so the satellite receives its nominal uplink frequency, after
+     * correction for Doppler shift.
+     * @return Frequency profile in hertz, empty if the satellite has no uplink.
+     */
+    public List<Long> getUlFreqHzAdjProfile() {
+        return ulFreqHzAdjProfile;
+    }
+
+    /**
+     * Get the positions to send to the rotator throughout the pass. Unless replaced with
+     * {@link PassData#setTrackPlan(TrackPlan)}, this follows {@link PassData#azProfile} and {@link PassData#elProfile}.
+     * @return Rotator track plan.
+     */
+    public TrackPlan getTrackPlan() {
+        return trackPlan;
+    }
+
+    /**
+     * Replace the positions to send to the rotator throughout the pass.
+     * @param trackPlan New track plan, sampled at {@link PassData#profileSampleIntervalS}.
+     */
+    public void setTrackPlan(TrackPlan trackPlan) {
+        this.trackPlan = trackPlan;
+    }
+
     /**
      * Get the sample interval for the profiles.
      * @return Sample interval in seconds.
@@ -26,14 +26,14 @@ public class SatelliteData {
     private String id;
     private String[] tle;
     private long nominalDlFreqHz;
-    private long nominalUlFreqHz; //Not currently used, for future expansion
+    private long nominalUlFreqHz; // 0 if the satellite has no uplink
 
     /**
      * Create a satellite object.
      * @param id Name of the satellite (or NORAD ID as a String).
      * @param tle Array of Strings containing the lines of the TLE.
      * @param nominalDlFreqHz Satellite nominal transmission frequency in hertz.
-     * @param nominalUlFreqHz Satellite nominal receive frequency (not currently used) in hertz.
+     * @param nominalUlFreqHz Satellite nominal receive frequency in hertz, 0 if the satellite has no uplink.
      */
     public SatelliteData(String id, String[] tle, long nominalDlFreqHz, long nominalUlFreqHz) {
         this.id = id;
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package data;
+
+import java.util.List;
+
+/**
+ * Encapsulates the azimuth/elevation positions that are sent to the rotator throughout a pass. The track is sampled at
+ * the same interval as the profiles of the associated {@link PassData}. When the rotator is able to move past zenith,
+ * part of the track may be flipped (azimuth + 180 deg, elevation 180 - el) so the rotator points at the same position
+ * in the sky from the opposite side. When the rotator has overlap in azimuth (more than 360 deg of travel), the azimuth
+ * track may be unwrapped to values outside of 0-359 deg so the rotator does not unwind across north during the pass.
+ */
+public class TrackPlan {
+
+    private final List<Double> azTrack;
+    private final List<Double> elTrack;
+    private final boolean flipped;
+    private final boolean unwrapped;
+
+    /**
+     * Create a track plan.
+     * @param azTrack Azimuth positions to send to the rotator, in degrees.
+     * @param elTrack Elevation positions to send to the rotator, in degrees (0-180).
+     * @param flipped True if any part of the track is flipped over zenith.
+     * @param unwrapped True if the azimuth track is continuous across north (may be outside of 0-359 deg).
+     */
+    public TrackPlan(List<Double> azTrack, List<Double> elTrack, boolean flipped, boolean unwrapped) {
+        this.azTrack = azTrack;
+        this.elTrack = elTrack;
+        this.flipped = flipped;
+        this.unwrapped = unwrapped;
+    }
+
+    /**
+     * Get a list of azimuth positions to send to the rotator throughout the pass.
+     * @return Azimuth track.
+     */
+    public List<Double> getAzTrack() {
+        return azTrack;
+    }
+
+    /**
+     * Get a list of elevation positions to send to the rotator throughout the pass.
+     * @return Elevation track.
+     */
+    public List<Double> getElTrack() {
+        return elTrack;
+    }
+
+    /**
+     * Check if any part of the track has been flipped over zenith.
+     * @return True if flipped.
+     */
+    public boolean isFlipped() {
+        return flipped;
+    }
+
+    /**
+     * Check if the azimuth track is continuous across north. If false, azimuth positions are in the range 0-359 deg.
+     * @return True if unwrapped.
+     */
+    public boolean isUnwrapped() {
+        return unwrapped;
+    }
+
+    /**
+     * Generate description of a {@link TrackPlan} object.
+     * @return Description.
+     */
+    @Override
+    public String toString() {
+        return "Track plan with " + this.azTrack.size() + " positions" + (this.flipped ? ", flipped over zenith" : "")
+                + (this.unwrapped ? ", azimuth unwrapped" : "");
+    }
+
+}
@@ -17,12 +17,18 @@
 
 package decode;
 
+import audio.AudioRingBuffer;
+import utils.ResultUtils;
+
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Defines methods required to configure and execute an external decoder tool. Extends {@link Runnable} to
  * allow monitoring and communication with the decoder tool to take place in a separate thread. This interface is
  * designed to function with external decoders that independently monitor an audio input and decoder in real time.
+ * Decoders that can also read audio captured by this program accept it with
+ * {@link Decoder#setAudioSource(Supplier, int)}.
  */
 public interface Decoder extends Runnable {
 
@@ -49,4 +55,25 @@ public interface Decoder extends Runnable {
      */
     void setDurationS(int durationS);
 
+    /**
+     * Check that the decoder can be started, without starting it, so that problems are found at startup rather than
+     * at AOS. {@link Decoder#setDecoderPath(String)} must be called first.
+     * @return The success/failure status of the check.
+     */
+    default ResultUtils preflight() {
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    /**
+     * Decode the audio captured into a ring buffer by this program instead of opening an audio input, e.g. audio with
+     * the Doppler shift removed (see {@link audio.AudioRecord#setDopplerShift(java.util.function.DoubleSupplier)}).
+     * Call before the decoder is started.
+     * @param ring Supplies the ring buffer the audio is captured into, or null while not capturing.
+     * @param sampleRate Sample rate of the audio in hertz.
+     * @return The success/failure status of the operation. Fails if the decoder can only read its own audio input.
+     */
+    default ResultUtils setAudioSource(Supplier<AudioRingBuffer> ring, int sampleRate) {
+        return ResultUtils.createFailedResult();
+    }
+
 }
@@ -17,21 +17,31 @@
 
 package decode;
 
+import audio.AudioRingBuffer;
 import utils.HexadecimalUtils;
 import utils.Log;
 import utils.ConfigurationUtils;
+import utils.ResultUtils;
 import utils.TimeUtils;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Class for communication with the Dire Wolf packet radio modem.
  * The Dire Wolf executable is started and passed the baud rate of data specified in the configuration file.
  * A socket connection is opened to the Dire Wolf KISS port to receive the demodulated data.
+ * Dire Wolf reads the sound card itself, unless an audio source is set with
+ * {@link DecoderDireWolf#setAudioSource(Supplier, int)}, in which case the captured audio is sent to its standard input
+ * as it arrives (Dire Wolf reads audio from stdin when given "-" as the input).
  *
  * Dire Wolf can be started in a separate thread using {@link DecoderDireWolf#run()} or in the existing thread
  * using {@link DecoderDireWolf#startDecoder()}.
@@ -42,6 +52,8 @@ public class DecoderDireWolf implements Decoder {
     private String direWolfDir;
     private int kissPort = ConfigurationUtils.getIntProperty("DECODER_KISS_PORT");
     private int durationS;
+    private Supplier<AudioRingBuffer> audioSource;
+    private int audioSampleRate;
 
     public DecoderDireWolf() {}
 
@@ -54,8 +66,12 @@ public class DecoderDireWolf implements Decoder {
         /*
          * Step 1: Configure, then execute command to start dire wolf executable.
          */
-        ProcessBuilder direWolfPb = new ProcessBuilder(direWolfDir + "\\direwolf", "-B "
-                + ConfigurationUtils.getStrProperty("SAT_BAUD"));
+        List<String> command = new ArrayList<>(List.of(direWolfDir + "\\direwolf", "-B "
+                + ConfigurationUtils.getStrProperty("SAT_BAUD")));
+        if (audioSource != null) { // 16 bit mono audio on stdin
+            command.addAll(List.of("-r", String.valueOf(audioSampleRate), "-n", "1", "-b", "16", "-"));
+        }
+        ProcessBuilder direWolfPb = new ProcessBuilder(command);
         Log.debug("Starting DireWolf...");
         Log.debug(String.join(" ", direWolfPb.command().toArray(new String[0])));
         direWolfPb.directory(new File(direWolfDir));
@@ -63,6 +79,11 @@ public class DecoderDireWolf implements Decoder {
         try {
             direWolfP = direWolfPb.start();
             Log.debug("DireWolf started");
+            if (audioSource != null) {
+                OutputStream stdin = direWolfP.getOutputStream();
+                long feedEndMillis = System.currentTimeMillis() + 1000 + durationS * 1000L; // Setup time, then pass
+                Thread.ofPlatform().name("DireWolfAudio").daemon().start(() -> feedAudio(stdin, feedEndMillis));
+            }
         } catch (IOException e) {
             Log.error("DireWolf failed to start.");
             throw new RuntimeException(e);
@@ -123,6 +144,72 @@ public class DecoderDireWolf implements Decoder {
         direWolfP.destroyForcibly(); // Close dire wolf process
     }
 
+    /**
+     * Send the captured audio to Dire Wolf as 16 bit little-endian samples, from when capture starts until a time or
+     * until Dire Wolf exits. Audio captured before this is called is not sent.
+     * @param out Standard input of Dire Wolf, closed when done.
+     * @param endMillis Time to stop in milliseconds since the epoch.
+     */
+    void feedAudio(OutputStream out, long endMillis) {
+        byte[] pcm = new byte[8192];
+        try (out) {
+            AudioRingBuffer ring = null;
+            AudioRingBuffer.Cursor cursor = null;
+            long sent = 0;
+            while (System.currentTimeMillis() < endMillis) {
+                AudioRingBuffer current = audioSource.get();
+                if (current != ring) { // Capture started (or restarted)
+                    ring = current;
+                    cursor = ring == null ? null : ring.newCursor(0);
+                }
+                int n = ring == null ? 0 : ring.poll(cursor, (samples, offset, length) -> {
+                    for (int i = 0; i < length; i++) {
+                        pcm[2 * i] = (byte) samples[offset + i];
+                        pcm[2 * i + 1] = (byte) (samples[offset + i] >> 8);
+                    }
+                    out.write(pcm, 0, 2 * length);
+                }, pcm.length / 2);
+                sent += n;
+                if (n == 0) {
+                    out.flush();
+                    TimeUnit.MILLISECONDS.sleep(10);
+                }
+            }
+            Log.debug(sent + " audio samples sent to DireWolf");
+        } catch (IOException e) {
+            Log.debug("DireWolf audio input closed: " + e.getMessage()); // DireWolf exited
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public ResultUtils setAudioSource(Supplier<AudioRingBuffer> ring, int sampleRate) {
+        this.audioSource = ring;
+        this.audioSampleRate = sampleRate;
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    /**
+     * Check that the Dire Wolf executable exists in the decoder path, and that the KISS port is free for Dire Wolf to
+     * listen on (another Dire Wolf left running would otherwise be read instead).
+     * @return The success/failure status of the check.
+     */
+    public ResultUtils preflight() {
+        if (direWolfDir == null || !(new File(direWolfDir, "direwolf.exe").isFile()
+                || new File(direWolfDir, "direwolf").isFile())) {
+            Log.error("DireWolf executable not found in " + direWolfDir);
+            return ResultUtils.createFailedResult();
+        }
+        try {
+            new ServerSocket(kissPort, 1, InetAddress.getLoopbackAddress()).close();
+            Log.debug("DireWolf KISS port " + kissPort + " is free");
+        } catch (IOException e) {
+            Log.error("DireWolf KISS port " + kissPort + " is already in use. Is another DireWolf running?");
+            return ResultUtils.createFailedResult();
+        }
+        return ResultUtils.createSuccessfulResult();
+    }
+
     public List<byte[]> getDecodedData() {
         return decodedData;
     }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import utils.Log;
+import utils.ResultUtils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking wrapper around a {@link Rotator}. The blocking goTo methods of the rotator run on a dedicated thread and
+ * each call returns a {@link CompletableFuture} that completes with the result of the move: successful on arrival, or
+ * failed if the rotator could not reach the position within tolerance before timing out.
+ *
+ * Only one move is in flight at a time. A new azimuth and elevation requested while a move is in flight is handed to
+ * the driver with {@link Rotator#retarget(int, int)}, which redirects the move between position polls, so the rotator
+ * turns towards the new target straight away rather than finishing a move that may take minutes. Its future completes
+ * together with the move in flight, once the new target is reached. If the driver cannot redirect the move, the new
+ * position is queued without waiting, replacing any queued target not yet started (its future is cancelled). The
+ * thread of the move in flight is never interrupted, as that could leave the driver mid-transaction with the port
+ * open or a reply unread.
+ */
+public class AsyncRotator {
+
+    private final Rotator rotator;
+    private final ExecutorService executor;
+    private final Object lock = new Object();
+    private CompletableFuture<ResultUtils> latest; // Last requested move
+    private CompletableFuture<ResultUtils> queued; // Requested move not yet started
+    private CompletableFuture<ResultUtils> running; // Move in flight
+
+    /**
+     * Create a non-blocking wrapper.
+     * @param rotator Rotator to move. Should not be moved by any other thread while wrapped.
+     */
+    public AsyncRotator(Rotator rotator) {
+        this.rotator = rotator;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "AsyncRotator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Move the rotator to a new azimuth position, see {@link Rotator#goToAz(int)}.
+     * @param az New azimuth position in degrees from true north.
+     * @return Future completing with the success/failure status of the move.
+     */
+    public CompletableFuture<ResultUtils> goToAz(int az) {
+        return submit(() -> rotator.goToAz(az));
+    }
+
+    /**
+     * Move the rotator to a new elevation position, see {@link Rotator#goToEl(int)}.
+     * @param el New elevation position in degrees from the horizon.
+     * @return Future completing with the success/failure status of the move.
+     */
+    public CompletableFuture<ResultUtils> goToEl(int el) {
+        return submit(() -> rotator.goToEl(el));
+    }
+
+    /**
+     * Move the rotator to a new azimuth and elevation position, see {@link Rotator#goToAzEl(int, int)}. A move in
+     * flight is redirected to the new position if the driver supports it.
+     * @param az New azimuth position in degrees from true north.
+     * @param el New elevation position in degrees from the horizon.
+     * @return Future completing with the success/failure status of the move.
+     */
+    public CompletableFuture<ResultUtils> goToAzEl(int az, int el) {
+        synchronized (lock) {
+            if (running != null && !running.isDone() && rotator.retarget(az, el)) {
+                cancelQueued(); // Superseded by the new target
+                Log.debug("AsyncRotator retargeting move in flight");
+                CompletableFuture<ResultUtils> result = running.thenApply(rst -> rst);
+                latest = result;
+                return result;
+            }
+        }
+        return submit(() -> rotator.goToAzEl(az, el));
+    }
+
+    /**
+     * Check if a move is in flight.
+     * @return True if the last requested move has not completed.
+     */
+    public boolean isMoving() {
+        synchronized (lock) {
+            return latest != null && !latest.isDone();
+        }
+    }
+
+    /**
+     * Get the wrapped rotator, for example to read the current position.
+     * @return Wrapped rotator.
+     */
+    public Rotator getRotator() {
+        return rotator;
+    }
+
+    /**
+     * Cancel any queued move and stop the rotator thread once the move in flight (if any) completes.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            cancelQueued();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Queue a move after the move in flight, replacing any queued move not yet started.
+     * @param move Blocking call to the rotator.
+     * @return Future completing with the result of the move.
+     */
+    private CompletableFuture<ResultUtils> submit(Callable<ResultUtils> move) {
+        CompletableFuture<ResultUtils> result = new CompletableFuture<>();
+        synchronized (lock) {
+            if (cancelQueued()) {
+                Log.debug("AsyncRotator replacing queued target");
+            }
+            queued = result;
+            latest = result;
+            executor.execute(() -> {
+                synchronized (lock) {
+                    if (result.isDone()) {
+                        return; // Replaced by a newer target before it started
+                    }
+                    queued = null;
+                    running = result;
+                }
+                try {
+                    result.complete(move.call());
+                } catch (InterruptedException e) {
+                    result.cancel(false);
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+                synchronized (lock) {
+                    running = null;
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Cancel the future of the queued move (if any), so it is skipped. Must be called while holding the lock.
+     * @return True if a move was queued.
+     */
+    private boolean cancelQueued() {
+        if (queued == null) {
+            return false;
+        }
+        queued.cancel(false);
+        queued = null;
+        return true;
+    }
+
+}
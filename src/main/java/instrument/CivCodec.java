@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import java.util.Arrays;
+
+/**
+ * Encoder and streaming parser for ICOM CI-V frames (see IC-9100 manual page 183). A frame has the form
+ * FE FE to from cn [sc] [data] FD, with numeric data in BCD.
+ *
+ * <P>Commands are encoded into a preallocated transmit buffer, so sending a command does not allocate. Received bytes
+ * are fed to the parser one at a time, in whatever chunks they arrive from the port; each call to
+ * {@link CivCodec#accept(byte)} that completes a frame returns true, after which the frame can be inspected until the
+ * next byte is accepted. Echoes of our own commands, broadcasts and replies are all returned as frames and can be told
+ * apart by their addresses. Frames containing the collision code (FC), and bytes outside of a frame, are discarded.</P>
+ *
+ * <P>A codec instance is not thread safe; use one per transceiver, accessed by one thread at a time.</P>
+ */
+public class CivCodec {
+
+    public static final byte PREAMBLE = (byte) 0xFE;
+    public static final byte END = (byte) 0xFD;
+    public static final byte COLLISION = (byte) 0xFC;
+    public static final byte ACK_OK = (byte) 0xFB;
+    public static final byte ACK_NG = (byte) 0xFA;
+    public static final byte BROADCAST_ADDR = 0x00;
+    public static final int NO_SUB_COMMAND = -1;
+    static final int MAX_FRAME_LENGTH = 64;
+
+    // BCD lookup tables: BCD_ENCODE[n] is the BCD byte for 0-99, BCD_DECODE[b] the value of a BCD byte (-1 if invalid)
+    private static final byte[] BCD_ENCODE = new byte[100];
+    private static final int[] BCD_DECODE = new int[256];
+    static {
+        Arrays.fill(BCD_DECODE, -1);
+        for (int n = 0; n < 100; n++) {
+            BCD_ENCODE[n] = (byte) (((n / 10) << 4) | (n % 10));
+            BCD_DECODE[BCD_ENCODE[n] & 0xFF] = n;
+        }
+    }
+
+    private final byte radioAddr;
+    private final byte controllerAddr;
+    private final byte[] txBuffer = new byte[MAX_FRAME_LENGTH];
+    private final byte[] rxFrame = new byte[MAX_FRAME_LENGTH];
+    private int rxLength = 0; // Bytes of the frame being received, including the preamble
+    private int frameLength = 0; // Length of the last complete frame
+    private long discardedFrames = 0;
+
+    /**
+     * Create a codec for communication between a controller and one transceiver.
+     * @param radioAddr CI-V address of the transceiver.
+     * @param controllerAddr CI-V address of this controller.
+     */
+    public CivCodec(byte radioAddr, byte controllerAddr) {
+        this.radioAddr = radioAddr;
+        this.controllerAddr = controllerAddr;
+    }
+
+    /**
+     * Encode a command with no data.
+     * @param cn Command number.
+     * @param sc Sub command number, or {@link CivCodec#NO_SUB_COMMAND}.
+     * @return Length of the command in {@link CivCodec#getTxBuffer()}.
+     */
+    public int encode(byte cn, int sc) {
+        int len = header(cn, sc);
+        txBuffer[len++] = END;
+        return len;
+    }
+
+    /**
+     * Encode a command with single byte data.
+     * @param cn Command number.
+     * @param sc Sub command number, or {@link CivCodec#NO_SUB_COMMAND}.
+     * @param data Data byte.
+     * @return Length of the command in {@link CivCodec#getTxBuffer()}.
+     */
+    public int encode(byte cn, int sc, byte data) {
+        int len = header(cn, sc);
+        txBuffer[len++] = data;
+        txBuffer[len++] = END;
+        return len;
+    }
+
+    /**
+     * Encode a command with a 5 byte BCD frequency as data, least significant digits first.
+     * @param cn Command number.
+     * @param sc Sub command number, or {@link CivCodec#NO_SUB_COMMAND}.
+     * @param freqHz Frequency in Hz, up to 10 digits.
+     * @return Length of the command in {@link CivCodec#getTxBuffer()}.
+     */
+    public int encodeFrequency(byte cn, int sc, long freqHz) {
+        int len = header(cn, sc);
+        long remaining = freqHz;
+        for (int i = 0; i < 5; i++) {
+            txBuffer[len++] = BCD_ENCODE[(int) (remaining % 100)];
+            remaining /= 100;
+        }
+        txBuffer[len++] = END;
+        return len;
+    }
+
+    /**
+     * Get the transmit buffer holding the last encoded command. Overwritten by the next encode.
+     * @return Transmit buffer.
+     */
+    public byte[] getTxBuffer() {
+        return txBuffer;
+    }
+
+    /**
+     * Write the preamble, addresses, command and sub command to the transmit buffer.
+     * @return Length written.
+     */
+    private int header(byte cn, int sc) {
+        txBuffer[0] = PREAMBLE;
+        txBuffer[1] = PREAMBLE;
+        txBuffer[2] = radioAddr;
+        txBuffer[3] = controllerAddr;
+        txBuffer[4] = cn;
+        if (sc == NO_SUB_COMMAND) {
+            return 5;
+        }
+        txBuffer[5] = (byte) sc;
+        return 6;
+    }
+
+    /**
+     * Feed one received byte to the parser.
+     * @param b Received byte.
+     * @return True if the byte completed a valid frame, which can then be inspected.
+     */
+    public boolean accept(byte b) {
+        if (b == PREAMBLE) {
+            if (rxLength > 2) { // Preamble inside a frame, the rest of the frame was lost
+                discardedFrames++;
+            }
+            rxLength = Math.min(rxLength, 1) + 1; // Extra preamble bytes are allowed
+            rxFrame[rxLength - 1] = b;
+            return false;
+        }
+        if (rxLength < 2) { // Byte outside of a frame
+            rxLength = 0;
+            return false;
+        }
+        if (b == END) {
+            rxFrame[rxLength++] = b;
+            frameLength = rxLength;
+            rxLength = 0;
+            if (frameLength < 6 || contains(COLLISION)) { // Shortest frame is FE FE to from cn FD
+                discardedFrames++;
+                return false;
+            }
+            return true;
+        }
+        if (rxLength >= MAX_FRAME_LENGTH - 1) { // Too long to be a valid frame
+            discardedFrames++;
+            rxLength = 0;
+            return false;
+        }
+        rxFrame[rxLength++] = b;
+        return false;
+    }
+
+    /**
+     * Check if the last frame contains a byte value after the preamble.
+     */
+    private boolean contains(byte value) {
+        for (int i = 2; i < frameLength; i++) {
+            if (rxFrame[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the destination address of the last complete frame.
+     * @return Destination address.
+     */
+    public byte getTo() {
+        return rxFrame[2];
+    }
+
+    /**
+     * Get the source address of the last complete frame.
+     * @return Source address.
+     */
+    public byte getFrom() {
+        return rxFrame[3];
+    }
+
+    /**
+     * Get the command number of the last complete frame (FB/FA for acknowledgements).
+     * @return Command number.
+     */
+    public byte getCommand() {
+        return rxFrame[4];
+    }
+
+    /**
+     * Get the number of bytes following the command number in the last complete frame (sub command and data).
+     * @return Payload length.
+     */
+    public int getPayloadLength() {
+        return frameLength - 6;
+    }
+
+    /**
+     * Get a byte following the command number in the last complete frame.
+     * @param i Index, 0 for the byte directly after the command number.
+     * @return Payload byte.
+     */
+    public byte getPayload(int i) {
+        return rxFrame[5 + i];
+    }
+
+    /**
+     * Check if the last complete frame is a reply from the transceiver to this controller.
+     * @return True for a reply.
+     */
+    public boolean isReply() {
+        return getFrom() == radioAddr && getTo() == controllerAddr;
+    }
+
+    /**
+     * Check if the last complete frame is a transceive broadcast from the transceiver.
+     * @return True for a broadcast.
+     */
+    public boolean isBroadcast() {
+        return getFrom() == radioAddr && getTo() == BROADCAST_ADDR;
+    }
+
+    /**
+     * Decode a 5 byte BCD frequency (least significant digits first) from the payload of the last complete frame.
+     * @param offset Payload index of the first frequency byte.
+     * @return Frequency in Hz, or -1 if the payload is too short or not valid BCD.
+     */
+    public long decodeFrequency(int offset) {
+        if (getPayloadLength() < offset + 5) {
+            return -1;
+        }
+        long freq = 0;
+        for (int i = 4; i >= 0; i--) { // Most significant byte last
+            int value = BCD_DECODE[getPayload(offset + i) & 0xFF];
+            if (value < 0) {
+                return -1;
+            }
+            freq = freq * 100 + value;
+        }
+        return freq;
+    }
+
+    /**
+     * Get the number of frames discarded (collisions, truncated or oversized frames).
+     * @return Discarded frame count.
+     */
+    public long getDiscardedFrames() {
+        return discardedFrames;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simulated Yaesu GS-232B rotator controller (see {@link InstrumentSimulator}), answering the commands used by
+ * {@link RotatorGS232B}: C2 (read position), M (set azimuth), W (set position, or store a timed track when followed by
+ * an interval), T (start the timed track), N (read track progress), X1-X4 (azimuth speed) and S/A/E (stop). Commands
+ * are ASCII terminated by a carriage return. Unknown commands are answered with ?>.
+ */
+public class GS232BSimulator extends RotatorSimulator {
+
+    private static final int MAX_COMMAND_LENGTH = 20000; // Long enough for a timed track
+    private static final double[] SPEED_FRACTIONS = {0.25, 0.5, 0.75, 1.0}; // X1 to X4
+
+    private final StringBuilder command = new StringBuilder();
+    private final List<int[]> track = new ArrayList<>();
+    private int trackIntervalS = 0;
+    private long trackStartMillis = -1; // Not running
+
+    /**
+     * Create a GS-232B simulator with 450 deg of azimuth and 180 deg of elevation.
+     * @param name Name of the pipe, the driver uses the port mem://name.
+     * @param baudRate Baud rate of the simulated link.
+     * @param latencyMillis Time taken by the controller to answer a command.
+     * @param azRateDegPerS Azimuth slew rate at full speed (X4).
+     * @param elRateDegPerS Elevation slew rate.
+     */
+    public GS232BSimulator(String name, int baudRate, long latencyMillis, double azRateDegPerS, double elRateDegPerS) {
+        super(name, baudRate, latencyMillis, azRateDegPerS, elRateDegPerS, 0, 450, 180);
+    }
+
+    protected void receive(byte b) throws InterruptedException {
+        if (b == '\r') {
+            execute(command.toString().strip().toUpperCase());
+            command.setLength(0);
+        } else if (b != '\n' && command.length() < MAX_COMMAND_LENGTH) {
+            command.append((char) b);
+        }
+    }
+
+    protected void idle() {
+        super.idle();
+        synchronized (this) {
+            if (trackStartMillis < 0) {
+                return;
+            }
+            int index = getTrackIndex();
+            if (index >= track.size()) {
+                trackStartMillis = -1; // Finished, stay at the last position
+                return;
+            }
+            setTargetAz(track.get(index)[0]);
+            setTargetEl(track.get(index)[1]);
+        }
+    }
+
+    /**
+     * Get the position of the timed track being moved to.
+     * @return Index in the track, counted from 0.
+     */
+    private synchronized int getTrackIndex() {
+        return (int) ((System.currentTimeMillis() - trackStartMillis) / (trackIntervalS * 1000L));
+    }
+
+    /**
+     * Execute a command and send its reply, if any.
+     * @param cmd Command without the carriage return.
+     * @throws InterruptedException
+     */
+    private void execute(String cmd) throws InterruptedException {
+        if (cmd.isEmpty()) {
+            return;
+        }
+        try {
+            switch (cmd.charAt(0)) {
+                case 'C' -> {
+                    if (cmd.equals("C2")) {
+                        respond(String.format("AZ=%03d  EL=%03d", Math.round(getAz()), Math.round(getEl())));
+                    } else {
+                        respond(String.format("AZ=%03d", Math.round(getAz())));
+                    }
+                }
+                case 'B' -> respond(String.format("EL=%03d", Math.round(getEl())));
+                case 'M' -> setTargetAz(Integer.parseInt(cmd.substring(1).strip()));
+                case 'W' -> {
+                    if (cmd.indexOf(',') > 0) {
+                        storeTrack(cmd);
+                    } else {
+                        String[] position = cmd.substring(1).strip().split("\\s+");
+                        setTargetAz(Integer.parseInt(position[0]));
+                        setTargetEl(Integer.parseInt(position[1]));
+                    }
+                }
+                case 'T' -> startTrack();
+                case 'N' -> respondTrackProgress();
+                case 'X' -> setAzSpeedFraction(SPEED_FRACTIONS[Integer.parseInt(cmd.substring(1)) - 1]);
+                case 'S', 'A', 'E' -> {
+                    synchronized (this) {
+                        trackStartMillis = -1;
+                    }
+                    stopMotion();
+                }
+                default -> respond("?>");
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            respond("?>");
+        }
+    }
+
+    /**
+     * Store a timed track of the form Wttt,aaa eee,aaa eee,...
+     */
+    private synchronized void storeTrack(String cmd) {
+        String[] parts = cmd.substring(1).split(",");
+        trackIntervalS = Integer.parseInt(parts[0].strip());
+        track.clear();
+        for (int i = 1; i < parts.length; i++) {
+            String[] position = parts[i].strip().split("\\s+");
+            track.add(new int[]{Integer.parseInt(position[0]), Integer.parseInt(position[1])});
+        }
+        trackStartMillis = -1;
+    }
+
+    private synchronized void startTrack() {
+        if (!track.isEmpty() && trackIntervalS > 0) {
+            trackStartMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Reply with the number of stored positions and the present position (counted from 1, 0 when not running).
+     */
+    private void respondTrackProgress() throws InterruptedException {
+        int total;
+        int present;
+        synchronized (this) {
+            total = track.size();
+            present = trackStartMillis < 0 ? 0 : Math.min(total, getTrackIndex() + 1);
+        }
+        respond(String.format("%04d,%04d", total, present));
+    }
+
+    private void respond(String text) throws InterruptedException {
+        byte[] bytes = (text + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        reply(bytes, bytes.length);
+    }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import utils.LatencyHistogram;
+import utils.LatencyRegistry;
+import utils.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection to a Hamlib network daemon (rigctld or rotctld), shared by {@link TransceiverHamlib} and
+ * {@link RotatorHamlib}.
+ *
+ * <P>The connection is kept open between commands (TCP_NODELAY, non-blocking NIO with a selector for timeouts) and
+ * reopened once if it drops. Commands use the extended response protocol: each command is prefixed with {@code +}, and
+ * the daemon answers with the command name, one {@code Key: Value} line per returned value and a final
+ * {@code RPRT <code>} line. Since every response is terminated, several commands are written together and their
+ * responses read back in order (pipelined), costing one round trip instead of one per command.</P>
+ *
+ * <P>The time taken by each exchange is recorded in the {@link LatencyRegistry} under the instrument name and the
+ * commands sent together, e.g. "TransceiverHamlib get_freq+get_mode".</P>
+ */
+class HamlibClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final long RESPONSE_TIMEOUT_MILLIS = 2000;
+
+    private final String name;
+    private final String host;
+    private final int port;
+    private final ByteBuffer rxBuffer = ByteBuffer.allocate(4096);
+    private final StringBuilder line = new StringBuilder();
+    private SocketChannel channel;
+    private Selector selector;
+
+    /**
+     * A response to a single command.
+     */
+    static class Response {
+
+        private final Map<String, String> values = new HashMap<>();
+        private int code = Integer.MIN_VALUE; // Not received
+
+        /**
+         * Get a value returned by the command.
+         * @param key Key of the value, e.g. Frequency.
+         * @return The value, or null if not returned.
+         */
+        String get(String key) {
+            return values.get(key);
+        }
+
+        /**
+         * Get the Hamlib status code of the command.
+         * @return 0 on success, a negative Hamlib error code on failure.
+         */
+        int getCode() {
+            return code;
+        }
+
+        /**
+         * Check if the command succeeded.
+         * @return True if the status code is 0.
+         */
+        boolean isOk() {
+            return code == 0;
+        }
+    }
+
+    /**
+     * Create a client. The connection is opened by {@link HamlibClient#connect()} or the first command.
+     * @param name Name of the instrument for log messages.
+     * @param address Address of the daemon in the form host:port.
+     */
+    HamlibClient(String name, String address) {
+        int sep = address.lastIndexOf(':');
+        if (sep < 1) {
+            throw new RuntimeException(name + " address must be in the form host:port, got " + address);
+        }
+        this.name = name;
+        this.host = address.substring(0, sep);
+        this.port = Integer.parseInt(address.substring(sep + 1).strip());
+    }
+
+    /**
+     * Open the connection if it is not already open.
+     * @return True if connected.
+     */
+    synchronized boolean connect() {
+        if (channel != null && channel.isOpen()) {
+            return true;
+        }
+        try {
+            channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            rxBuffer.clear().flip();
+            line.setLength(0);
+            Log.debug(name + " connected to " + host + ":" + port);
+            return true;
+        } catch (IOException e) {
+            Log.error(name + " could not connect to " + host + ":" + port + ": " + e.getMessage());
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * Close the connection.
+     */
+    synchronized void close() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            Log.warn(name + " error closing connection: " + e.getMessage());
+        }
+        selector = null;
+        channel = null;
+    }
+
+    /**
+     * Send commands together and read back their responses. The connection is reopened and the commands resent once
+     * if the connection has dropped.
+     * @param commands Commands without the leading {@code +} or trailing newline, e.g. {@code \get_freq}.
+     * @return One response per command in the same order, or null if the exchange failed.
+     * @throws InterruptedException
+     */
+    synchronized List<Response> transact(String... commands) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (!connect()) {
+                return null;
+            }
+            try {
+                List<Response> responses = exchange(commands);
+                latencyOf(commands).recordSince(start);
+                return responses;
+            } catch (IOException e) {
+                Log.warn(name + " connection error: " + e.getMessage());
+                close();
+            } catch (InterruptedException e) {
+                close(); // Responses may still arrive, as after a timeout
+                throw e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the latency histogram for a group of commands, named by the command names without their arguments.
+     */
+    private LatencyHistogram latencyOf(String[] commands) {
+        StringBuilder key = new StringBuilder(name).append(' ');
+        for (int i = 0; i < commands.length; i++) {
+            String command = commands[i].startsWith("\\") ? commands[i].substring(1) : commands[i];
+            int end = command.indexOf(' ');
+            key.append(i == 0 ? "" : "+").append(end < 0 ? command : command.substring(0, end));
+        }
+        return LatencyRegistry.get(key.toString());
+    }
+
+    /**
+     * Write all commands in a single write, then read their responses.
+     * @param commands Commands to send.
+     * @return Responses, or null on timeout (the connection is closed, and reopened by the next command).
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private List<Response> exchange(String[] commands) throws IOException, InterruptedException {
+        /*
+         * Step 1: Discard anything unexpected left on the connection, then write the commands.
+         */
+        rxBuffer.clear().flip();
+        line.setLength(0);
+        while (selector.selectNow() > 0) {
+            selector.selectedKeys().clear();
+            if (fill() < 0) {
+                throw new IOException("connection closed by " + host);
+            }
+            rxBuffer.clear().flip();
+        }
+        StringBuilder out = new StringBuilder();
+        for (String command : commands) {
+            out.append('+').append(command).append('\n');
+        }
+        ByteBuffer txBuffer = ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.US_ASCII));
+        while (txBuffer.hasRemaining()) {
+            channel.write(txBuffer);
+        }
+
+        /*
+         * Step 2: Parse lines until a response has been completed (RPRT line) for each command. The first line of each
+         * response echoes the command and is skipped, other lines are Key: Value pairs.
+         */
+        List<Response> responses = new ArrayList<>(commands.length);
+        Response current = new Response();
+        long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT_MILLIS;
+        while (responses.size() < commands.length) {
+            String next = nextLine(deadline);
+            if (next == null) {
+                // The daemon may still answer, close so the late reply is not read as the reply to the next command
+                Log.warn(name + " timed out waiting for response to " + commands[responses.size()]);
+                close();
+                return null;
+            }
+            if (next.startsWith("RPRT")) {
+                try {
+                    current.code = Integer.parseInt(next.substring(4).strip());
+                } catch (NumberFormatException e) {
+                    current.code = -1;
+                }
+                responses.add(current);
+                current = new Response();
+                continue;
+            }
+            int sep = next.indexOf(':');
+            if (sep > 0 && sep < next.length() - 1 && !isEcho(next, sep)) {
+                current.values.put(next.substring(0, sep).strip(), next.substring(sep + 1).strip());
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Check if a line is the command echo that begins each response, e.g. {@code set_freq: 145000000}.
+     */
+    private static boolean isEcho(String line, int sep) {
+        String key = line.substring(0, sep);
+        return key.indexOf('_') > 0 && key.equals(key.toLowerCase());
+    }
+
+    /**
+     * Read the next complete line from the connection.
+     * @param deadline Time in milliseconds since the epoch to give up.
+     * @return The line without the newline, or null on timeout.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private String nextLine(long deadline) throws IOException, InterruptedException {
+        while (true) {
+            while (rxBuffer.hasRemaining()) {
+                char c = (char) rxBuffer.get();
+                if (c == '\n') {
+                    String rst = line.toString();
+                    line.setLength(0);
+                    return rst;
+                } else if (c != '\r') {
+                    line.append(c);
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (selector.select(remaining) > 0) {
+                selector.selectedKeys().clear();
+                if (fill() < 0) {
+                    throw new IOException("connection closed by " + host);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read available bytes into the receive buffer.
+     * @return Number of bytes read, or -1 if the connection was closed.
+     * @throws IOException
+     */
+    private int fill() throws IOException {
+        rxBuffer.compact();
+        int n = channel.read(rxBuffer);
+        rxBuffer.flip();
+        return n;
+    }
+
+}
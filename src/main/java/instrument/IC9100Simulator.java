@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import utils.FrequencyUtils;
+
+/**
+ * Simulated ICOM IC-9100 transceiver (see {@link InstrumentSimulator}), answering the CI-V commands used by
+ * {@link TransceiverIC9100}: 03/04 (read frequency/mode), 05/06 (set frequency/mode, acknowledged), 00/01 (set without
+ * acknowledgement), 07 B0 (swap main and sub), 07 D0/D1 (select main/sub) and 16 5A (satellite mode).
+ *
+ * <P>As on the single wire CI-V bus, every frame sent to the transceiver is echoed back before the reply. Main and sub
+ * must be in different bands (VHF and UHF), a frequency set that would put both in the same band is rejected (NG).
+ * {@link IC9100Simulator#turnDial(long)} simulates a change from the front panel, which is broadcast (CI-V
+ * transceive) to all controllers.</P>
+ */
+public class IC9100Simulator extends InstrumentSimulator {
+
+    private static final byte MODE_FM = 0x05;
+
+    private final byte radioAddr;
+    private final CivCodec rxCodec; // Parses frames from any controller to this transceiver
+    private final CivCodec broadcastCodec;
+    private CivCodec txCodec; // Encodes replies to the controller of the last command
+    private byte txController = CivCodec.BROADCAST_ADDR;
+    private final byte[] frame = new byte[CivCodec.MAX_FRAME_LENGTH];
+    private final long[] freqHz = {145800000, 435300000}; // Main, sub
+    private final byte[] mode = {MODE_FM, MODE_FM};
+    private int selected = 0; // Main
+    private boolean satelliteMode = false;
+
+    /**
+     * Create an IC-9100 simulator with the main band on VHF and the sub band on UHF.
+     * @param name Name of the pipe, the driver uses the port mem://name.
+     * @param baudRate Baud rate of the simulated link.
+     * @param latencyMillis Time taken by the transceiver to answer a command.
+     * @param radioAddr CI-V address of the transceiver.
+     */
+    public IC9100Simulator(String name, int baudRate, long latencyMillis, byte radioAddr) {
+        super(name, baudRate, latencyMillis);
+        this.radioAddr = radioAddr;
+        this.rxCodec = new CivCodec(CivCodec.BROADCAST_ADDR, radioAddr);
+        this.broadcastCodec = new CivCodec(CivCodec.BROADCAST_ADDR, radioAddr);
+        this.txCodec = broadcastCodec;
+    }
+
+    protected void receive(byte b) throws InterruptedException {
+        if (!rxCodec.accept(b) || rxCodec.getTo() != radioAddr) {
+            return;
+        }
+
+        /*
+         * Step 1: Echo the frame, then address replies to the controller that sent it.
+         */
+        int length = rxCodec.getPayloadLength() + 6;
+        frame[0] = CivCodec.PREAMBLE;
+        frame[1] = CivCodec.PREAMBLE;
+        frame[2] = rxCodec.getTo();
+        frame[3] = rxCodec.getFrom();
+        frame[4] = rxCodec.getCommand();
+        for (int i = 0; i < rxCodec.getPayloadLength(); i++) {
+            frame[5 + i] = rxCodec.getPayload(i);
+        }
+        frame[length - 1] = CivCodec.END;
+        echo(frame, length);
+        if (txController != rxCodec.getFrom()) {
+            txController = rxCodec.getFrom();
+            txCodec = new CivCodec(txController, radioAddr);
+        }
+
+        /*
+         * Step 2: Execute the command.
+         */
+        int sub = rxCodec.getPayloadLength() > 0 ? rxCodec.getPayload(0) & 0xFF : -1;
+        switch (rxCodec.getCommand()) {
+            case 0x03 -> sendFrame(txCodec.encodeFrequency((byte) 0x03, CivCodec.NO_SUB_COMMAND, getFrequencyHz()));
+            case 0x04 -> sendFrame(txCodec.encode((byte) 0x04, CivCodec.NO_SUB_COMMAND, getMode()));
+            case 0x00, 0x05 -> {
+                boolean ok = setFrequency(rxCodec.decodeFrequency(0));
+                if (rxCodec.getCommand() == 0x05) {
+                    acknowledge(ok);
+                }
+            }
+            case 0x01, 0x06 -> {
+                if (sub >= 0) {
+                    setMode((byte) sub);
+                }
+                if (rxCodec.getCommand() == 0x06) {
+                    acknowledge(sub >= 0);
+                }
+            }
+            case 0x07 -> acknowledge(selectOrSwap(sub));
+            case 0x16 -> acknowledge(sub == 0x5A && rxCodec.getPayloadLength() >= 2 && setSatelliteMode(rxCodec.getPayload(1)));
+            default -> acknowledge(false);
+        }
+    }
+
+    /**
+     * Change the frequency of the selected band as if from the front panel, broadcasting the change.
+     * @param freqHz New frequency in hertz.
+     * @return True if the frequency was accepted.
+     */
+    public boolean turnDial(long freqHz) {
+        if (!setFrequency(freqHz)) {
+            return false;
+        }
+        synchronized (broadcastCodec) {
+            int length = broadcastCodec.encodeFrequency((byte) 0x00, CivCodec.NO_SUB_COMMAND, freqHz);
+            send(broadcastCodec.getTxBuffer(), length);
+        }
+        return true;
+    }
+
+    /**
+     * Get the frequency of the selected band.
+     * @return Frequency in hertz.
+     */
+    public synchronized long getFrequencyHz() {
+        return freqHz[selected];
+    }
+
+    /**
+     * Get the frequency of the main band.
+     * @return Frequency in hertz.
+     */
+    public synchronized long getMainFrequencyHz() {
+        return freqHz[0];
+    }
+
+    /**
+     * Get the frequency of the sub band.
+     * @return Frequency in hertz.
+     */
+    public synchronized long getSubFrequencyHz() {
+        return freqHz[1];
+    }
+
+    /**
+     * Check if satellite mode is enabled.
+     * @return True in satellite mode.
+     */
+    public synchronized boolean isSatelliteMode() {
+        return satelliteMode;
+    }
+
+    private synchronized byte getMode() {
+        return mode[selected];
+    }
+
+    private synchronized void setMode(byte mode) {
+        this.mode[selected] = mode;
+    }
+
+    /**
+     * Set the frequency of the selected band, if it is in an amateur band not used by the other band.
+     */
+    private synchronized boolean setFrequency(long freqHz) {
+        boolean valid = FrequencyUtils.isUHF(freqHz) || FrequencyUtils.isVHF(freqHz);
+        if (!valid || FrequencyUtils.isUHF(freqHz) == FrequencyUtils.isUHF(this.freqHz[1 - selected])) {
+            return false;
+        }
+        this.freqHz[selected] = freqHz;
+        return true;
+    }
+
+    /**
+     * Handle 0x07: B0 swaps main and sub, D0/D1 select main/sub.
+     */
+    private synchronized boolean selectOrSwap(int sub) {
+        switch (sub) {
+            case 0xB0 -> {
+                long f = freqHz[0];
+                freqHz[0] = freqHz[1];
+                freqHz[1] = f;
+                byte m = mode[0];
+                mode[0] = mode[1];
+                mode[1] = m;
+            }
+            case 0xD0 -> selected = 0;
+            case 0xD1 -> selected = 1;
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized boolean setSatelliteMode(byte data) {
+        if (data != 0x00 && data != 0x01) {
+            return false;
+        }
+        satelliteMode = data == 0x01;
+        return true;
+    }
+
+    private void acknowledge(boolean ok) throws InterruptedException {
+        sendFrame(txCodec.encode(ok ? CivCodec.ACK_OK : CivCodec.ACK_NG, CivCodec.NO_SUB_COMMAND));
+    }
+
+    private void sendFrame(int length) throws InterruptedException {
+        reply(txCodec.getTxBuffer(), length);
+    }
+
+}
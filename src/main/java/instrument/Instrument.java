@@ -38,4 +38,10 @@ public interface Instrument {
      */
     ResultUtils testConnect() throws InterruptedException;
 
+    /**
+     * Release the connection to the instrument, e.g. after a failed connection test so the port can be tried again.
+     * Instruments which only open their port for the duration of a command have nothing to release.
+     */
+    default void close() {}
+
 }
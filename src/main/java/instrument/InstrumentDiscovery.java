@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import utils.ConfigurationUtils;
+import utils.Log;
+import utils.ResultUtils;
+import utils.SerialUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * Brings up the instruments at startup. Each instrument is created from the configuration file and its connection
+ * verified. If verification fails and INSTRUMENT_PORT_SCAN is enabled, the serial ports of this computer are scanned
+ * for the instrument, so a wrong or renumbered COM port (or wrong baud rate) is found without editing the
+ * configuration file and restarting.
+ *
+ * <P>The scan tries all ports at the same time (one thread per port), since each attempt spends most of its time
+ * waiting for a reply. Platform threads are used, as the drivers wait for replies inside synchronized methods, which
+ * would pin virtual threads to the few carrier threads. The baud rates of a port are tried in turn, as a port can only
+ * be opened once, and each failed attempt releases the port before the next. The rotator and transceiver scans run
+ * one after the other, and neither scans the port configured for, or found for, the other instrument, as it may be
+ * in use.</P>
+ */
+public class InstrumentDiscovery {
+
+    private static final Set<String> claimedPorts = ConcurrentHashMap.newKeySet(); // Ports where an instrument was found
+
+    /**
+     * Private constructor to prevent instantiation (all other methods static).
+     */
+    private InstrumentDiscovery() {}
+
+    /**
+     * Test the connection with an instrument, then read its current state. If this fails the instrument is closed, so
+     * its port can be tried again.
+     * @param instrument Instrument to verify.
+     * @return The success/failure status of the operation.
+     * @throws InterruptedException
+     */
+    public static ResultUtils verify(Instrument instrument) throws InterruptedException {
+        ResultUtils result;
+        try {
+            result = instrument.testConnect().isSuccessful() ? instrument.readInstrument() : ResultUtils.createFailedResult();
+        } catch (RuntimeException e) { // e.g. a port that does not exist on this computer
+            Log.error("Instrument verification failed: " + e.getMessage());
+            result = ResultUtils.createFailedResult();
+        }
+        if (!result.isSuccessful()) {
+            instrument.close();
+        }
+        return result;
+    }
+
+    /**
+     * Create and verify the rotator specified in the configuration file, scanning for it if enabled.
+     * @return The verified rotator.
+     * @throws InterruptedException
+     */
+    public static Rotator bringUpRotator() throws InterruptedException {
+        String model = ConfigurationUtils.getStrProperty("ROTATOR_MODEL");
+        Rotator rotator;
+        try {
+            rotator = InstrumentFactory.createRotator(model);
+            if (verify(rotator).isSuccessful()) {
+                return rotator;
+            }
+        } catch (RuntimeException e) {
+            Log.error("Could not create " + model + ": " + e.getMessage());
+        }
+        if (isSerialRotator(model) && isScanEnabled()) {
+            rotator = scanSerial(model, "TRANSCEIVER_COM_PORT", "ROTATOR_SCAN_BAUDS",
+                    (port, baud) -> InstrumentFactory.createRotator(model, port, baud));
+            if (rotator != null) {
+                return rotator;
+            }
+        }
+        throw new RuntimeException("Instrument setup failed for " + model);
+    }
+
+    /**
+     * Create and verify the transceiver specified in the configuration file, scanning for it if enabled.
+     * @return The verified transceiver.
+     * @throws InterruptedException
+     */
+    public static Transceiver bringUpTransceiver() throws InterruptedException {
+        String model = ConfigurationUtils.getStrProperty("TRANSCEIVER_MODEL");
+        Transceiver transceiver;
+        try {
+            transceiver = InstrumentFactory.createTransceiver(model);
+            if (verify(transceiver).isSuccessful()) {
+                return transceiver;
+            }
+        } catch (RuntimeException e) {
+            Log.error("Could not create " + model + ": " + e.getMessage());
+        }
+        if (model.equalsIgnoreCase("TransceiverIC9100") && isScanEnabled()) {
+            transceiver = scanSerial(model, "ROTATOR_COM_PORT", "TRANSCEIVER_SCAN_BAUDS",
+                    (port, baud) -> InstrumentFactory.createTransceiver(model, port, baud));
+            if (transceiver != null) {
+                return transceiver;
+            }
+        }
+        throw new RuntimeException("Instrument setup failed for " + model);
+    }
+
+    /**
+     * Scan the serial ports of this computer for an instrument. Only one scan runs at a time, so the rotator and
+     * transceiver scans never open the same port at the same time.
+     * @param model ID name of the instrument implementation, for log messages.
+     * @param otherPortKey Configuration key of the port of the other instrument, which is not scanned.
+     * @param baudKey Configuration key of the baud rates to try.
+     * @param factory Creates the instrument on a port at a baud rate.
+     * @return The verified instrument, or null if not found.
+     * @throws InterruptedException
+     */
+    private static synchronized <T extends Instrument> T scanSerial(String model, String otherPortKey, String baudKey,
+                                                                    BiFunction<String, Integer, T> factory)
+            throws InterruptedException {
+        List<String> ports = scanPorts(otherPortKey);
+        ports.removeIf(p -> claimedPorts.stream().anyMatch(p::equalsIgnoreCase));
+        return scan(model, ports, parseBauds(baudKey), factory);
+    }
+
+    /**
+     * Scan ports in parallel for an instrument.
+     * @param model ID name of the instrument implementation, for log messages.
+     * @param ports Ports to try.
+     * @param bauds Baud rates to try on each port, in order.
+     * @param factory Creates the instrument on a port at a baud rate.
+     * @return The instrument on the first port (in the order given) where it was verified, or null if not found.
+     * @throws InterruptedException
+     */
+    static <T extends Instrument> T scan(String model, List<String> ports, int[] bauds,
+                                         BiFunction<String, Integer, T> factory) throws InterruptedException {
+        /*
+         * Step 1: Try each port on its own thread, trying each baud rate in turn.
+         */
+        Log.info("Scanning " + ports + " for " + model);
+        long start = System.currentTimeMillis();
+        List<Future<T>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory())) {
+            for (String port : ports) {
+                results.add(executor.submit(() -> {
+                    for (int baud : bauds) {
+                        T instrument = factory.apply(port, baud);
+                        if (verify(instrument).isSuccessful()) {
+                            return instrument;
+                        }
+                    }
+                    return null;
+                }));
+            }
+        } // Waits for all attempts, so no port is left open by an abandoned attempt
+
+        /*
+         * Step 2: Use the first port where the instrument was found, and close it on any other port where it was.
+         */
+        T found = null;
+        for (int i = 0; i < ports.size(); i++) {
+            try {
+                T instrument = results.get(i).get();
+                if (instrument != null && found == null) {
+                    Log.warn(model + " found on port " + ports.get(i) + " after scanning for "
+                            + (System.currentTimeMillis() - start) + "ms. Update the configuration file to skip the scan.");
+                    claimedPorts.add(ports.get(i));
+                    found = instrument;
+                } else if (instrument != null) {
+                    instrument.close();
+                }
+            } catch (ExecutionException e) {
+                Log.debug(model + " not found on " + ports.get(i) + ": " + e.getCause());
+            }
+        }
+        if (found == null) {
+            Log.error(model + " not found on any of " + ports);
+        }
+        return found;
+    }
+
+    private static boolean isSerialRotator(String model) {
+        return model.equalsIgnoreCase("RotatorGS232B") || model.equalsIgnoreCase("RotatorRot2Prog");
+    }
+
+    private static boolean isScanEnabled() {
+        return Boolean.parseBoolean(ConfigurationUtils.getStrProperty("INSTRUMENT_PORT_SCAN"));
+    }
+
+    /**
+     * List the serial ports to scan, excluding the port configured for the other instrument.
+     */
+    private static List<String> scanPorts(String otherPortKey) {
+        List<String> ports = SerialUtils.listPorts();
+        ports.removeIf(p -> p.equalsIgnoreCase(ConfigurationUtils.getStrProperty(otherPortKey)));
+        return ports;
+    }
+
+    /**
+     * Parse a comma separated list of baud rates from the configuration file.
+     */
+    private static int[] parseBauds(String key) {
+        String[] values = ConfigurationUtils.getStrProperty(key).split(",");
+        int[] bauds = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bauds[i] = Integer.parseInt(values[i].strip());
+        }
+        return bauds;
+    }
+
+}
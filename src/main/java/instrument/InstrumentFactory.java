@@ -17,6 +17,9 @@
 
 package instrument;
 
+import utils.ConfigurationUtils;
+import utils.Log;
+
 /**
  * Factory to select the appropriate implementation of {@link Transceiver} or {@link Rotator} based on the user specification in the configuration file.
  */
@@ -37,9 +40,13 @@ public class InstrumentFactory {
         if (rotator == null || rotator.isEmpty()) {
             throw new RuntimeException("InstrumentFactory could not create instrument with null or empty string");
         } else if (rotator.equalsIgnoreCase("RotatorGS232B")) {
+            startSimulator(rotator, "ROTATOR_COM_PORT", "ROTATOR_BAUD");
             return new RotatorGS232B();
         } else if (rotator.equalsIgnoreCase("RotatorRot2Prog")) {
+            startSimulator(rotator, "ROTATOR_COM_PORT", "ROTATOR_BAUD");
             return new RotatorRot2ProgImpl();
+        } else if (rotator.equalsIgnoreCase("RotatorHamlib")) {
+            return new RotatorHamlib();
         } else if (rotator.equalsIgnoreCase("StubRotator")) {
             return new StubRotator();
         } else {
@@ -47,6 +54,24 @@ public class InstrumentFactory {
         }
     }
 
+    /**
+     * Create a serial {@link Rotator} implementation on a specific port, ignoring the port in the configuration file.
+     * Used by {@link InstrumentDiscovery} to try other ports and baud rates.
+     * @param rotator ID name of the rotator implementation, RotatorGS232B or RotatorRot2Prog.
+     * @param comPort COM port.
+     * @param baudRate Baud rate.
+     * @return an implementation of {@link Rotator}
+     */
+    public static Rotator createRotator(String rotator, String comPort, int baudRate) {
+        if (rotator.equalsIgnoreCase("RotatorGS232B")) {
+            return new RotatorGS232B(comPort, baudRate);
+        } else if (rotator.equalsIgnoreCase("RotatorRot2Prog")) {
+            return new RotatorRot2ProgImpl(comPort, baudRate);
+        } else {
+            throw new RuntimeException("InstrumentFactory cannot create instrument with ID " + rotator + " on a serial port");
+        }
+    }
+
     /**
      * Select a {@link Transceiver} implementation.
      * @param transceiver ID name of the transceiver implementation.
@@ -57,7 +82,10 @@ public class InstrumentFactory {
         if (transceiver == null || transceiver.isEmpty()) {
             throw new RuntimeException("InstrumentFactory could not create instrument with null or empty string");
         } else if (transceiver.equalsIgnoreCase("TransceiverIC9100")) {
+            startSimulator(transceiver, "TRANSCEIVER_COM_PORT", "TRANSCEIVER_BAUD");
             return new TransceiverIC9100();
+        } else if (transceiver.equalsIgnoreCase("TransceiverHamlib")) {
+            return new TransceiverHamlib();
         } else if (transceiver.equalsIgnoreCase("StubTransceiver")) {
             return new StubTransceiver();
         }  else {
@@ -65,4 +93,49 @@ public class InstrumentFactory {
         }
     }
 
+    /**
+     * Create a serial {@link Transceiver} implementation on a specific port, ignoring the port in the configuration
+     * file. Used by {@link InstrumentDiscovery} to try other ports and baud rates.
+     * @param transceiver ID name of the transceiver implementation, TransceiverIC9100.
+     * @param comPort COM port.
+     * @param baudRate Baud rate.
+     * @return an implementation of {@link Transceiver}
+     */
+    public static Transceiver createTransceiver(String transceiver, String comPort, int baudRate) {
+        if (transceiver.equalsIgnoreCase("TransceiverIC9100")) {
+            return new TransceiverIC9100(comPort, baudRate);
+        } else {
+            throw new RuntimeException("InstrumentFactory cannot create instrument with ID " + transceiver
+                    + " on a serial port");
+        }
+    }
+
+    /**
+     * Start a simulated controller for a model if its port is an in-process pipe (mem://name), see
+     * {@link InstrumentSimulator}. The simulator runs until the program exits.
+     * @param model ID name of the instrument implementation.
+     * @param portKey Configuration key of the port.
+     * @param baudKey Configuration key of the baud rate.
+     */
+    private static void startSimulator(String model, String portKey, String baudKey) {
+        String port = ConfigurationUtils.getStrProperty(portKey);
+        if (port == null || !port.regionMatches(true, 0, "mem://", 0, 6)) {
+            return;
+        }
+        String name = port.substring(6);
+        int baud = ConfigurationUtils.getIntProperty(baudKey);
+        InstrumentSimulator simulator;
+        if (model.equalsIgnoreCase("RotatorGS232B")) {
+            simulator = new GS232BSimulator(name, baud, 20, ConfigurationUtils.getDoubleProperty("ROTATOR_AZ_SLEW_DEG_S"),
+                    ConfigurationUtils.getDoubleProperty("ROTATOR_EL_SLEW_DEG_S"));
+        } else if (model.equalsIgnoreCase("RotatorRot2Prog")) {
+            simulator = new Rot2ProgSimulator(name, baud, 50, ConfigurationUtils.getDoubleProperty("ROTATOR_AZ_SLEW_DEG_S"),
+                    ConfigurationUtils.getDoubleProperty("ROTATOR_EL_SLEW_DEG_S"));
+        } else {
+            simulator = new IC9100Simulator(name, baud, 5, ConfigurationUtils.getByteProperty("TRANSCEIVER_ADDRESS"));
+        }
+        simulator.start();
+        Log.info("Started simulated " + model + " on " + port + " at " + baud + " baud");
+    }
+
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import utils.Log;
+import utils.MemoryTransport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class for simulated instrument controllers, which speak the real byte protocol of a controller on the device
+ * end of an in-process pipe ({@link MemoryTransport}). The driver connects to the simulator with the port
+ * {@code mem://<name>}, so the same driver code is exercised as with the hardware.
+ *
+ * <P>Unlike {@link StubRotator} and {@link StubTransceiver}, the costs of the real link are modelled: every byte takes
+ * 10 bit times at the baud rate in each direction, and the controller takes a fixed latency to answer a command.
+ * Received bytes are handed to the subclass one at a time by {@link InstrumentSimulator#receive(byte)} once they have
+ * been "transmitted", and the reply written by {@link InstrumentSimulator#reply(byte[], int)} arrives at the driver one
+ * byte at a time at the baud rate.</P>
+ */
+public abstract class InstrumentSimulator implements AutoCloseable {
+
+    private static final long POLL_MILLIS = 10; // Interval at which idle() is called while no bytes arrive
+
+    private final String name;
+    private final MemoryTransport device;
+    private final long byteNanos;
+    private final long latencyMillis;
+    private final byte[] rxBuffer = new byte[256];
+    private final Object txLock = new Object();
+    private Thread thread;
+    private volatile boolean running = false;
+    private volatile long bytesReceived = 0;
+    private volatile long bytesSent = 0;
+
+    /**
+     * Create a simulator on a named pipe.
+     * @param name Name of the pipe, the driver uses the port mem://name.
+     * @param baudRate Baud rate of the simulated link.
+     * @param latencyMillis Time taken by the controller to answer a command.
+     */
+    protected InstrumentSimulator(String name, int baudRate, long latencyMillis) {
+        this.name = name;
+        this.device = MemoryTransport.device(name);
+        this.byteNanos = 10 * 1_000_000_000L / baudRate; // Start, 8 data and stop bit
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Get the port to configure the driver with.
+     * @return Port string mem://name.
+     */
+    public String getPort() {
+        return "mem://" + name;
+    }
+
+    /**
+     * Start answering commands on a new thread.
+     */
+    public void start() {
+        running = true;
+        thread = Thread.ofVirtual().name(name + "Simulator").start(() -> {
+            try {
+                while (running) {
+                    int n = device.read(rxBuffer, rxBuffer.length, POLL_MILLIS);
+                    if (n > 0) {
+                        LockSupport.parkNanos(n * byteNanos); // Bytes arrive at the baud rate
+                        bytesReceived += n;
+                        for (int i = 0; i < n; i++) {
+                            receive(rxBuffer[i]);
+                        }
+                    }
+                    idle();
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        });
+    }
+
+    /**
+     * Stop the simulator and remove its pipe. If interrupted while waiting for the simulator thread to stop, the
+     * interrupt flag is restored and the pipe is removed without waiting.
+     */
+    public void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        MemoryTransport.removePipe(name);
+        Log.debug(name + " simulator stopped after receiving " + bytesReceived + " bytes and sending " + bytesSent);
+    }
+
+    /**
+     * Handle one byte received from the driver.
+     * @param b Received byte.
+     * @throws InterruptedException
+     */
+    protected abstract void receive(byte b) throws InterruptedException;
+
+    /**
+     * Called between reads, for behaviour that continues without commands (e.g. rotator motion).
+     */
+    protected void idle() {}
+
+    /**
+     * Answer a command after the controller latency.
+     * @param data Reply bytes.
+     * @param length Number of bytes to send.
+     * @throws InterruptedException
+     */
+    protected void reply(byte[] data, int length) throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        send(data, length);
+    }
+
+    /**
+     * Send bytes to the driver immediately, one byte at a time at the baud rate.
+     * @param data Bytes to send.
+     * @param length Number of bytes to send.
+     */
+    protected void send(byte[] data, int length) {
+        synchronized (txLock) {
+            long deadline = System.nanoTime();
+            for (int i = 0; i < length; i++) {
+                deadline += byteNanos;
+                LockSupport.parkNanos(deadline - System.nanoTime());
+                device.write(data, i, 1);
+            }
+            bytesSent += length;
+        }
+    }
+
+    /**
+     * Send bytes to the driver without a transmission delay, for bytes whose transmission time has already passed
+     * (e.g. the echo of a command on a shared bus).
+     * @param data Bytes to send.
+     * @param length Number of bytes to send.
+     */
+    protected void echo(byte[] data, int length) {
+        synchronized (txLock) {
+            device.write(data, length);
+        }
+    }
+
+}
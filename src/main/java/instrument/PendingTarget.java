@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+/**
+ * Hands a new target to a rotator move in flight, see {@link Rotator#retarget(int, int)}. The thread waiting for the
+ * rotator to arrive checks for a new target between position polls and resends the move itself, so the move is
+ * redirected without interrupting the thread mid-transaction.
+ *
+ * <P>A target is only accepted while a move is in flight, and a move only ends once it has taken any accepted target,
+ * so an accepted target is never lost between the last poll and the end of the move.</P>
+ */
+final class PendingTarget {
+
+    private volatile int[] target; // Az and el not yet taken by the move in flight, checked on every poll
+    private boolean moving = false;
+
+    /**
+     * Mark the start of a move that can be redirected.
+     */
+    synchronized void begin() {
+        moving = true;
+        target = null;
+    }
+
+    /**
+     * Offer a new target to the move in flight, replacing any target not yet taken.
+     * @param az New azimuth.
+     * @param el New elevation.
+     * @return True if a move is in flight and will take the target.
+     */
+    synchronized boolean offer(int az, int el) {
+        if (!moving) {
+            return false;
+        }
+        target = new int[]{az, el};
+        return true;
+    }
+
+    /**
+     * Take the new target, if any. Called by the moving thread between polls.
+     * @return Az and el of the new target, or null if there is none.
+     */
+    int[] poll() {
+        if (target == null) {
+            return null;
+        }
+        synchronized (this) {
+            int[] next = target;
+            target = null;
+            return next;
+        }
+    }
+
+    /**
+     * End the move once arrived, unless a new target was offered since the last poll.
+     * @return Az and el of the new target to continue with, or null if the move has ended.
+     */
+    synchronized int[] finish() {
+        int[] next = target;
+        target = null;
+        moving = next != null;
+        return next;
+    }
+
+    /**
+     * End the move without arriving (failed or interrupted), dropping any target not yet taken.
+     */
+    synchronized void cancel() {
+        moving = false;
+        target = null;
+    }
+
+}
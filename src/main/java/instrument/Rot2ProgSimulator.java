@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+/**
+ * Simulated Alfa Rot2Prog rotator controller (see {@link InstrumentSimulator}), answering the 13 byte commands used by
+ * {@link RotatorRot2ProgImpl}: W H1-H4 PH V1-V4 PV K 0x20, where K is 0x1F (status), 0x2F (set) or 0x0F (stop).
+ *
+ * <P>Positions are encoded with 360 deg added, so azimuth -180 to 540 deg is sent as 180 to 900. In a set command the
+ * digits are ASCII and PH/PV give the resolution in pulses per degree. The 12 byte status reply (also sent for stop)
+ * holds the digits as binary values, hundreds to tenths of a degree, with a resolution of 10.</P>
+ */
+public class Rot2ProgSimulator extends RotatorSimulator {
+
+    private static final int FRAME_LENGTH = 13;
+    private static final int OFFSET_DEG = 360;
+    private static final byte START = 0x57; // W
+    private static final byte END = 0x20;
+    private static final byte STOP = 0x0F;
+    private static final byte STATUS = 0x1F;
+    private static final byte SET = 0x2F;
+    private static final int REPLY_RESOLUTION = 10;
+
+    private final byte[] frame = new byte[FRAME_LENGTH];
+    private final byte[] replyBuffer = new byte[12];
+    private int frameLength = 0;
+
+    /**
+     * Create a Rot2Prog simulator with azimuth from -180 to 540 deg and elevation from 0 to 180 deg.
+     * @param name Name of the pipe, the driver uses the port mem://name.
+     * @param baudRate Baud rate of the simulated link (600 on the controller).
+     * @param latencyMillis Time taken by the controller to answer a command.
+     * @param azRateDegPerS Azimuth slew rate.
+     * @param elRateDegPerS Elevation slew rate.
+     */
+    public Rot2ProgSimulator(String name, int baudRate, long latencyMillis, double azRateDegPerS, double elRateDegPerS) {
+        super(name, baudRate, latencyMillis, azRateDegPerS, elRateDegPerS, -180, 540, 180);
+    }
+
+    protected void receive(byte b) throws InterruptedException {
+        /*
+         * Step 1: Collect a frame, resynchronising on the start byte.
+         */
+        if (frameLength == 0 && b != START) {
+            return;
+        }
+        frame[frameLength++] = b;
+        if (frameLength < FRAME_LENGTH) {
+            return;
+        }
+        frameLength = 0;
+        if (frame[FRAME_LENGTH - 1] != END) {
+            return;
+        }
+
+        /*
+         * Step 2: Execute the command. Invalid set commands are ignored, as by the controller.
+         */
+        switch (frame[11]) {
+            case STATUS -> sendStatus();
+            case STOP -> {
+                stopMotion();
+                sendStatus();
+            }
+            case SET -> {
+                double az = decodeSet(1, frame[5]);
+                double el = decodeSet(6, frame[10]);
+                if (!Double.isNaN(az) && !Double.isNaN(el)) {
+                    setTargetAz(az);
+                    setTargetEl(el);
+                }
+            }
+            default -> { }
+        }
+    }
+
+    /**
+     * Decode a position from the four ASCII digits of a set command.
+     * @param offset Index of the first digit.
+     * @param resolution Pulses per degree (PH or PV).
+     * @return Position in degrees, or NaN if invalid.
+     */
+    private double decodeSet(int offset, byte resolution) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = frame[offset + i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Double.NaN;
+            }
+            value = value * 10 + digit;
+        }
+        return resolution <= 0 ? Double.NaN : (double) value / resolution - OFFSET_DEG;
+    }
+
+    /**
+     * Send the status reply with the current position.
+     */
+    private void sendStatus() throws InterruptedException {
+        replyBuffer[0] = START;
+        encodeStatus(getAz(), 1);
+        replyBuffer[5] = REPLY_RESOLUTION;
+        encodeStatus(getEl(), 6);
+        replyBuffer[10] = REPLY_RESOLUTION;
+        replyBuffer[11] = END;
+        reply(replyBuffer, replyBuffer.length);
+    }
+
+    /**
+     * Encode a position as binary digits (hundreds, tens, units, tenths) with 360 deg added.
+     */
+    private void encodeStatus(double deg, int offset) {
+        int tenths = (int) Math.round((deg + OFFSET_DEG) * 10);
+        replyBuffer[offset] = (byte) (tenths / 1000);
+        replyBuffer[offset + 1] = (byte) (tenths / 100 % 10);
+        replyBuffer[offset + 2] = (byte) (tenths / 10 % 10);
+        replyBuffer[offset + 3] = (byte) (tenths % 10);
+    }
+
+}
@@ -17,6 +17,8 @@
 
 package instrument;
 
+import data.TrackPlan;
+import utils.ConfigurationUtils;
 import utils.ResultUtils;
 
 /**
@@ -32,6 +34,16 @@ public interface Rotator extends Instrument {
      */
     int getAz();
 
+    /**
+     * Get the current azimuth in the range the rotator controller works in (see {@link Rotator#getMinAz()} and
+     * {@link Rotator#getMaxAz()}), e.g. -60 deg rather than 300 deg for a rotator with overlap that has turned
+     * anticlockwise past north. Commands are absolute, so this is the position moves start from.
+     * @return current azimuth, the same as {@link Rotator#getAz()} for rotators without overlap.
+     */
+    default int getAzExtended() {
+        return getAz();
+    }
+
     /**
      * Get the current elevation of the rotator in degrees.
      * {@link Instrument#readInstrument()} should be called before this method to ensure most recent instrument values are available.
@@ -39,6 +51,71 @@ public interface Rotator extends Instrument {
      */
     int getEl();
 
+    /**
+     * Get the position measured by the most recent successful {@link Instrument#readInstrument()}, including the reads
+     * the goTo methods make while waiting for the rotator to arrive. Does not read the rotator.
+     * @return Last readback, or null if the rotator has not been read or does not report its position.
+     */
+    default RotatorReadback getLastReadback() {
+        return null;
+    }
+
+    /**
+     * Get the highest elevation the rotator can be moved to. Rotators that can move past zenith (up to 180 deg) allow
+     * high passes to be tracked from the opposite side of the sky, see {@link tracking.PassPlanner}.
+     * @return maximum elevation in degrees.
+     */
+    default int getMaxEl() {
+        return 90;
+    }
+
+    /**
+     * Get the lowest azimuth the rotator can be moved to. Rotators with overlap in azimuth accept positions outside of
+     * 0-359 deg, allowing a pass crossing north to be tracked without unwinding, see {@link tracking.PassPlanner}.
+     * @return minimum azimuth in degrees from true north.
+     */
+    default int getMinAz() {
+        return 0;
+    }
+
+    /**
+     * Get the highest azimuth the rotator can be moved to.
+     * @return maximum azimuth in degrees from true north.
+     */
+    default int getMaxAz() {
+        return 359;
+    }
+
+    /**
+     * Get the azimuth slew rate of the rotator. Implementations may learn the rate while moving, otherwise the rate
+     * specified in the configuration file is used.
+     * @return azimuth slew rate in degrees per second.
+     */
+    default double getAzSlewRateDegPerS() {
+        return ConfigurationUtils.getDoubleProperty("ROTATOR_AZ_SLEW_DEG_S");
+    }
+
+    /**
+     * Get the elevation slew rate of the rotator. Implementations may learn the rate while moving, otherwise the rate
+     * specified in the configuration file is used.
+     * @return elevation slew rate in degrees per second.
+     */
+    default double getElSlewRateDegPerS() {
+        return ConfigurationUtils.getDoubleProperty("ROTATOR_EL_SLEW_DEG_S");
+    }
+
+    /**
+     * Adjust the rotator speed for the angular rate expected over the next part of a pass. Rotators without speed
+     * control ignore this.
+     * @param azRateDegPerS Expected azimuth rate in degrees per second.
+     * @param elRateDegPerS Expected elevation rate in degrees per second.
+     * @return The success/failure status of the operation.
+     * @throws InterruptedException
+     */
+    default ResultUtils setSpeedForRate(double azRateDegPerS, double elRateDegPerS) throws InterruptedException {
+        return ResultUtils.createSuccessfulResult();
+    }
+
     /**
      * Move the rotator to a new azimuth position.
      * @param az New azimuth position in degrees from true north.
@@ -57,11 +134,63 @@ public interface Rotator extends Instrument {
 
     /**
      * Move the rotator to a new azimuth and elevation position.
-     * @param az New azimuth position in degrees from true north.
+     * @param az New azimuth position in degrees from true north, between {@link Rotator#getMinAz()} and {@link Rotator#getMaxAz()}.
      * @param el New elevation position in degrees from the horizon.
      * @return The success/failure status of the operation.
      * @throws InterruptedException
      */
     ResultUtils goToAzEl(int az, int el) throws InterruptedException;
 
+    /**
+     * Redirect a {@link Rotator#goToAzEl(int, int)} move in flight on another thread to a new position, without
+     * waiting for it to arrive first. The moving thread resends the move between position polls, and the goToAzEl call
+     * in flight returns once the new position is reached (or the move fails). Does not block.
+     * @param az New azimuth position, as for {@link Rotator#goToAzEl(int, int)}.
+     * @param el New elevation position in degrees from the horizon.
+     * @return True if a move was in flight and takes the new position, false if a new move must be started instead.
+     */
+    default boolean retarget(int az, int el) {
+        return false;
+    }
+
+    /**
+     * Check if the rotator controller can store a whole track and step through it by itself, see
+     * {@link Rotator#uploadTrack(TrackPlan, int)}.
+     * @return True if track upload is supported.
+     */
+    default boolean supportsTrackUpload() {
+        return false;
+    }
+
+    /**
+     * Store a whole track in the rotator controller's memory. The track is not started until
+     * {@link Rotator#startTrack()} is called.
+     * @param plan Track to store.
+     * @param intervalS Time in seconds between each position of the track.
+     * @return The success/failure status of the operation.
+     * @throws InterruptedException
+     */
+    default ResultUtils uploadTrack(TrackPlan plan, int intervalS) throws InterruptedException {
+        return ResultUtils.createFailedResult();
+    }
+
+    /**
+     * Start stepping through the track stored by {@link Rotator#uploadTrack(TrackPlan, int)}, beginning with the first
+     * position.
+     * @return The success/failure status of the operation.
+     * @throws InterruptedException
+     */
+    default ResultUtils startTrack() throws InterruptedException {
+        return ResultUtils.createFailedResult();
+    }
+
+    /**
+     * Get the index of the position the controller is currently moving to in the stored track.
+     * @return Index of the current position, or -1 if not available.
+     * @throws InterruptedException
+     */
+    default int getTrackIndex() throws InterruptedException {
+        return -1;
+    }
+
 }
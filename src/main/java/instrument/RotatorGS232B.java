@@ -17,6 +17,7 @@
 
 package instrument;
 
+import data.TrackPlan;
 import utils.*;
 
 import java.io.BufferedReader;
@@ -33,19 +34,52 @@ public class RotatorGS232B implements Rotator {
     private static final int EL_TOLERANCE_DEG = 2;
     private final String correctionFilePath;
     private final int[] correctionList = new int[360];
-    private static final int MOTION_TIMEOUT_MILLIS = 40000; //TODO: Scale based on delta to move
+    private static final int MOTION_TIMEOUT_MILLIS = 40000; // Upper bound, normally limited by the motion model
+    private static final int MAX_TRACK_POSITIONS = 3000; // Size of the timed interval memory
+    // Approximate fraction of full azimuth speed for speed settings X1 to X4
+    private static final double[] SPEED_FRACTIONS = {0.25, 0.5, 0.75, 1.0};
+    private static final double SPEED_MARGIN = 2.0; // Required headroom over the expected rate
+    private static final double SPEED_HYSTERESIS = 1.25; // Extra headroom required before slowing down
+    private static final int MOTION_RETRIES = 1; // Number of times a command is resent if the rotator stalls
+    private final RotatorMotionModel motionModel;
+    private final RotatorStateEstimator estimator;
+    private final PendingTarget pendingTarget = new PendingTarget(); // Set by retarget() while goToAzEl is waiting
     SerialUtils serialUtils;
     private final String comPort;
     private final int baudRate;
-    private int currAz;
-    private int currEl;
+    private final int maxEl;
+    private volatile int currAz;
+    private volatile int currEl;
+    private volatile RotatorReadback lastReadback; // Last measured position, unlike the estimate from getAz()
+    private int speedLevel = 0; // Unknown until set, the controller keeps its last setting
+    private int speedChanges = 0;
+    // Time taken by each command type, moves including the wait for arrival (see LatencyRegistry)
+    private final LatencyHistogram readLatency = LatencyRegistry.get("RotatorGS232B read position");
+    private final LatencyHistogram setAzLatency = LatencyRegistry.get("RotatorGS232B set az");
+    private final LatencyHistogram setElLatency = LatencyRegistry.get("RotatorGS232B set el");
+    private final LatencyHistogram setAzElLatency = LatencyRegistry.get("RotatorGS232B set az el");
+    private final LatencyHistogram uploadTrackLatency = LatencyRegistry.get("RotatorGS232B upload track");
+    private final LatencyHistogram readTrackIndexLatency = LatencyRegistry.get("RotatorGS232B read track index");
 
     /**
      * Instate this class via the {@link InstrumentFactory} only.
      */
     protected RotatorGS232B() {
-        this.comPort = ConfigurationUtils.getStrProperty("ROTATOR_COM_PORT");
-        this.baudRate = ConfigurationUtils.getIntProperty("ROTATOR_BAUD");
+        this(ConfigurationUtils.getStrProperty("ROTATOR_COM_PORT"), ConfigurationUtils.getIntProperty("ROTATOR_BAUD"));
+    }
+
+    /**
+     * Create an instance on a specific port, e.g. a simulated controller.
+     * @param comPort COM port, tcp://host:port or mem://name (see {@link SerialUtils}).
+     * @param baudRate Baud rate.
+     */
+    RotatorGS232B(String comPort, int baudRate) {
+        this.comPort = comPort;
+        this.baudRate = baudRate;
+        this.maxEl = ConfigurationUtils.getIntProperty("ROTATOR_MAX_EL");
+        this.motionModel = new RotatorMotionModel(ConfigurationUtils.getDoubleProperty("ROTATOR_AZ_SLEW_DEG_S"),
+                ConfigurationUtils.getDoubleProperty("ROTATOR_EL_SLEW_DEG_S"), AZ_TOLERANCE_DEG, EL_TOLERANCE_DEG, true);
+        this.estimator = new RotatorStateEstimator(this.motionModel);
         this.correctionFilePath = ConfigurationUtils.getStrProperty("ROTATOR_CALIBRATION_PATH");
         readCorrectionFile(correctionFilePath);
         this.serialUtils = new SerialUtils(this.comPort, this.baudRate, 8, 1, 0);
@@ -54,7 +88,7 @@ public class RotatorGS232B implements Rotator {
     /**
      * Read the values of the rotator correction configuration file.
      */
-    protected void readCorrectionFile(String correctionFilePath) {
+    protected final void readCorrectionFile(String correctionFilePath) {
         BufferedReader fileReader;
         try {
             fileReader = new BufferedReader(new FileReader(correctionFilePath));
@@ -84,19 +118,20 @@ public class RotatorGS232B implements Rotator {
         return this.correctionList;
     }
 
-    public ResultUtils readInstrument() throws InterruptedException {
+    public synchronized ResultUtils readInstrument() throws InterruptedException {
         /*
          * Step 1: Send read az and el command to instrument, read response.
          */
         byte[] readAzElCmd = {0x43, 0x32, 0x0D}; // Read command (see GS232B manual page 16): C2<CR>
-        this.serialUtils.open();
+        long start = System.nanoTime();
+        openPort();
         this.serialUtils.write(readAzElCmd);
         TimeUnit.MILLISECONDS.sleep(250); // Delay to allow instrument to respond to command
         byte[] rst = this.serialUtils.read(); // Check for response
+        readLatency.recordSince(start);
         if (rst.length == 0) { // Cmd failed if no response
             return ResultUtils.createFailedResult();
         }
-        this.serialUtils.close();
 
         /*
          * Step 2: Parse az and el values from response.
@@ -129,12 +164,14 @@ public class RotatorGS232B implements Rotator {
 
         this.currAz = azAngle;
         this.currEl = elAngle;
+        estimator.correct(azAngle, elAngle);
+        this.lastReadback = new RotatorReadback(System.currentTimeMillis(), azAngle, elAngle);
 
         return ResultUtils.createSuccessfulResult();
     }
 
-    public ResultUtils testConnect() throws InterruptedException {
-        if (serialUtils.open() && readInstrument().isSuccessful() && serialUtils.close()) {
+    public synchronized ResultUtils testConnect() throws InterruptedException {
+        if (openPort() && readInstrument().isSuccessful()) {
             return ResultUtils.createSuccessfulResult();
         }
         else {
@@ -144,12 +181,127 @@ public class RotatorGS232B implements Rotator {
         }
     }
 
+    /**
+     * Close the serial port, e.g. after a failed connection test. The port is opened again by the next command.
+     */
+    public synchronized void close() {
+        if (this.serialUtils.isOpen()) {
+            this.serialUtils.close();
+        }
+    }
+
+    /**
+     * Open the serial port if it is not already open, then discard anything left from an earlier command (e.g. a reply
+     * that arrived after the driver stopped waiting). The port is kept open between commands, so a connection to a
+     * serial server is not re-established for every position poll.
+     * @return True if the port is open.
+     */
+    private boolean openPort() {
+        if (!this.serialUtils.isOpen() && !this.serialUtils.open()) {
+            return false;
+        }
+        this.serialUtils.read();
+        return true;
+    }
+
+    /**
+     * Get the estimated current azimuth (see {@link RotatorStateEstimator}), without a serial transaction.
+     * @return current azimuth.
+     */
     public int getAz() {
-        return currAz;
+        return (int) Math.round(estimator.getAz());
     }
 
+    /**
+     * Get the estimated current elevation (see {@link RotatorStateEstimator}), without a serial transaction.
+     * @return current elevation.
+     */
     public int getEl() {
-        return currEl;
+        return (int) Math.round(estimator.getEl());
+    }
+
+    public RotatorReadback getLastReadback() {
+        return lastReadback;
+    }
+
+    public int getMaxEl() {
+        return maxEl;
+    }
+
+    public double getAzSlewRateDegPerS() {
+        return motionModel.getAzRateDegPerS();
+    }
+
+    public double getElSlewRateDegPerS() {
+        return motionModel.getElRateDegPerS();
+    }
+
+    /**
+     * Send a command that does not have a response.
+     * @param cmd Command bytes.
+     * @throws InterruptedException
+     */
+    private synchronized boolean sendCommand(byte[] cmd) throws InterruptedException {
+        openPort();
+        boolean rst = this.serialUtils.write(cmd);
+        TimeUnit.MILLISECONDS.sleep(200); // Delay to allow instrument to respond to command
+        return rst;
+    }
+
+    /**
+     * Wait until the rotator has reached within +/- AZ_TOLERANCE_DEG and EL_TOLERANCE_DEG of a position. The
+     * {@link RotatorMotionModel} predicts how long the move should take from the learned slew rates. If the rotator
+     * stops making progress or takes much longer than predicted, the command is resent before the move is failed.
+     * The {@link RotatorStateEstimator} tracks the position between readbacks, so the rotator is only polled when the
+     * estimate becomes uncertain or the rotator should have arrived. A new target from {@link #retarget(int, int)} is
+     * taken between polls, and the wait continues towards it.
+     * @param cmd Command that was sent to start the move.
+     * @param az Target azimuth (after correcting for calibration).
+     * @param el Target elevation.
+     * @return The success/failure status of the operation.
+     * @throws InterruptedException
+     */
+    private ResultUtils waitForArrival(byte[] cmd, int az, int el) throws InterruptedException {
+        motionModel.startMove(this.currAz, this.currEl, az, el);
+        estimator.startMove(az, el);
+        Log.debug("Predicted move time " + motionModel.getEtaMillis() + "ms, timeout " + motionModel.getTimeoutMillis() + "ms");
+        long motionStart = System.currentTimeMillis();
+        int retries = MOTION_RETRIES;
+        while (true) {
+            boolean arrived = this.currAz > az-AZ_TOLERANCE_DEG && this.currAz < az+AZ_TOLERANCE_DEG
+                    && this.currEl > el-EL_TOLERANCE_DEG && this.currEl < el+EL_TOLERANCE_DEG;
+            int[] next = arrived ? pendingTarget.finish() : pendingTarget.poll();
+            if (next != null) { // Redirected, send the new position and wait for that instead
+                Log.info("Retargeting to position Az " + next[0] + ", El " + next[1]);
+                az = correctionList[next[0]];
+                el = next[1];
+                cmd = createAzElCmd(az, el);
+                sendCommand(cmd);
+                motionModel.startMove(this.currAz, this.currEl, az, el);
+                estimator.startMove(az, el);
+                motionStart = System.currentTimeMillis();
+                retries = MOTION_RETRIES;
+                continue;
+            }
+            if (arrived) {
+                return ResultUtils.createSuccessfulResult();
+            }
+            if (motionModel.isStalled() || motionModel.isTimedOut()
+                    || (System.currentTimeMillis()-motionStart) >= MOTION_TIMEOUT_MILLIS) {
+                if (retries == 0) {
+                    Log.error("RotatorGS232B failed to reach Az " + az + ", El " + el + ". Stopped at Az "
+                            + this.currAz + ", El " + this.currEl);
+                    return ResultUtils.createFailedResult();
+                }
+                retries--;
+                Log.warn("RotatorGS232B not progressing towards Az " + az + ", El " + el + ", resending command");
+                sendCommand(cmd);
+                motionModel.startMove(this.currAz, this.currEl, az, el);
+            }
+            TimeUnit.MILLISECONDS.sleep(estimator.getPollDelayMillis());
+            readInstrument();
+            motionModel.update(this.currAz, this.currEl);
+        }
     }
 
     public ResultUtils goToAz(int az) throws InterruptedException {
@@ -179,30 +331,22 @@ public class RotatorGS232B implements Rotator {
         /*
          * Step 3: Send command.
          */
-        this.serialUtils.open();
-        this.serialUtils.write(cmd);
-        TimeUnit.MILLISECONDS.sleep(200); // Delay to allow instrument to respond to command
-        this.serialUtils.close();
+        long start = System.nanoTime();
+        sendCommand(cmd);
 
         /*
-         * Step 4: Wait until rotators position has reached within +/- AZ_TOLERANCE_DEG
+         * Step 4: Wait until rotators position has reached within +/- AZ_TOLERANCE_DEG (elevation unchanged)
          */
-        long motionStart = System.currentTimeMillis();
-        while (this.currAz <= az-AZ_TOLERANCE_DEG || this.currAz >= az+AZ_TOLERANCE_DEG) {
-            if ((System.currentTimeMillis()-motionStart) >= MOTION_TIMEOUT_MILLIS) {
-                return ResultUtils.createFailedResult();
-            }
-            TimeUnit.MILLISECONDS.sleep(200);
-            readInstrument();
-        }
-        return ResultUtils.createSuccessfulResult();
+        ResultUtils rst = waitForArrival(cmd, az, this.currEl);
+        setAzLatency.recordSince(start);
+        return rst;
     }
 
     public ResultUtils goToEl(int el) throws InterruptedException {
         /*
          * Step 1: Verify el is within acceptable range, read current position (need to get the current azimuth)
          */
-        if (el < 0 || el > 180) {
+        if (el < 0 || el > this.maxEl) {
             return ResultUtils.createFailedResult();
         }
         readInstrument();
@@ -211,56 +355,207 @@ public class RotatorGS232B implements Rotator {
          * Step 2: Generate and then send command W (set azimuth and elevation, see GS232B manual page 17)
          * Note: Elevation cannot be set without azimuth also being set on GS232B
          */
-        byte[] posByte = String.valueOf(el).getBytes();
-        byte[] currAzByte = String.valueOf(this.currAz).getBytes();
-        byte[] cmd = {0x57, 0x30, 0x30, 0x30, 0x20, 0x30, 0x30, 0x30, 0x0D}; // Zero as placeholders (0x20 is a space)
-        for (int i = 0; i < posByte.length; i++) { // Place elevation bytes
-            cmd[cmd.length-2-i] = posByte[posByte.length-1-i];
-        }
-        for (int i = 0; i < currAzByte.length; i++) { // Place azimuth bytes (azimuth not changed)
-            cmd[cmd.length-6-i] = currAzByte[currAzByte.length-1-i];
-        }
+        byte[] cmd = createAzElCmd(this.currAz, el); // Azimuth not changed
 
         /*
          * Step 3: Send command.
          */
-        this.serialUtils.open();
-        this.serialUtils.write(cmd);
-        TimeUnit.MILLISECONDS.sleep(200);
-        this.serialUtils.close();
+        long start = System.nanoTime();
+        sendCommand(cmd);
 
         /*
-         * Step 4: Wait until rotators position has reached within +/- EL_TOLERANCE_DEG
+         * Step 4: Wait until rotators position has reached within +/- EL_TOLERANCE_DEG (azimuth unchanged)
          */
-        long motionStart = System.currentTimeMillis();
-        while (this.currEl <= el-EL_TOLERANCE_DEG || this.currEl >= el+EL_TOLERANCE_DEG) {
-            if ((System.currentTimeMillis()-motionStart) >= MOTION_TIMEOUT_MILLIS) {
-                return ResultUtils.createFailedResult();
-            }
-            TimeUnit.MILLISECONDS.sleep(200);
-            readInstrument();
-        }
-        return ResultUtils.createSuccessfulResult();
+        ResultUtils rst = waitForArrival(cmd, this.currAz, el);
+        setElLatency.recordSince(start);
+        return rst;
     }
 
     public ResultUtils goToAzEl(int az, int el) throws InterruptedException {
-        // Assume successful, update if either set fails
-        ResultUtils azRst = ResultUtils.createSuccessfulResult();
-        ResultUtils elRst = ResultUtils.createSuccessfulResult();
-        // Only move if step is larger than AZ_TOLERANCE_DEG to prevent redundant updating
+        /*
+         * Step 1: Verify az and el are within acceptable range.
+         */
+        if (az < 0 || az > 359 || el < 0 || el > this.maxEl) {
+            return ResultUtils.createFailedResult();
+        }
+
+        /*
+         * Step 2: Only move an axis if step is larger than its tolerance to prevent redundant updating. An axis that
+         * does not need to move is held at its current position.
+         */
+        int cmdAz = this.currAz;
+        int cmdEl = this.currEl;
         if (Math.abs(this.currAz - az) > AZ_TOLERANCE_DEG) {
-            Log.info("Moving to position Az " + az);
-            azRst = goToAz(az);
+            cmdAz = correctionList[az];
+            Log.debug("After correcting for calibration, az = " + cmdAz);
         } else {
             Log.debug("Az not updated on instrument, new Az less then " + AZ_TOLERANCE_DEG + " from current position");
         }
-        // Only move if step is larger than EL_TOLERANCE_DEG to prevent redundant updating
         if (Math.abs(this.currEl - el) > EL_TOLERANCE_DEG) {
-            Log.info("Moving to position El " + el);
-            elRst = goToEl(el);
+            cmdEl = el;
         } else {
             Log.debug("El not updated on instrument, new El less then " + EL_TOLERANCE_DEG + " from current position");
         }
-        return azRst.and(elRst);
+        if (cmdAz == this.currAz && cmdEl == this.currEl) {
+            return ResultUtils.createSuccessfulResult();
+        }
+
+        /*
+         * Step 3: Send a single W command so both axes move at the same time, then wait for both to arrive.
+         */
+        Log.info("Moving to position Az " + az + ", El " + el);
+        byte[] cmd = createAzElCmd(cmdAz, cmdEl);
+        long start = System.nanoTime();
+        pendingTarget.begin();
+        try {
+            sendCommand(cmd);
+            ResultUtils rst = waitForArrival(cmd, cmdAz, cmdEl);
+            setAzElLatency.recordSince(start);
+            return rst;
+        } finally {
+            pendingTarget.cancel();
+        }
+    }
+
+    public boolean retarget(int az, int el) {
+        if (az < 0 || az > 359 || el < 0 || el > this.maxEl) {
+            return false;
+        }
+        return pendingTarget.offer(az, el);
+    }
+
+    /**
+     * Generate command W (set azimuth and elevation, see GS232B manual page 17) in the form Waaa eee.
+     * @param az Azimuth in degrees (after correcting for calibration).
+     * @param el Elevation in degrees.
+     * @return Command bytes.
+     */
+    private byte[] createAzElCmd(int az, int el) {
+        byte[] elByte = String.valueOf(el).getBytes();
+        byte[] azByte = String.valueOf(az).getBytes();
+        byte[] cmd = {0x57, 0x30, 0x30, 0x30, 0x20, 0x30, 0x30, 0x30, 0x0D}; // Zero as placeholders (0x20 is a space)
+        for (int i = 0; i < elByte.length; i++) { // Place elevation bytes
+            cmd[cmd.length-2-i] = elByte[elByte.length-1-i];
+        }
+        for (int i = 0; i < azByte.length; i++) { // Place azimuth bytes
+            cmd[cmd.length-6-i] = azByte[azByte.length-1-i];
+        }
+        return cmd;
+    }
+
+    public boolean supportsTrackUpload() {
+        return true;
+    }
+
+    public synchronized ResultUtils uploadTrack(TrackPlan plan, int intervalS) throws InterruptedException {
+        /*
+         * Step 1: Verify the track fits in the controller memory.
+         */
+        int numPositions = plan.getAzTrack().size();
+        if (numPositions == 0 || numPositions > MAX_TRACK_POSITIONS || intervalS < 1 || intervalS > 999) {
+            Log.error("RotatorGS232B cannot store track of " + numPositions + " positions at " + intervalS + "s interval");
+            return ResultUtils.createFailedResult();
+        }
+
+        /*
+         * Step 2: Generate timed interval command W (see GS232B manual) in the form Wttt,aaa eee,aaa eee,...
+         * where ttt is the time between positions in seconds. Azimuth is corrected for calibration.
+         */
+        StringBuilder cmd = new StringBuilder(String.format("W%03d", intervalS));
+        for (int i = 0; i < numPositions; i++) {
+            int az = correctionList[Math.floorMod((int) Math.round(plan.getAzTrack().get(i)), 360)];
+            int el = (int) Math.round(plan.getElTrack().get(i));
+            cmd.append(String.format(",%03d %03d", az, Math.max(0, Math.min(this.maxEl, el))));
+        }
+        cmd.append('\r');
+
+        /*
+         * Step 3: Send command. The command is long, so allow time to transmit it at the configured baud rate.
+         */
+        Log.info("Uploading track of " + numPositions + " positions to RotatorGS232B");
+        byte[] cmdBytes = cmd.toString().getBytes();
+        long start = System.nanoTime();
+        openPort();
+        boolean rst = this.serialUtils.write(cmdBytes);
+        TimeUnit.MILLISECONDS.sleep(200 + cmdBytes.length * 10000L / this.baudRate); // ~10 bits per byte
+        uploadTrackLatency.recordSince(start);
+        return ResultUtils.createResult(rst);
+    }
+
+    public synchronized ResultUtils startTrack() throws InterruptedException {
+        byte[] startCmd = {0x54, 0x0D}; // Start timed interval command: T<CR>
+        Log.info("Starting uploaded track on RotatorGS232B");
+        openPort();
+        boolean rst = this.serialUtils.write(startCmd);
+        TimeUnit.MILLISECONDS.sleep(200);
+        return ResultUtils.createResult(rst);
+    }
+
+    public synchronized int getTrackIndex() throws InterruptedException {
+        /*
+         * Step 1: Send command N (total number of stored positions and present position number), read response.
+         */
+        byte[] readIdxCmd = {0x4E, 0x0D}; // N<CR>
+        long start = System.nanoTime();
+        openPort();
+        this.serialUtils.write(readIdxCmd);
+        TimeUnit.MILLISECONDS.sleep(250);
+        byte[] rst = this.serialUtils.read();
+        readTrackIndexLatency.recordSince(start);
+
+        /*
+         * Step 2: Parse the last number in the response, the present position (counted from 1).
+         */
+        String[] numbers = new String(rst).replaceAll("[^0-9]+", " ").strip().split(" ");
+        if (numbers[numbers.length-1].isEmpty()) {
+            return -1;
+        }
+        return Integer.parseInt(numbers[numbers.length-1]) - 1;
+    }
+
+    public ResultUtils setSpeedForRate(double azRateDegPerS, double elRateDegPerS) throws InterruptedException {
+        /*
+         * Step 1: Choose the slowest speed setting with enough headroom for the expected azimuth rate. The speed
+         * setting only affects azimuth. Full speed is estimated from the rate learned at the current setting, or taken
+         * as the learned rate while the setting is unknown (the configured rate is the full speed rate).
+         */
+        int rateLevel = this.speedLevel == 0 ? SPEED_FRACTIONS.length : this.speedLevel;
+        double fullRateDegPerS = motionModel.getAzRateDegPerS() / SPEED_FRACTIONS[rateLevel-1];
+        double requiredDegPerS = azRateDegPerS * SPEED_MARGIN;
+        int level = SPEED_FRACTIONS.length;
+        for (int i = 0; i < SPEED_FRACTIONS.length; i++) {
+            double headroom = (i + 1 < this.speedLevel) ? SPEED_HYSTERESIS : 1; // Only slow down with extra headroom
+            if (fullRateDegPerS * SPEED_FRACTIONS[i] >= requiredDegPerS * headroom) {
+                level = i + 1;
+                break;
+            }
+        }
+        if (level == this.speedLevel) {
+            return ResultUtils.createSuccessfulResult();
+        }
+
+        /*
+         * Step 2: Send command Xn (set rotation speed, see GS232B manual). The first setting is always sent, as the
+         * controller may have been left at any speed. Only rescale the learned rate once the command has been sent.
+         */
+        byte[] cmd = {0x58, (byte) (0x30 + level), 0x0D}; // Xn<CR>
+        if (!sendCommand(cmd)) {
+            Log.error("RotatorGS232B could not set speed X" + level);
+            return ResultUtils.createFailedResult();
+        }
+        motionModel.scaleAzRate(SPEED_FRACTIONS[level-1] / SPEED_FRACTIONS[rateLevel-1]);
+        this.speedChanges++;
+        Log.info(String.format("RotatorGS232B speed changed from %s to X%d for Az rate %.2f deg/s (%d changes this run)",
+                this.speedLevel == 0 ? "unknown" : "X" + this.speedLevel, level, azRateDegPerS, this.speedChanges));
+        this.speedLevel = level;
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    /**
+     * Get the current speed setting.
+     * @return Speed setting from 1 (X1, slowest) to 4 (X4, fastest), or 0 if not set yet.
+     */
+    public int getSpeedLevel() {
+        return this.speedLevel;
     }
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import utils.ConfigurationUtils;
+import utils.Log;
+import utils.ResultUtils;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class for communication with any rotator supported by Hamlib, through the rotctld network daemon (see
+ * {@link HamlibClient}). rotctld may run on another host, e.g. a small computer next to the rotator controller.
+ *
+ * <P>Azimuth calibration is left to rotctld. Moves are followed in the same way as the serial rotators, using the
+ * {@link RotatorMotionModel} to detect a stalled rotator and the {@link RotatorStateEstimator} to limit polling.</P>
+ */
+public class RotatorHamlib implements Rotator {
+
+    private static final int AZ_TOLERANCE_DEG = 2;
+    private static final int EL_TOLERANCE_DEG = 2;
+    private static final int MOTION_TIMEOUT_MILLIS = 40000; // Upper bound, normally limited by the motion model
+    private final HamlibClient client;
+    private final String address;
+    private final int maxEl;
+    private final RotatorMotionModel motionModel;
+    private final RotatorStateEstimator estimator;
+    private final PendingTarget pendingTarget = new PendingTarget(); // Set by retarget() while goToAzEl is waiting
+    private volatile int currAz;
+    private volatile int currEl;
+    private volatile RotatorReadback lastReadback; // Last measured position, unlike the estimate from getAz()
+
+    /**
+     * Instate this class via the {@link InstrumentFactory} only.
+     */
+    protected RotatorHamlib() {
+        this(ConfigurationUtils.getStrProperty("ROTATOR_HAMLIB_ADDRESS"));
+    }
+
+    /**
+     * Create a rotator connected to rotctld at an address.
+     * @param address Address of rotctld in the form host:port.
+     */
+    RotatorHamlib(String address) {
+        this.address = address;
+        this.client = new HamlibClient("RotatorHamlib", address);
+        this.maxEl = ConfigurationUtils.getIntProperty("ROTATOR_MAX_EL");
+        this.motionModel = new RotatorMotionModel(ConfigurationUtils.getDoubleProperty("ROTATOR_AZ_SLEW_DEG_S"),
+                ConfigurationUtils.getDoubleProperty("ROTATOR_EL_SLEW_DEG_S"), AZ_TOLERANCE_DEG, EL_TOLERANCE_DEG, true);
+        this.estimator = new RotatorStateEstimator(this.motionModel);
+    }
+
+    public ResultUtils readInstrument() throws InterruptedException {
+        /*
+         * Step 1: Read the position (Azimuth: 180.000000, Elevation: 45.000000).
+         */
+        List<HamlibClient.Response> rst = client.transact("\\get_pos");
+        if (rst == null || !rst.getFirst().isOk()) {
+            return ResultUtils.createFailedResult();
+        }
+
+        /*
+         * Step 2: Parse the position, rounding to whole degrees like the serial rotators.
+         */
+        try {
+            double az = Double.parseDouble(rst.getFirst().get("Azimuth"));
+            double el = Double.parseDouble(rst.getFirst().get("Elevation"));
+            this.currAz = Math.floorMod((int) Math.round(az), 360);
+            this.currEl = (int) Math.round(el);
+        } catch (NullPointerException | NumberFormatException e) {
+            Log.error("RotatorHamlib could not parse position " + rst.getFirst().get("Azimuth") + ", "
+                    + rst.getFirst().get("Elevation"));
+            return ResultUtils.createFailedResult();
+        }
+        estimator.correct(this.currAz, this.currEl);
+        this.lastReadback = new RotatorReadback(System.currentTimeMillis(), this.currAz, this.currEl);
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    public ResultUtils testConnect() throws InterruptedException {
+        if (client.connect() && readInstrument().isSuccessful()) {
+            return ResultUtils.createSuccessfulResult();
+        }
+        else {
+            Log.error("RotatorHamlib connection test failed! Could not connect to rotctld at " + this.address);
+            return ResultUtils.createFailedResult();
+        }
+    }
+
+    /**
+     * Get the estimated current azimuth (see {@link RotatorStateEstimator}), without a network exchange.
+     * @return current azimuth.
+     */
+    public int getAz() {
+        return (int) Math.round(estimator.getAz());
+    }
+
+    /**
+     * Get the estimated current elevation (see {@link RotatorStateEstimator}), without a network exchange.
+     * @return current elevation.
+     */
+    public int getEl() {
+        return (int) Math.round(estimator.getEl());
+    }
+
+    public RotatorReadback getLastReadback() {
+        return lastReadback;
+    }
+
+    public int getMaxEl() {
+        return maxEl;
+    }
+
+    public double getAzSlewRateDegPerS() {
+        return motionModel.getAzRateDegPerS();
+    }
+
+    public double getElSlewRateDegPerS() {
+        return motionModel.getElRateDegPerS();
+    }
+
+    public ResultUtils goToAz(int az) throws InterruptedException {
+        readInstrument();
+        return goToAzEl(az, this.currEl);
+    }
+
+    public ResultUtils goToEl(int el) throws InterruptedException {
+        readInstrument();
+        return goToAzEl(this.currAz, el);
+    }
+
+    public ResultUtils goToAzEl(int az, int el) throws InterruptedException {
+        /*
+         * Step 1: Verify az and el are within acceptable range, and skip the move if already within tolerance.
+         */
+        if (az < 0 || az > 359 || el < 0 || el > this.maxEl) {
+            return ResultUtils.createFailedResult();
+        }
+        if (Math.abs(this.currAz - az) <= AZ_TOLERANCE_DEG && Math.abs(this.currEl - el) <= EL_TOLERANCE_DEG) {
+            return ResultUtils.createSuccessfulResult();
+        }
+
+        /*
+         * Step 2: Send set_pos. rotctld acknowledges once the command has been passed to the controller, not when the
+         * rotator arrives.
+         */
+        Log.info("Moving to position Az " + az + ", El " + el);
+        pendingTarget.begin();
+        try {
+            if (!setPosition(az, el)) {
+                return ResultUtils.createFailedResult();
+            }
+
+            /*
+             * Step 3: Wait until the rotator has reached within tolerance, failing if it stalls or takes much longer
+             * than predicted. A new target from retarget() is taken between polls, and the wait continues towards it.
+             */
+            motionModel.startMove(this.currAz, this.currEl, az, el);
+            estimator.startMove(az, el);
+            long motionStart = System.currentTimeMillis();
+            while (true) {
+                boolean arrived = Math.abs(this.currAz - az) <= AZ_TOLERANCE_DEG
+                        && Math.abs(this.currEl - el) <= EL_TOLERANCE_DEG;
+                int[] next = arrived ? pendingTarget.finish() : pendingTarget.poll();
+                if (next != null) { // Redirected, send the new position and wait for that instead
+                    Log.info("Retargeting to position Az " + next[0] + ", El " + next[1]);
+                    az = next[0];
+                    el = next[1];
+                    if (!setPosition(az, el)) {
+                        return ResultUtils.createFailedResult();
+                    }
+                    motionModel.startMove(this.currAz, this.currEl, az, el);
+                    estimator.startMove(az, el);
+                    motionStart = System.currentTimeMillis();
+                    continue;
+                }
+                if (arrived) {
+                    return ResultUtils.createSuccessfulResult();
+                }
+                if (motionModel.isStalled() || motionModel.isTimedOut()
+                        || (System.currentTimeMillis() - motionStart) >= MOTION_TIMEOUT_MILLIS) {
+                    Log.error("RotatorHamlib failed to reach Az " + az + ", El " + el + ". Stopped at Az "
+                            + this.currAz + ", El " + this.currEl);
+                    return ResultUtils.createFailedResult();
+                }
+                TimeUnit.MILLISECONDS.sleep(estimator.getPollDelayMillis());
+                readInstrument();
+                motionModel.update(this.currAz, this.currEl);
+            }
+        } finally {
+            pendingTarget.cancel();
+        }
+    }
+
+    public boolean retarget(int az, int el) {
+        if (az < 0 || az > 359 || el < 0 || el > this.maxEl) {
+            return false;
+        }
+        return pendingTarget.offer(az, el);
+    }
+
+    /**
+     * Send set_pos to rotctld.
+     * @param az Azimuth in degrees.
+     * @param el Elevation in degrees.
+     * @return True if rotctld accepted the position.
+     * @throws InterruptedException
+     */
+    private boolean setPosition(int az, int el) throws InterruptedException {
+        String cmd = String.format(Locale.ROOT, "\\set_pos %d %d", az, el);
+        List<HamlibClient.Response> rst = client.transact(cmd);
+        if (rst == null || !rst.getFirst().isOk()) {
+            Log.error("RotatorHamlib set_pos failed" + (rst == null ? "" : " with Hamlib error " + rst.getFirst().getCode()));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Close the connection to rotctld.
+     */
+    public void close() {
+        client.close();
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+/**
+ * Model of the motion of a rotator, used to predict how long a move will take and to detect when a move has stalled.
+ * The azimuth and elevation slew rates are learned from the position readbacks taken while the rotator is moving,
+ * starting from the rates specified in the configuration file.
+ */
+public class RotatorMotionModel {
+
+    private static final double RATE_SMOOTHING = 0.2; // Weight of the newest slew rate measurement
+    private static final double MIN_RATE_DEG_PER_S = 0.1; // Lower bound to keep ETA finite
+    private static final double ETA_FACTOR = 1.5; // Timeout as a multiple of the ETA, plus the margin below
+    private static final long ETA_MARGIN_MILLIS = 5000;
+    private static final long STALL_MILLIS = 4000; // Time without progress before a move is considered stalled
+    private static final int MIN_PROGRESS_DEG = 1;
+
+    private final int azToleranceDeg;
+    private final boolean linearAz; // Rotator moves straight between positions, not the shortest path across north
+    private final int elToleranceDeg;
+    private double azRateDegPerS;
+    private double elRateDegPerS;
+    private int targetAz;
+    private int targetEl;
+    private int lastAz;
+    private int lastEl;
+    private long lastMillis;
+    private long moveStartMillis;
+    private long lastProgressMillis;
+    private int minRemainingDeg;
+    private long etaMillis;
+
+    /**
+     * Create a motion model.
+     * @param azRateDegPerS Initial azimuth slew rate in degrees per second.
+     * @param elRateDegPerS Initial elevation slew rate in degrees per second.
+     * @param azToleranceDeg Azimuth tolerance the rotator is considered to have arrived within.
+     * @param elToleranceDeg Elevation tolerance the rotator is considered to have arrived within.
+     */
+    public RotatorMotionModel(double azRateDegPerS, double elRateDegPerS, int azToleranceDeg, int elToleranceDeg) {
+        this(azRateDegPerS, elRateDegPerS, azToleranceDeg, elToleranceDeg, false);
+    }
+
+    /**
+     * Create a motion model, optionally for a rotator with a linear azimuth range (e.g. 0 to 360 deg, or -180 to
+     * 540 deg with overlap). Such a rotator moves the whole difference between positions and never crosses its end
+     * stop, so a move from 350 to 10 deg travels 340 deg rather than the 20 deg shortest path across north.
+     * @param azRateDegPerS Initial azimuth slew rate in degrees per second.
+     * @param elRateDegPerS Initial elevation slew rate in degrees per second.
+     * @param azToleranceDeg Azimuth tolerance the rotator is considered to have arrived within.
+     * @param elToleranceDeg Elevation tolerance the rotator is considered to have arrived within.
+     * @param linearAz True if the azimuth range is linear.
+     */
+    public RotatorMotionModel(double azRateDegPerS, double elRateDegPerS, int azToleranceDeg, int elToleranceDeg,
+                              boolean linearAz) {
+        this.linearAz = linearAz;
+        this.azRateDegPerS = azRateDegPerS;
+        this.elRateDegPerS = elRateDegPerS;
+        this.azToleranceDeg = azToleranceDeg;
+        this.elToleranceDeg = elToleranceDeg;
+    }
+
+    /**
+     * Begin tracking a new move. Must be called after the command is sent, before calling {@link #update(int, int)}.
+     * @param fromAz Azimuth at the start of the move.
+     * @param fromEl Elevation at the start of the move.
+     * @param toAz Target azimuth.
+     * @param toEl Target elevation.
+     */
+    public void startMove(int fromAz, int fromEl, int toAz, int toEl) {
+        this.targetAz = toAz;
+        this.targetEl = toEl;
+        this.lastAz = fromAz;
+        this.lastEl = fromEl;
+        this.lastMillis = System.currentTimeMillis();
+        this.moveStartMillis = this.lastMillis;
+        this.lastProgressMillis = this.lastMillis;
+        this.minRemainingDeg = remainingDeg(fromAz, fromEl);
+        this.etaMillis = predictMillis(fromAz, fromEl, toAz, toEl);
+    }
+
+    /**
+     * Update the model with a new position readback taken during the move. The slew rate of each axis is learned only
+     * while that axis is still short of the target, so the rate is not underestimated when the axis stops mid-interval.
+     * @param az Current azimuth.
+     * @param el Current elevation.
+     */
+    public void update(int az, int el) {
+        long now = System.currentTimeMillis();
+        double dtS = (now - this.lastMillis) / 1000.0;
+        if (dtS > 0) {
+            int azMoved = azDistance(az, this.lastAz);
+            int elMoved = Math.abs(el - this.lastEl);
+            if (azMoved >= MIN_PROGRESS_DEG && azDistance(az, this.targetAz) > this.azToleranceDeg) {
+                this.azRateDegPerS += RATE_SMOOTHING * (azMoved / dtS - this.azRateDegPerS);
+            }
+            if (elMoved >= MIN_PROGRESS_DEG && Math.abs(el - this.targetEl) > this.elToleranceDeg) {
+                this.elRateDegPerS += RATE_SMOOTHING * (elMoved / dtS - this.elRateDegPerS);
+            }
+        }
+        int remaining = remainingDeg(az, el);
+        if (remaining <= this.minRemainingDeg - MIN_PROGRESS_DEG) {
+            this.minRemainingDeg = remaining;
+            this.lastProgressMillis = now;
+        }
+        this.lastAz = az;
+        this.lastEl = el;
+        this.lastMillis = now;
+    }
+
+    /**
+     * Check if the rotator has not made progress towards the target recently.
+     * @return True if the move has stalled.
+     */
+    public boolean isStalled() {
+        return System.currentTimeMillis() - this.lastProgressMillis >= STALL_MILLIS;
+    }
+
+    /**
+     * Check if the move has taken significantly longer than predicted.
+     * @return True if the move has timed out.
+     */
+    public boolean isTimedOut() {
+        return System.currentTimeMillis() - this.moveStartMillis >= getTimeoutMillis();
+    }
+
+    /**
+     * Get the timeout of the current move, scaled by the predicted time to complete the move.
+     * @return Timeout in milliseconds.
+     */
+    public long getTimeoutMillis() {
+        return (long) (this.etaMillis * ETA_FACTOR) + ETA_MARGIN_MILLIS;
+    }
+
+    /**
+     * Get the predicted time to complete the current move, from when it was started.
+     * @return ETA in milliseconds.
+     */
+    public long getEtaMillis() {
+        return this.etaMillis;
+    }
+
+    /**
+     * Predict the time to move between two positions, with both axes moving at their learned rates.
+     * @return Predicted time in milliseconds.
+     */
+    public long predictMillis(int fromAz, int fromEl, int toAz, int toEl) {
+        double azS = azDistance(fromAz, toAz) / Math.max(MIN_RATE_DEG_PER_S, this.azRateDegPerS);
+        double elS = Math.abs(toEl - fromEl) / Math.max(MIN_RATE_DEG_PER_S, this.elRateDegPerS);
+        return (long) (Math.max(azS, elS) * 1000);
+    }
+
+    /**
+     * Scale the learned azimuth slew rate, for example when the rotator speed setting is changed.
+     * @param factor Ratio of new rate to the previous rate.
+     */
+    public void scaleAzRate(double factor) {
+        this.azRateDegPerS *= factor;
+    }
+
+    /**
+     * Get the learned azimuth slew rate.
+     * @return Slew rate in degrees per second.
+     */
+    public double getAzRateDegPerS() {
+        return this.azRateDegPerS;
+    }
+
+    /**
+     * Get the learned elevation slew rate.
+     * @return Slew rate in degrees per second.
+     */
+    public double getElRateDegPerS() {
+        return this.elRateDegPerS;
+    }
+
+    /**
+     * Get the largest distance of either axis to the target.
+     */
+    private int remainingDeg(int az, int el) {
+        return Math.max(azDistance(az, this.targetAz), Math.abs(el - this.targetEl));
+    }
+
+    /**
+     * Get the distance between two azimuth positions, the shortest path unless the azimuth range is linear.
+     */
+    private int azDistance(int az1, int az2) {
+        if (linearAz) {
+            return Math.abs(az1 - az2);
+        }
+        int delta = Math.floorMod(az1 - az2, 360);
+        return Math.min(delta, 360 - delta);
+    }
+
+}
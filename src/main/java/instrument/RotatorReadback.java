@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+/**
+ * Rotator position as measured by a single readback from the controller, as opposed to the position estimated between
+ * readbacks (see {@link RotatorStateEstimator}). Immutable, so the latest readback can be handed between threads
+ * without locking.
+ */
+public final class RotatorReadback {
+
+    private final long timeMillis;
+    private final int az;
+    private final int el;
+
+    /**
+     * Create a readback.
+     * @param timeMillis Time the position was read, in milliseconds since the epoch.
+     * @param az Measured azimuth in degrees from true north.
+     * @param el Measured elevation in degrees from the horizon.
+     */
+    public RotatorReadback(long timeMillis, int az, int el) {
+        this.timeMillis = timeMillis;
+        this.az = az;
+        this.el = el;
+    }
+
+    /**
+     * Get the time the position was read.
+     * @return Time in milliseconds since the epoch.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Get the measured azimuth.
+     * @return Azimuth in degrees from true north.
+     */
+    public int getAz() {
+        return az;
+    }
+
+    /**
+     * Get the measured elevation.
+     * @return Elevation in degrees from the horizon.
+     */
+    public int getEl() {
+        return el;
+    }
+
+}
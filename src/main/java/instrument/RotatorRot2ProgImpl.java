@@ -32,30 +32,56 @@ import java.util.concurrent.TimeUnit;
  * 10 deg. On the controller screen, values are only reported in the 0-359 range, and the LED to the bottom right of the
  * decimal place flashes or lights up solid to indicate if outside the normal 0 - 360 range. However, when queried via
  * the serial port, the controller reports the values in the range 180 - 900 deg range. The goTo methods in this class
- * still only take values in the range of 0-359 deg for az, and 0-90 deg in elevation, leaving the controller to decide
- * the shortest path to the requested position. In {@link RotatorRot2ProgImpl#readInstrument()}, values are adjusted
- * such that they are always reported to be in the 0 - 359 deg range.
+ * take values in the range of -180-540 deg for az (sent to the controller as 180 - 900 deg), and 0-180 deg in
+ * elevation. Values in the range 0-359 deg behave as before, leaving the controller to decide the shortest path to the
+ * requested position, while values outside this range allow {@link tracking.PassPlanner} to follow a pass across north
+ * without the rotator unwinding. {@link RotatorRot2ProgImpl#getAz()} always reports az in the 0 - 359 deg range.
  */
 public class RotatorRot2ProgImpl implements Rotator {
 
     private static final int AZ_TOLERANCE_DEG = 1;
+    private static final int MIN_AZ_DEG = -180; // Controller range 180 - 900 deg, offset by 360 deg
+    private static final int MAX_AZ_DEG = 540;
     private static final int EL_TOLERANCE_DEG = 1;
     private final String correctionFilePath;
     private final int[] correctionList = new int[360];
 
-    //Larger than for GS232B since range is bigger. TODO: Scale based on delta to move
+    //Larger than for GS232B since range is bigger. Upper bound, normally limited by the motion model.
     private static final int MOTION_TIMEOUT_MILLIS = 120000;
+    private static final int MOTION_RETRIES = 1; // Number of times a command is resent if the rotator stalls
+    private final RotatorMotionModel motionModel;
+    private final RotatorStateEstimator estimator; // Tracks az in the -180 - 540 deg range
+    private final PendingTarget pendingTarget = new PendingTarget(); // Set by retarget() while goToAzEl is waiting
     private static final int AZ_CMD_OFFSET = 1; // Start position of Az bytes in commands
     private static final int EL_CMD_OFFSET = 6; // Start position of El bytes in commands
     SerialUtils serialUtils;
     private final String comPort;
     private final int baudRate;
-    private int currAz;
-    private int currEl;
+    private final int maxEl;
+    private volatile int currAz;
+    private volatile int currAzExtended; // Az in the -180 - 540 deg range, before adjusting to 0 - 359 deg
+    private volatile int currEl;
+    private volatile RotatorReadback lastReadback; // Last measured position, unlike the estimate from getAz()
+    // Time taken by each command type, moves including the wait for arrival (see LatencyRegistry)
+    private final LatencyHistogram readLatency = LatencyRegistry.get("RotatorRot2Prog read position");
+    private final LatencyHistogram setAzElLatency = LatencyRegistry.get("RotatorRot2Prog set az el");
 
     protected RotatorRot2ProgImpl() {
-        this.comPort = ConfigurationUtils.getStrProperty("ROTATOR_COM_PORT");
-        this.baudRate = ConfigurationUtils.getIntProperty("ROTATOR_BAUD");
+        this(ConfigurationUtils.getStrProperty("ROTATOR_COM_PORT"), ConfigurationUtils.getIntProperty("ROTATOR_BAUD"));
+    }
+
+    /**
+     * Create an instance on a specific port, e.g. a simulated controller.
+     * @param comPort COM port, tcp://host:port or mem://name (see {@link SerialUtils}).
+     * @param baudRate Baud rate.
+     */
+    RotatorRot2ProgImpl(String comPort, int baudRate) {
+        this.comPort = comPort;
+        this.baudRate = baudRate;
+        this.maxEl = ConfigurationUtils.getIntProperty("ROTATOR_MAX_EL");
+        this.motionModel = new RotatorMotionModel(ConfigurationUtils.getDoubleProperty("ROTATOR_AZ_SLEW_DEG_S"),
+                ConfigurationUtils.getDoubleProperty("ROTATOR_EL_SLEW_DEG_S"), AZ_TOLERANCE_DEG, EL_TOLERANCE_DEG, true);
+        this.estimator = new RotatorStateEstimator(this.motionModel);
         this.correctionFilePath = ConfigurationUtils.getStrProperty("ROTATOR_CALIBRATION_PATH");
         readCorrectionFile(correctionFilePath);
         this.serialUtils = new SerialUtils(this.comPort, this.baudRate, 8, 1, 0);
@@ -64,7 +90,7 @@ public class RotatorRot2ProgImpl implements Rotator {
     /**
      * Read the values of the rotator correction configuration file.
      */
-    protected void readCorrectionFile(String correctionFilePath) {
+    protected final void readCorrectionFile(String correctionFilePath) {
         BufferedReader fileReader;
         try {
             fileReader = new BufferedReader(new FileReader(correctionFilePath));
@@ -94,22 +120,23 @@ public class RotatorRot2ProgImpl implements Rotator {
         return this.correctionList;
     }
 
-    public ResultUtils readInstrument() throws InterruptedException {
+    public synchronized ResultUtils readInstrument() throws InterruptedException {
         /*
          * Step 1: Send read az and el command to instrument, read response.
          * See: https://github.com/jaidenfe/rot2proG
          */
         byte[] readAzElCmd = {0x57, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x1F, 0x20};
-        this.serialUtils.open();
+        long start = System.nanoTime();
+        openPort();
         this.serialUtils.write(readAzElCmd);
         // Delay to allow instrument to respond to command, needs to be very long as the baud rate is very slow
         TimeUnit.MILLISECONDS.sleep(600);
         byte[] rst = this.serialUtils.read(); // Check for response
+        readLatency.recordSince(start);
         if (rst.length == 0) { // Cmd failed if no response
             return ResultUtils.createFailedResult();
         }
-        this.serialUtils.close();
-        TimeUnit.MILLISECONDS.sleep(300); // Delay to allow instrument after closing port
+        TimeUnit.MILLISECONDS.sleep(300); // Delay to allow instrument to settle before the next command
 
         /*
          * Step 2: Parse az and el values from response.
@@ -123,6 +150,7 @@ public class RotatorRot2ProgImpl implements Rotator {
         }
         int azAngle = Integer.parseInt(new String(az, StandardCharsets.US_ASCII));
         int elAngle = Integer.parseInt(new String(el, StandardCharsets.US_ASCII));
+        this.currAzExtended = azAngle - 360;
 
         if (azAngle >= 720) { // Keep final az reported withing 0-359
             azAngle -= 360;
@@ -133,12 +161,14 @@ public class RotatorRot2ProgImpl implements Rotator {
 
         this.currAz = azAngle;
         this.currEl = elAngle-360;
+        estimator.correct(this.currAzExtended, this.currEl);
+        this.lastReadback = new RotatorReadback(System.currentTimeMillis(), this.currAz, this.currEl);
 
         return ResultUtils.createSuccessfulResult();
     }
 
-    public ResultUtils testConnect() throws InterruptedException {
-        if (serialUtils.open() && readInstrument().isSuccessful() && serialUtils.close()) {
+    public synchronized ResultUtils testConnect() throws InterruptedException {
+        if (openPort() && readInstrument().isSuccessful()) {
             return ResultUtils.createSuccessfulResult();
         }
         else {
@@ -148,12 +178,86 @@ public class RotatorRot2ProgImpl implements Rotator {
         }
     }
 
+    /**
+     * Close the serial port, e.g. after a failed connection test. The port is opened again by the next command.
+     */
+    public synchronized void close() {
+        if (this.serialUtils.isOpen()) {
+            this.serialUtils.close();
+        }
+    }
+
+    /**
+     * Open the serial port if it is not already open, then discard anything left from an earlier command (e.g. a reply
+     * that arrived after the driver stopped waiting). The port is kept open between commands, so a connection to a
+     * serial server is not re-established for every position poll.
+     * @return True if the port is open.
+     */
+    private boolean openPort() {
+        if (!this.serialUtils.isOpen() && !this.serialUtils.open()) {
+            return false;
+        }
+        this.serialUtils.read();
+        return true;
+    }
+
+    /**
+     * Get the estimated current azimuth (see {@link RotatorStateEstimator}), without a serial transaction.
+     * @return current azimuth in the range 0-359 deg.
+     */
     public int getAz() {
-        return currAz;
+        return Math.floorMod((int) Math.round(estimator.getAz()), 360);
     }
 
+    /**
+     * Get the estimated current azimuth in the controller range, without a serial transaction.
+     * @return current azimuth in the range -180 - 540 deg.
+     */
+    public int getAzExtended() {
+        return (int) Math.round(estimator.getAz());
+    }
+
+    /**
+     * Get the estimated current elevation (see {@link RotatorStateEstimator}), without a serial transaction.
+     * @return current elevation.
+     */
     public int getEl() {
-        return currEl;
+        return (int) Math.round(estimator.getEl());
+    }
+
+    public RotatorReadback getLastReadback() {
+        return lastReadback;
+    }
+
+    public int getMaxEl() {
+        return maxEl;
+    }
+
+    public int getMinAz() {
+        return MIN_AZ_DEG;
+    }
+
+    public int getMaxAz() {
+        return MAX_AZ_DEG;
+    }
+
+    public double getAzSlewRateDegPerS() {
+        return motionModel.getAzRateDegPerS();
+    }
+
+    public double getElSlewRateDegPerS() {
+        return motionModel.getElRateDegPerS();
+    }
+
+    /**
+     * Send a command that does not have a response.
+     * @param cmd Command bytes.
+     * @throws InterruptedException
+     */
+    private synchronized void sendCommand(byte[] cmd) throws InterruptedException {
+        openPort();
+        this.serialUtils.write(cmd);
+        TimeUnit.MILLISECONDS.sleep(300);
     }
 
     public ResultUtils goToAz(int az) throws InterruptedException {
@@ -163,22 +267,23 @@ public class RotatorRot2ProgImpl implements Rotator {
 
     public ResultUtils goToEl(int el) throws InterruptedException {
         readInstrument(); // Get current position
-        return goToAzEl(this.currAz, el); // Set new el, keep az same
+        return goToAzEl(this.currAzExtended, el); // Set new el, keep az same (without unwinding)
     }
 
     public ResultUtils goToAzEl(int az, int el) throws InterruptedException {
         /*
          * Step 1: Verify el is within acceptable range, check if < tolerance and correct for cal
          */
-        if ((el < 0 || el > 180) || (az < 0 || az > 359)) {
+        if ((el < 0 || el > this.maxEl) || (az < MIN_AZ_DEG || az > MAX_AZ_DEG)) {
             return ResultUtils.createFailedResult();
         }
 
-        // Only move if step is larger than AZ_TOLERANCE_DEG to prevent redundant updating
-        if (Math.abs(this.currAz - az) > AZ_TOLERANCE_DEG) {
+        // Only move if step is larger than AZ_TOLERANCE_DEG to prevent redundant updating. Positions are absolute, a
+        // position a whole turn away from the current one is a move of 360 deg.
+        if (Math.abs(this.currAzExtended - az) > AZ_TOLERANCE_DEG) {
             Log.info("Moving to position Az " + az);
         } else {
-            az = this.currAz;
+            az = this.currAzExtended;
             Log.debug("Az not updated on instrument, new Az less then " + AZ_TOLERANCE_DEG + " from current position");
         }
         // Only move if step is larger than EL_TOLERANCE_DEG to prevent redundant updating
@@ -189,13 +294,102 @@ public class RotatorRot2ProgImpl implements Rotator {
             Log.debug("El not updated on instrument, new El less then " + EL_TOLERANCE_DEG + " from current position");
         }
 
-        az = correctionList[az];
+        az = correctAz(az);
         Log.debug("After correcting for calibration, az = " + az);
 
         /*
          * Step 2: Generate and then send command to set azimuth and elevation
          * Note: Az and el must always be set together.
          */
+        byte[] cmd = createAzElCmd(az, el);
+
+        /*
+         * Step 3: Send command.
+         */
+        long start = System.nanoTime();
+        pendingTarget.begin();
+        try {
+            sendCommand(cmd);
+
+            /*
+             * Step 4: Wait until rotators position has reached within +/- EL_TOLERANCE_DEG. The motion model predicts
+             * how long the move should take from the learned slew rates. If the rotator stops making progress or takes
+             * much longer than predicted, the command is resent before the move is failed. Between readbacks the
+             * position is estimated, so the slow link is only polled when the estimate becomes uncertain or the rotator
+             * should have arrived. A new target from retarget() is taken between polls, and the wait continues
+             * towards it.
+             */
+            motionModel.startMove(this.currAzExtended, this.currEl, az, el);
+            estimator.startMove(az, el);
+            Log.debug("Predicted move time " + motionModel.getEtaMillis() + "ms, timeout " + motionModel.getTimeoutMillis() + "ms");
+            long motionStart = System.currentTimeMillis();
+            int retries = MOTION_RETRIES;
+            while (true) {
+                boolean arrived = this.currEl > el - EL_TOLERANCE_DEG && this.currEl < el + EL_TOLERANCE_DEG
+                        && Math.abs(this.currAzExtended - az) < AZ_TOLERANCE_DEG;
+                int[] next = arrived ? pendingTarget.finish() : pendingTarget.poll();
+                if (next != null) { // Redirected, send the new position and wait for that instead
+                    Log.info("Retargeting to position Az " + next[0] + ", El " + next[1]);
+                    az = correctAz(next[0]);
+                    el = next[1];
+                    cmd = createAzElCmd(az, el);
+                    sendCommand(cmd);
+                    motionModel.startMove(this.currAzExtended, this.currEl, az, el);
+                    estimator.startMove(az, el);
+                    motionStart = System.currentTimeMillis();
+                    retries = MOTION_RETRIES;
+                    continue;
+                }
+                if (arrived) {
+                    setAzElLatency.recordSince(start);
+                    return ResultUtils.createSuccessfulResult();
+                }
+                if (motionModel.isStalled() || motionModel.isTimedOut()
+                        || (System.currentTimeMillis() - motionStart) >= MOTION_TIMEOUT_MILLIS) {
+                    if (retries == 0) {
+                        Log.error("RotatorRot2Prog failed to reach Az " + az + ", El " + el + ". Stopped at Az "
+                                + this.currAzExtended + ", El " + this.currEl);
+                        setAzElLatency.recordSince(start);
+                        return ResultUtils.createFailedResult();
+                    }
+                    retries--;
+                    Log.warn("RotatorRot2Prog not progressing towards Az " + az + ", El " + el + ", resending command");
+                    sendCommand(cmd);
+                    motionModel.startMove(this.currAzExtended, this.currEl, az, el);
+                }
+                TimeUnit.MILLISECONDS.sleep(estimator.getPollDelayMillis());
+                readInstrument();
+                motionModel.update(this.currAzExtended, this.currEl);
+            }
+        } finally {
+            pendingTarget.cancel();
+        }
+    }
+
+    public boolean retarget(int az, int el) {
+        if ((el < 0 || el > this.maxEl) || (az < MIN_AZ_DEG || az > MAX_AZ_DEG)) {
+            return false;
+        }
+        return pendingTarget.offer(az, el);
+    }
+
+    /**
+     * Correct an azimuth for calibration. Calibration is specified for 0-359 deg, any whole turns are kept.
+     * @param az Azimuth in the -180 - 540 deg range.
+     * @return Corrected azimuth.
+     */
+    private int correctAz(int az) {
+        int wrappedAz = Math.floorMod(az, 360);
+        return correctionList[wrappedAz] + (az - wrappedAz);
+    }
+
+    /**
+     * Generate the set command for an azimuth and elevation.
+     * @param az Azimuth in degrees (after correcting for calibration).
+     * @param el Elevation in degrees.
+     * @return Command bytes.
+     */
+    private byte[] createAzElCmd(int az, int el) {
         byte[] elBytes = String.valueOf(el + 360).getBytes(); // Add 360 per spec
         byte[] azBytes = String.valueOf(az + 360).getBytes();
 
@@ -204,31 +398,10 @@ public class RotatorRot2ProgImpl implements Rotator {
         for (int i = 0; i < elBytes.length; i++) { // Place elevation bytes
             cmd[EL_CMD_OFFSET+1+i] = elBytes[i];
         }
-        for (int i = 0; i < azBytes.length; i++) { // Place azimuth bytes (azimuth not changed)
+        for (int i = 0; i < azBytes.length; i++) { // Place azimuth bytes
             cmd[AZ_CMD_OFFSET+1+i] = azBytes[i];
         }
-
-        /*
-         * Step 3: Send command.
-         */
-        this.serialUtils.open();
-        this.serialUtils.write(cmd);
-        TimeUnit.MILLISECONDS.sleep(300);
-        this.serialUtils.close();
-
-        /*
-         * Step 4: Wait until rotators position has reached within +/- EL_TOLERANCE_DEG
-         */
-        long motionStart = System.currentTimeMillis();
-        while ((this.currEl <= el - EL_TOLERANCE_DEG || this.currEl >= el + EL_TOLERANCE_DEG)
-                || (this.currAz <= az - AZ_TOLERANCE_DEG || this.currAz >= az + AZ_TOLERANCE_DEG)) { // || ((az == 0) && (this.currAz >= AZ_TOLERANCE_DEG || this.currAz <= 360-AZ_TOLERANCE_DEG))
-            if ((System.currentTimeMillis() - motionStart) >= MOTION_TIMEOUT_MILLIS) {
-                return ResultUtils.createFailedResult();
-            }
-            TimeUnit.MILLISECONDS.sleep(300);
-            readInstrument();
-        }
-        return ResultUtils.createSuccessfulResult();
+        return cmd;
     }
 
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+/**
+ * Base class for simulated rotator controllers (see {@link InstrumentSimulator}). Each axis moves towards its target
+ * at a finite slew rate, so a driver sees the rotator take time to arrive, as with the hardware.
+ */
+public abstract class RotatorSimulator extends InstrumentSimulator {
+
+    private final double azRateDegPerS;
+    private final double elRateDegPerS;
+    private final double minAz;
+    private final double maxAz;
+    private final double maxEl;
+    private double az = 0;
+    private double el = 0;
+    private double targetAz = 0;
+    private double targetEl = 0;
+    private double azSpeedFraction = 1;
+    private int azTargetCount = 0;
+    private long lastUpdateNanos = System.nanoTime();
+
+    /**
+     * Create a rotator simulator.
+     * @param name Name of the pipe, the driver uses the port mem://name.
+     * @param baudRate Baud rate of the simulated link.
+     * @param latencyMillis Time taken by the controller to answer a command.
+     * @param azRateDegPerS Azimuth slew rate at full speed.
+     * @param elRateDegPerS Elevation slew rate.
+     * @param minAz Lowest azimuth the rotator can move to.
+     * @param maxAz Highest azimuth the rotator can move to.
+     * @param maxEl Highest elevation the rotator can move to.
+     */
+    protected RotatorSimulator(String name, int baudRate, long latencyMillis, double azRateDegPerS,
+                               double elRateDegPerS, double minAz, double maxAz, double maxEl) {
+        super(name, baudRate, latencyMillis);
+        this.azRateDegPerS = azRateDegPerS;
+        this.elRateDegPerS = elRateDegPerS;
+        this.minAz = minAz;
+        this.maxAz = maxAz;
+        this.maxEl = maxEl;
+    }
+
+    /**
+     * Move the rotator to a position instantly, e.g. to set up a test.
+     * @param az Azimuth in degrees.
+     * @param el Elevation in degrees.
+     */
+    public synchronized void setPosition(double az, double el) {
+        updatePosition();
+        this.az = clamp(az, minAz, maxAz);
+        this.el = clamp(el, 0, maxEl);
+        this.targetAz = this.az;
+        this.targetEl = this.el;
+    }
+
+    /**
+     * Get the current azimuth.
+     * @return Azimuth in degrees.
+     */
+    public synchronized double getAz() {
+        updatePosition();
+        return az;
+    }
+
+    /**
+     * Get the current elevation.
+     * @return Elevation in degrees.
+     */
+    public synchronized double getEl() {
+        updatePosition();
+        return el;
+    }
+
+    /**
+     * Check if the rotator is moving.
+     * @return True if either axis has not reached its target.
+     */
+    public synchronized boolean isMoving() {
+        updatePosition();
+        return az != targetAz || el != targetEl;
+    }
+
+    /**
+     * Set the azimuth target, limited to the azimuth range.
+     * @param az Target azimuth in degrees.
+     */
+    protected synchronized void setTargetAz(double az) {
+        updatePosition();
+        this.targetAz = clamp(az, minAz, maxAz);
+        this.azTargetCount++;
+    }
+
+    /**
+     * Get the number of azimuth targets received, e.g. to check that a move command was not resent.
+     * @return Number of azimuth targets.
+     */
+    public synchronized int getAzTargetCount() {
+        return azTargetCount;
+    }
+
+    /**
+     * Set the elevation target, limited to the elevation range.
+     * @param el Target elevation in degrees.
+     */
+    protected synchronized void setTargetEl(double el) {
+        updatePosition();
+        this.targetEl = clamp(el, 0, maxEl);
+    }
+
+    /**
+     * Stop both axes where they are.
+     */
+    protected synchronized void stopMotion() {
+        updatePosition();
+        this.targetAz = az;
+        this.targetEl = el;
+    }
+
+    /**
+     * Set the azimuth speed as a fraction of full speed (e.g. GS-232B X1 to X4).
+     * @param fraction Fraction of the azimuth slew rate.
+     */
+    protected synchronized void setAzSpeedFraction(double fraction) {
+        updatePosition();
+        this.azSpeedFraction = fraction;
+    }
+
+    /**
+     * Get the azimuth speed as a fraction of full speed.
+     * @return Fraction of the azimuth slew rate.
+     */
+    public synchronized double getAzSpeedFraction() {
+        return this.azSpeedFraction;
+    }
+
+    protected void idle() {
+        getAz(); // Advance the motion
+    }
+
+    /**
+     * Advance both axes towards their targets for the time since the last update.
+     */
+    private void updatePosition() {
+        long now = System.nanoTime();
+        double dtS = (now - lastUpdateNanos) / 1e9;
+        lastUpdateNanos = now;
+        az = step(az, targetAz, azRateDegPerS * azSpeedFraction * dtS);
+        el = step(el, targetEl, elRateDegPerS * dtS);
+    }
+
+    private static double step(double from, double to, double maxStep) {
+        if (Math.abs(to - from) <= maxStep) {
+            return to;
+        }
+        return from + Math.signum(to - from) * maxStep;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+/**
+ * Estimates the current rotator position between readbacks, so the position can be read at any rate without a serial
+ * transaction. Each axis is modelled as moving towards its commanded target at the slew rate learned by the
+ * {@link RotatorMotionModel}, with a scalar Kalman filter per axis: the uncertainty of the estimate grows with the
+ * distance moved (the learned rate is not exact) and slowly while stationary, and each readback corrects the estimate
+ * and shrinks the uncertainty. The rotator then only needs to be polled when the uncertainty grows too large, or to
+ * confirm arrival at the target.
+ *
+ * <P>Positions are in the numeric range used by the rotator controller (e.g. -180 to 540 deg azimuth for the
+ * Rot2Prog), so the estimate moves the same way the controller does rather than the shortest way around.</P>
+ */
+public class RotatorStateEstimator {
+
+    private static final double MEASUREMENT_VAR_DEG2 = 0.25; // Readback resolution of about +/- 0.5 deg
+    private static final double RATE_UNCERTAINTY = 0.2; // Fractional error of the learned slew rate (1 sigma)
+    private static final double DRIFT_VAR_DEG2_PER_S = 0.01; // Growth of variance when not moving (wind, backlash)
+    private static final double GATE_SIGMA = 4; // Readbacks further than this are taken as-is (e.g. moved by hand)
+    private static final double MAX_UNCERTAINTY_DEG = 2; // Poll before the estimate becomes less certain than this
+    private static final double MIN_RATE_DEG_PER_S = 0.1; // Lower bound to keep the time to arrival finite
+    private static final long MIN_POLL_MILLIS = 200;
+    private static final long MAX_POLL_MILLIS = 2000; // Keeps stall detection responsive
+
+    private final RotatorMotionModel motionModel;
+    private final Axis az = new Axis();
+    private final Axis el = new Axis();
+    private long lastMillis = System.currentTimeMillis();
+
+    /**
+     * State of one axis: estimated position, variance of the estimate, and commanded target.
+     */
+    private static class Axis {
+        double pos;
+        double var = 1e6; // Unknown until the first readback
+        double target;
+        boolean moving = false;
+
+        /**
+         * Move the estimate towards the target over an interval, growing the variance.
+         */
+        void predict(double rateDegPerS, double dtS) {
+            double moved = 0;
+            if (moving) {
+                double remaining = target - pos;
+                moved = Math.min(Math.abs(remaining), rateDegPerS * dtS);
+                pos += Math.copySign(moved, remaining);
+            }
+            var += Math.pow(RATE_UNCERTAINTY * moved, 2) + DRIFT_VAR_DEG2_PER_S * dtS;
+        }
+
+        /**
+         * Kalman update with a readback. Readbacks far outside the expected error replace the estimate.
+         */
+        void correct(double measured) {
+            double innovation = measured - pos;
+            if (Math.abs(innovation) > GATE_SIGMA * Math.sqrt(var + MEASUREMENT_VAR_DEG2)) {
+                pos = measured;
+                var = MEASUREMENT_VAR_DEG2;
+                return;
+            }
+            double gain = var / (var + MEASUREMENT_VAR_DEG2);
+            pos += gain * innovation;
+            var *= (1 - gain);
+        }
+    }
+
+    /**
+     * Create an estimator. The position is unknown until the first call to {@link #correct(double, double)}.
+     * @param motionModel Motion model providing the learned slew rates.
+     */
+    public RotatorStateEstimator(RotatorMotionModel motionModel) {
+        this.motionModel = motionModel;
+    }
+
+    /**
+     * Record that a move has been commanded. The estimate moves towards the target from now on.
+     * @param targetAz Commanded azimuth.
+     * @param targetEl Commanded elevation.
+     */
+    public synchronized void startMove(double targetAz, double targetEl) {
+        predict();
+        az.target = targetAz;
+        az.moving = true;
+        el.target = targetEl;
+        el.moving = true;
+    }
+
+    /**
+     * Correct the estimate with a position readback.
+     * @param measuredAz Azimuth read from the rotator.
+     * @param measuredEl Elevation read from the rotator.
+     */
+    public synchronized void correct(double measuredAz, double measuredEl) {
+        predict();
+        az.correct(measuredAz);
+        el.correct(measuredEl);
+    }
+
+    /**
+     * Get the estimated current azimuth.
+     * @return Azimuth in degrees.
+     */
+    public synchronized double getAz() {
+        predict();
+        return az.pos;
+    }
+
+    /**
+     * Get the estimated current elevation.
+     * @return Elevation in degrees.
+     */
+    public synchronized double getEl() {
+        predict();
+        return el.pos;
+    }
+
+    /**
+     * Get the uncertainty of the estimate, the larger of the two axes.
+     * @return Standard deviation in degrees.
+     */
+    public synchronized double getUncertaintyDeg() {
+        predict();
+        return Math.sqrt(Math.max(az.var, el.var));
+    }
+
+    /**
+     * Determine how long to wait before the next readback while a move is in progress: until the estimate says the
+     * rotator has arrived (to confirm arrival), or until the uncertainty would grow beyond MAX_UNCERTAINTY_DEG,
+     * whichever is sooner.
+     * @return Delay in milliseconds.
+     */
+    public synchronized long getPollDelayMillis() {
+        predict();
+        double azRate = Math.max(MIN_RATE_DEG_PER_S, motionModel.getAzRateDegPerS());
+        double elRate = Math.max(MIN_RATE_DEG_PER_S, motionModel.getElRateDegPerS());
+        double arrivalS = Math.max(Math.abs(az.target - az.pos) / azRate, Math.abs(el.target - el.pos) / elRate);
+        double sigmaDeg = Math.sqrt(Math.max(az.var, el.var));
+        double uncertainS = Math.max(0, MAX_UNCERTAINTY_DEG - sigmaDeg) / (RATE_UNCERTAINTY * Math.max(azRate, elRate));
+        long delayMillis = (long) (Math.min(arrivalS, uncertainS) * 1000);
+        return Math.max(MIN_POLL_MILLIS, Math.min(MAX_POLL_MILLIS, delayMillis));
+    }
+
+    /**
+     * Advance both axes to the current time.
+     */
+    private void predict() {
+        long now = System.currentTimeMillis();
+        double dtS = (now - lastMillis) / 1000.0;
+        lastMillis = now;
+        az.predict(motionModel.getAzRateDegPerS(), dtS);
+        el.predict(motionModel.getElRateDegPerS(), dtS);
+    }
+
+}
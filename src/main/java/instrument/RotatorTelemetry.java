@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records where the antenna actually pointed throughout a pass. The sampler does not read the rotator itself: it
+ * collects the readbacks the driver already takes (see {@link Rotator#getLastReadback()}), i.e. the position polls
+ * while waiting for each move to arrive and the reads made when monitoring an uploaded track. Sampling therefore adds
+ * no serial transactions and never competes with the tracking commands for the rotator. Samples are stored in a
+ * preallocated ring buffer of primitive arrays (timestamp, az, el), so sampling does not allocate.
+ *
+ * <P>The sampler thread is the only writer. Readers never lock and never touch the serial port: each sample has a
+ * sequence number, and a reader copies the samples it wants then re-reads the write sequence to discard any sample that
+ * was overwritten while it was being copied. Readers keep their own {@link Cursor}, see
+ * {@link RotatorTelemetry#read(Cursor, long[], double[], double[])}.</P>
+ */
+public class RotatorTelemetry {
+
+    private final Rotator rotator;
+    private final long intervalMillis;
+    private final int capacity;
+    private final int slots; // One spare slot, being written while the oldest kept sample is still readable
+    private final long[] timeMillis;
+    private final double[] az;
+    private final double[] el;
+    private volatile long writeSeq = 0; // Sequence number of the next sample to write
+    private volatile boolean running = false;
+    private Thread thread;
+
+    /**
+     * Create a sampler. Call {@link RotatorTelemetry#start()} to begin sampling.
+     * @param rotator Rotator to sample. Rotators that do not report readbacks produce no samples.
+     * @param rateHz Rate at which new readbacks are collected. Readbacks taken faster than this are thinned to it.
+     * @param capacity Number of samples kept, older samples are overwritten.
+     */
+    public RotatorTelemetry(Rotator rotator, double rateHz, int capacity) {
+        if (rateHz <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Telemetry rate and capacity must be positive");
+        }
+        this.rotator = rotator;
+        this.intervalMillis = Math.round(1000 / rateHz);
+        this.capacity = capacity;
+        this.slots = capacity + 1;
+        this.timeMillis = new long[slots];
+        this.az = new double[slots];
+        this.el = new double[slots];
+    }
+
+    /**
+     * Start the sampler thread.
+     */
+    public void start() {
+        running = true;
+        thread = Thread.ofVirtual().name("RotatorTelemetry").start(this::run);
+    }
+
+    /**
+     * Stop the sampler thread. Samples remain readable.
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    /**
+     * Get the sequence number of the next sample to be written, i.e. the total number of samples written so far.
+     * @return Write sequence number.
+     */
+    public long getSequence() {
+        return writeSeq;
+    }
+
+    /**
+     * Get the number of samples kept.
+     * @return Ring buffer capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Create a reader cursor positioned at the oldest sample still kept.
+     * @return New cursor.
+     */
+    public Cursor newCursor() {
+        return new Cursor(Math.max(0, writeSeq - capacity));
+    }
+
+    /**
+     * Copy the samples a reader has not yet seen into caller-provided arrays and advance its cursor. Samples that were
+     * overwritten before the reader got to them are skipped and counted in {@link Cursor#getMissed()}.
+     * @param cursor Reader cursor.
+     * @param timeOut Timestamps in milliseconds since the epoch.
+     * @param azOut Azimuth in degrees.
+     * @param elOut Elevation in degrees.
+     * @return Number of samples copied to the start of the output arrays. Limited by the size of the output arrays,
+     * call again to read the remaining samples.
+     */
+    public int read(Cursor cursor, long[] timeOut, double[] azOut, double[] elOut) {
+        /*
+         * Step 1: Copy the available samples, up to the size of the output arrays.
+         */
+        long endSeq = writeSeq;
+        long startSeq = Math.max(cursor.seq, endSeq - capacity);
+        int count = (int) Math.min(endSeq - startSeq, timeOut.length);
+        for (int i = 0; i < count; i++) {
+            int idx = (int) ((startSeq + i) % slots);
+            timeOut[i] = timeMillis[idx];
+            azOut[i] = az[idx];
+            elOut[i] = el[idx];
+        }
+
+        /*
+         * Step 2: Discard samples the writer may have overwritten during the copy (including the slot being written).
+         */
+        VarHandle.acquireFence(); // Copies above must not be reordered after the sequence re-read
+        long oldestValid = writeSeq + 1 - slots;
+        int skip = (int) Math.max(0, Math.min(count, oldestValid - startSeq));
+        if (skip > 0) {
+            System.arraycopy(timeOut, skip, timeOut, 0, count - skip);
+            System.arraycopy(azOut, skip, azOut, 0, count - skip);
+            System.arraycopy(elOut, skip, elOut, 0, count - skip);
+        }
+        cursor.missed += (startSeq - cursor.seq) + skip;
+        cursor.seq = startSeq + count;
+        return count - skip;
+    }
+
+    /**
+     * Position of one reader in the sample stream. Each reader keeps its own cursor, so readers are independent.
+     */
+    public static class Cursor {
+        private long seq;
+        private long missed = 0;
+
+        private Cursor(long seq) {
+            this.seq = seq;
+        }
+
+        /**
+         * Get the number of samples overwritten before this reader read them.
+         * @return Missed sample count.
+         */
+        public long getMissed() {
+            return missed;
+        }
+    }
+
+    /**
+     * Sampler loop: record each new readback of the rotator, checking at the configured rate.
+     */
+    private void run() {
+        long lastMillis = Long.MIN_VALUE;
+        while (running) {
+            RotatorReadback readback = rotator.getLastReadback();
+            if (readback != null && readback.getTimeMillis() != lastMillis) {
+                record(readback.getTimeMillis(), readback.getAz(), readback.getEl());
+                lastMillis = readback.getTimeMillis();
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write one sample. Only called from the sampler thread (or tests).
+     */
+    void record(long epochMillis, double azDeg, double elDeg) {
+        int idx = (int) (writeSeq % slots);
+        timeMillis[idx] = epochMillis;
+        az[idx] = azDeg;
+        el[idx] = elDeg;
+        writeSeq = writeSeq + 1; // Volatile write publishes the sample
+    }
+
+}
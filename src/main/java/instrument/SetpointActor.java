@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import utils.Log;
+import utils.ResultUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends setpoints to an instrument on a dedicated virtual thread, so a slow instrument never holds up the caller. The
+ * mailbox holds a single setpoint: a setpoint submitted while the previous one is still waiting to be sent replaces it
+ * (latest setpoint wins), so a slow instrument skips stale setpoints instead of falling further behind. The command in
+ * progress is always allowed to complete.
+ * @param <T> Setpoint type, e.g. a frequency or a track sample index.
+ */
+public class SetpointActor<T> {
+
+    /**
+     * Command that sends one setpoint to the instrument.
+     * @param <T> Setpoint type.
+     */
+    @FunctionalInterface
+    public interface Command<T> {
+        ResultUtils send(T setpoint) throws InterruptedException;
+    }
+
+    private final String name;
+    private final Command<T> command;
+    private final AtomicReference<T> mailbox = new AtomicReference<>();
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean busy = false;
+
+    /**
+     * Create an actor, see {@link SetpointActor#start(String, Command)}.
+     */
+    private SetpointActor(String name, Command<T> command) {
+        this.name = name;
+        this.command = command;
+    }
+
+    /**
+     * Create an actor and start its thread.
+     * @param name Name of the instrument, used for the thread name and logging.
+     * @param command Command sending a setpoint to the instrument. Only ever called from the actor thread.
+     * @param <T> Setpoint type.
+     * @return The running actor.
+     */
+    public static <T> SetpointActor<T> start(String name, Command<T> command) {
+        SetpointActor<T> actor = new SetpointActor<>(name, command);
+        actor.thread = Thread.ofVirtual().name(name + "Actor").start(actor::run);
+        return actor;
+    }
+
+    /**
+     * Queue a new setpoint, replacing any setpoint not yet sent. Returns immediately.
+     * @param setpoint New setpoint, must not be null.
+     */
+    public void submit(T setpoint) {
+        submittedCount.incrementAndGet();
+        if (mailbox.getAndSet(setpoint) != null) {
+            coalescedCount.incrementAndGet();
+        }
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Check if the actor is sending a setpoint or has one waiting to be sent.
+     * @return True if the actor is not idle.
+     */
+    public boolean isBusy() {
+        return busy || mailbox.get() != null;
+    }
+
+    /**
+     * Get the number of setpoints submitted.
+     * @return Submitted setpoint count.
+     */
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * Get the number of setpoints replaced by a newer setpoint before they were sent.
+     * @return Coalesced setpoint count.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Get the number of setpoints the instrument failed to apply.
+     * @return Failed setpoint count.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Log the setpoint counts. Coalesced setpoints mean the instrument was slower than the setpoint rate.
+     */
+    public void logSummary() {
+        String summary = name + " setpoints: " + submittedCount.get() + " submitted, " + coalescedCount.get()
+                + " coalesced, " + failedCount.get() + " failed.";
+        if (coalescedCount.get() > 0) {
+            Log.warn(summary + " " + name + " was slower than the setpoint rate.");
+        } else {
+            Log.info(summary);
+        }
+    }
+
+    /**
+     * Send any setpoint still waiting, then stop the actor thread.
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    /**
+     * Actor loop: wait for a setpoint, then send the latest one.
+     */
+    private void run() {
+        while (running || mailbox.get() != null) {
+            busy = true;
+            T setpoint = mailbox.getAndSet(null);
+            if (setpoint == null) {
+                busy = false;
+                if (mailbox.get() == null && running) {
+                    LockSupport.park(this);
+                }
+                continue;
+            }
+            try {
+                if (!command.send(setpoint).isSuccessful()) {
+                    failedCount.incrementAndGet();
+                    Log.warn(name + " failed to apply setpoint " + setpoint);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failedCount.incrementAndGet();
+                Log.error(name + " setpoint " + setpoint + " failed: " + e.getMessage());
+            }
+        }
+        busy = false;
+    }
+
+}
@@ -56,4 +56,37 @@ public interface Transceiver extends Instrument {
      */
     ResultUtils setModulation(Modulation mod) throws InterruptedException;
 
+    /**
+     * Check if the transceiver supports satellite mode, receiving the downlink and transmitting the uplink at the same
+     * time on separate VFOs (full duplex).
+     * @return True if {@link Transceiver#setSatelliteMode(boolean)} and
+     * {@link Transceiver#setSatelliteFrequencies(long, long)} are supported.
+     */
+    default boolean supportsSatelliteMode() {
+        return false;
+    }
+
+    /**
+     * Enable or disable satellite mode.
+     * @param enable True to enable satellite mode.
+     * @return The success/failure status of the operation.
+     * @throws InterruptedException
+     */
+    default ResultUtils setSatelliteMode(boolean enable) throws InterruptedException {
+        return ResultUtils.createFailedResult();
+    }
+
+    /**
+     * Set the downlink (receive) and uplink (transmit) frequencies together in satellite mode. Called throughout the
+     * pass to follow the Doppler shift (see DopplerEngine), so call it once before AOS as well, so that any band
+     * changes (which only happen on the first call) are made before the pass begins.
+     * @param dlFreqHz Downlink frequency in hertz.
+     * @param ulFreqHz Uplink frequency in hertz.
+     * @return The success/failure status of the operation.
+     * @throws InterruptedException
+     */
+    default ResultUtils setSatelliteFrequencies(long dlFreqHz, long ulFreqHz) throws InterruptedException {
+        return ResultUtils.createFailedResult();
+    }
+
 }
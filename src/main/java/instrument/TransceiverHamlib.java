@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import utils.ConfigurationUtils;
+import utils.FrequencyUtils;
+import utils.Log;
+import utils.ResultUtils;
+import utils.enums.Modulation;
+
+import java.util.List;
+
+/**
+ * Class for communication with any transceiver supported by Hamlib, through the rigctld network daemon (see
+ * {@link HamlibClient}). rigctld may run on another host, e.g. a small computer next to the radio.
+ *
+ * <P>Satellite mode uses split operation: the downlink is received on VFO A (set_freq) and the uplink transmitted on
+ * VFO B (set_split_freq). Both are set in one pipelined exchange.</P>
+ */
+public class TransceiverHamlib implements Transceiver {
+
+    private final HamlibClient client;
+    private final String address;
+    private volatile long freqHz;
+    private volatile long ulFreqHz;
+    private volatile Modulation modSetting;
+
+    /**
+     * Instate this class via the {@link InstrumentFactory} only.
+     */
+    protected TransceiverHamlib() {
+        this(ConfigurationUtils.getStrProperty("TRANSCEIVER_HAMLIB_ADDRESS"));
+    }
+
+    /**
+     * Create a transceiver connected to rigctld at an address.
+     * @param address Address of rigctld in the form host:port.
+     */
+    TransceiverHamlib(String address) {
+        this.address = address;
+        this.client = new HamlibClient("TransceiverHamlib", address);
+    }
+
+    public ResultUtils readInstrument() throws InterruptedException {
+        /*
+         * Step 1: Read frequency and mode in a single exchange.
+         */
+        List<HamlibClient.Response> rst = client.transact("\\get_freq", "\\get_mode");
+        if (rst == null || !rst.get(0).isOk() || !rst.get(1).isOk()) {
+            return ResultUtils.createFailedResult();
+        }
+
+        /*
+         * Step 2: Parse the frequency (Frequency: 435310000) and mode (Mode: FM). Modes other than FM and AM leave
+         * the modulation setting unchanged.
+         */
+        try {
+            this.freqHz = Math.round(Double.parseDouble(rst.get(0).get("Frequency")));
+        } catch (NullPointerException | NumberFormatException e) {
+            Log.error("TransceiverHamlib could not parse frequency " + rst.get(0).get("Frequency"));
+            return ResultUtils.createFailedResult();
+        }
+        String mode = rst.get(1).get("Mode");
+        if ("FM".equalsIgnoreCase(mode)) {
+            this.modSetting = Modulation.FM;
+        } else if ("AM".equalsIgnoreCase(mode)) {
+            this.modSetting = Modulation.AM;
+        } else {
+            Log.debug("TransceiverHamlib mode " + mode + " not supported, modulation unchanged");
+        }
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    public ResultUtils testConnect() throws InterruptedException {
+        if (client.connect() && readInstrument().isSuccessful()) {
+            return ResultUtils.createSuccessfulResult();
+        }
+        else {
+            Log.error("TransceiverHamlib connection test failed! Could not connect to rigctld at " + this.address);
+            return ResultUtils.createFailedResult();
+        }
+    }
+
+    public long getFrequencyHz() {
+        return this.freqHz;
+    }
+
+    /**
+     * Get the uplink frequency last set in satellite mode.
+     * @return Uplink frequency in hertz.
+     */
+    public long getUplinkFrequencyHz() {
+        return this.ulFreqHz;
+    }
+
+    public Modulation getModulation() {
+        return this.modSetting;
+    }
+
+    public ResultUtils setFrequency(long freqHz) throws InterruptedException {
+        if (!(FrequencyUtils.isUHF(freqHz) || FrequencyUtils.isVHF(freqHz))) {
+            Log.error("Frequency " + freqHz + " is not in valid UHF or VHF amateur bands!");
+            return ResultUtils.createFailedResult();
+        }
+        Log.debug("Setting frequency to " + freqHz * FrequencyUtils.HzToMHz + "MHz");
+        if (!isOk(client.transact("\\set_freq " + freqHz))) {
+            return ResultUtils.createFailedResult();
+        }
+        this.freqHz = freqHz;
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    public ResultUtils setModulation(Modulation mod) throws InterruptedException {
+        // Passband of 0 selects the default passband for the mode
+        if (!isOk(client.transact("\\set_mode " + mod.name() + " 0"))) {
+            return ResultUtils.createFailedResult();
+        }
+        this.modSetting = mod;
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    public boolean supportsSatelliteMode() {
+        return true;
+    }
+
+    public ResultUtils setSatelliteMode(boolean enable) throws InterruptedException {
+        if (!isOk(client.transact(enable ? "\\set_split_vfo 1 VFOB" : "\\set_split_vfo 0 VFOA"))) {
+            return ResultUtils.createFailedResult();
+        }
+        Log.info("Split operation " + (enable ? "enabled" : "disabled") + " on TransceiverHamlib");
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    public ResultUtils setSatelliteFrequencies(long dlFreqHz, long ulFreqHz) throws InterruptedException {
+        if (!(FrequencyUtils.isUHF(dlFreqHz) || FrequencyUtils.isVHF(dlFreqHz))
+                || !(FrequencyUtils.isUHF(ulFreqHz) || FrequencyUtils.isVHF(ulFreqHz))) {
+            Log.error("Downlink " + dlFreqHz + " and uplink " + ulFreqHz + " must be in valid amateur bands!");
+            return ResultUtils.createFailedResult();
+        }
+        if (!isOk(client.transact("\\set_freq " + dlFreqHz, "\\set_split_freq " + ulFreqHz))) {
+            return ResultUtils.createFailedResult();
+        }
+        this.freqHz = dlFreqHz;
+        this.ulFreqHz = ulFreqHz;
+        Log.debug("Satellite mode DL " + dlFreqHz + "Hz, UL " + ulFreqHz + "Hz");
+        return ResultUtils.createSuccessfulResult();
+    }
+
+    /**
+     * Close the connection to rigctld.
+     */
+    public void close() {
+        client.close();
+    }
+
+    /**
+     * Check that an exchange completed and every command succeeded, logging the first failure.
+     * @param rst Responses from {@link HamlibClient#transact(String...)}.
+     * @return True if all commands succeeded.
+     */
+    private static boolean isOk(List<HamlibClient.Response> rst) {
+        if (rst == null) {
+            return false;
+        }
+        for (HamlibClient.Response r : rst) {
+            if (!r.isOk()) {
+                Log.warn("TransceiverHamlib command failed with Hamlib error " + r.getCode());
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
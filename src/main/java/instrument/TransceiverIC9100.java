@@ -24,25 +24,68 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Class for communication with the ICOM IC-9100 transceiver.
+ *
+ * <P>Each command is a CI-V transaction: the command is written to the port (kept open between transactions), then
+ * received bytes are fed to the {@link CivCodec} parser until the reply addressed to this controller is complete.
+ * Write commands are confirmed by the OK (FB) or NG (FA) acknowledgement, read commands by the reply carrying the same
+ * command number. Other frames (including the echo of our own command) are ignored. When CI-V transceive is enabled on
+ * the radio, frequency and mode broadcasts (e.g. from turning the tuning knob) keep the cached values current.</P>
+ *
+ * <P>In satellite mode the main band transmits the uplink and the sub band receives the downlink. Each band is
+ * selected (0x07 D0/D1) before its frequency is set; updates begin with whichever band is already selected, so a
+ * Doppler update of both bands takes three commands and never swaps the bands.</P>
  */
 public class TransceiverIC9100 implements Transceiver {
 
+    private static final byte CONTROLLER_ADDR = (byte) 0xE0; // Default CI-V controller address
+    private static final long RESPONSE_TIMEOUT_MILLIS = 100; // Plus transmission time of the command and reply
+    private static final byte MAIN_BAND = (byte) 0xD0; // Sub commands of 0x07 selecting the main and sub band
+    private static final byte SUB_BAND = (byte) 0xD1;
+    private static final byte UNKNOWN_BAND = 0x00;
+
     private final SerialUtils serialUtils;
     private final String comPort;
     private final int baudRate;
     private final byte transAddr;
-    private long freqHz;
-    private Modulation modSetting;
+    private final CivCodec codec;
+    private final byte[] rxBuffer = new byte[256];
+    private int rxLength = 0; // Bytes in rxBuffer not yet fed to the codec
+    private int rxPos = 0;
+    private volatile long freqHz;
+    private volatile long ulFreqHz;
+    private volatile Modulation modSetting;
+    private byte selectedBand = UNKNOWN_BAND;
+    private boolean bandsPlaced = false; // Main band in the uplink band and sub band in the downlink band
+    // Time taken by each CI-V command type and by a satellite mode Doppler update (see LatencyRegistry)
+    private final LatencyHistogram readFreqLatency = LatencyRegistry.get("TransceiverIC9100 read freq");
+    private final LatencyHistogram readModeLatency = LatencyRegistry.get("TransceiverIC9100 read mode");
+    private final LatencyHistogram setFreqLatency = LatencyRegistry.get("TransceiverIC9100 set freq");
+    private final LatencyHistogram setModeLatency = LatencyRegistry.get("TransceiverIC9100 set mode");
+    private final LatencyHistogram swapBandsLatency = LatencyRegistry.get("TransceiverIC9100 swap bands");
+    private final LatencyHistogram selectBandLatency = LatencyRegistry.get("TransceiverIC9100 select band");
+    private final LatencyHistogram setSatModeLatency = LatencyRegistry.get("TransceiverIC9100 set satellite mode");
+    private final LatencyHistogram setSatFreqsLatency = LatencyRegistry.get("TransceiverIC9100 set satellite freqs");
+    private final LatencyHistogram otherLatency = LatencyRegistry.get("TransceiverIC9100 other");
 
 
     /**
      * Instate this class via the {@link InstrumentFactory} only.
      */
     protected TransceiverIC9100() {
-        this.comPort = ConfigurationUtils.getStrProperty("TRANSCEIVER_COM_PORT");
-        this.baudRate = ConfigurationUtils.getIntProperty("TRANSCEIVER_BAUD");
+        this(ConfigurationUtils.getStrProperty("TRANSCEIVER_COM_PORT"), ConfigurationUtils.getIntProperty("TRANSCEIVER_BAUD"));
+    }
+
+    /**
+     * Create an instance on a specific port, e.g. a simulated transceiver.
+     * @param comPort COM port, tcp://host:port or mem://name (see {@link SerialUtils}).
+     * @param baudRate Baud rate.
+     */
+    TransceiverIC9100(String comPort, int baudRate) {
+        this.comPort = comPort;
+        this.baudRate = baudRate;
         this.transAddr = ConfigurationUtils.getByteProperty("TRANSCEIVER_ADDRESS");
         this.serialUtils = new SerialUtils(comPort, baudRate, 8, 1, 0);
+        this.codec = new CivCodec(this.transAddr, CONTROLLER_ADDR);
     }
 
     /**
@@ -54,10 +97,11 @@ public class TransceiverIC9100 implements Transceiver {
      */
     private ResultUtils swapMainSub() throws InterruptedException {
         long preSwapVFOFreq = this.freqHz;
-        Command swapMainSub = new CommandBuilder().address(this.transAddr).command((byte) 0x07).subCommand((byte) 0xB0)
-                .buildCommand(); // 0x07 with sub command 0xB0 swaps main/sub
-        this.serialUtils.open();
-        this.serialUtils.write(swapMainSub.getCmdByteArr());
+        // 0x07 with sub command 0xB0 swaps main/sub
+        if (!isAcknowledged(transact(codec.encode((byte) 0x07, 0xB0)))) {
+            return ResultUtils.createFailedResult();
+        }
+        this.selectedBand = UNKNOWN_BAND;
         readInstrument();
         if (preSwapVFOFreq == this.freqHz) {
             return ResultUtils.createFailedResult();
@@ -65,69 +109,35 @@ public class TransceiverIC9100 implements Transceiver {
         return ResultUtils.createSuccessfulResult();
     }
 
-    public ResultUtils readInstrument() throws InterruptedException {
-        /*
-         * Step 1: Send read frequency command
-         */
-        this.serialUtils.open();
-        Command readFreqCmd = new CommandBuilder().address(this.transAddr).command((byte) 0x03)
-                .buildCommand(); // 0x03 reads frequency
-        this.serialUtils.write(readFreqCmd.getCmdByteArr());
-        TimeUnit.MILLISECONDS.sleep(200); // Delay to allow instrument to respond to command
-
+    public synchronized ResultUtils readInstrument() throws InterruptedException {
         /*
-         * Step 2: Read response from instrument.
+         * Step 1: Send read frequency command (0x03), wait for the reply and parse the frequency.
+         * Frequency is contained in the 5 bytes following the command number, each digit using half a byte with the
+         * least significant digits first. See IC-9100 manual page 190.
          */
-        byte[] rst;
-        try {
-            rst = this.serialUtils.read();
-        } catch (NegativeArraySizeException e) {
+        if (!transact(codec.encode((byte) 0x03, CivCodec.NO_SUB_COMMAND)) || codec.getCommand() != 0x03) {
             return ResultUtils.createFailedResult();
         }
-
-        /*
-         * Step 3: Parse frequency from response.
-         * Frequency is contained in bytes 11 through 15 of response, each digit using half a byte with the least
-         * significant digits first. See IC-9100 manual page 190.
-         */
-        byte[] freq = new byte[5];
-        this.freqHz = 0;
-        for (int i = 0; i < freq.length; i++) { // Flip order and store frequency (most significant digit first now)
-            freq[freq.length-1-i] = rst[i+11];
-        }
-        for (int i = 0; i < freq.length; i++) {
-            // Split top and bottom four bits (each digit stored in half a byte).
-            int hiBits = (freq[i] & 0xF0) >> 4;
-            int loBits = freq[i] & 0x0F;
-            // hiBits and loBits now contain correct digits, now use position to determine multiple.
-            this.freqHz += hiBits * (1000000000 / Math.pow(10, i*2));
-            this.freqHz += loBits * (100000000 / Math.pow(10, i*2));
+        long freq = codec.decodeFrequency(0);
+        if (freq < 0) {
+            return ResultUtils.createFailedResult();
         }
+        this.freqHz = freq;
 
         /*
-         * Step 4: Send read mode command
+         * Step 2: Send read mode command (0x04), wait for the reply and parse modulation type from the byte following
+         * the command number (see IC-9100 manual pg 190)
          */
-        Command readModeCmd = new CommandBuilder().address(this.transAddr).command((byte) 0x04)
-                .buildCommand(); // 0x04 reads operating mode
-        this.serialUtils.write(readModeCmd.getCmdByteArr());
-        TimeUnit.MILLISECONDS.sleep(200); // Delay to allow instrument to respond to command
-
-        /*
-         * Step 5: Read response from instrument and parse modulation type from 11th byte (see IC-9100 manual pg 190)
-         */
-        rst = this.serialUtils.read();
-        if (rst[11] == 0x05) { // 0x05 indicates FM
-            this.modSetting = Modulation.FM;
-        } else if (rst[11] == 0x02) { // 0x02 indicates AM
-            this.modSetting = Modulation.AM;
+        if (!transact(codec.encode((byte) 0x04, CivCodec.NO_SUB_COMMAND)) || codec.getCommand() != 0x04
+                || codec.getPayloadLength() < 1) {
+            return ResultUtils.createFailedResult();
         }
-
-        this.serialUtils.close();
+        parseModulation(codec.getPayload(0));
         return ResultUtils.createSuccessfulResult();
     }
 
-    public ResultUtils testConnect() throws InterruptedException {
-        if (serialUtils.open() && readInstrument().isSuccessful() && serialUtils.close()) {
+    public synchronized ResultUtils testConnect() throws InterruptedException {
+        if (openPort() && readInstrument().isSuccessful()) {
             return ResultUtils.createSuccessfulResult();
         }
         else {
@@ -137,15 +147,38 @@ public class TransceiverIC9100 implements Transceiver {
         }
     }
 
-    public long getFrequencyHz() {
+    /**
+     * Close the serial port, e.g. after a failed connection test. Bytes received but not yet handled are discarded.
+     * The port is opened again by the next command.
+     */
+    public synchronized void close() {
+        if (this.serialUtils.isOpen()) {
+            this.serialUtils.close();
+        }
+        this.rxLength = 0;
+        this.rxPos = 0;
+        this.selectedBand = UNKNOWN_BAND;
+    }
+
+    /**
+     * Get the current frequency, including any change broadcast by the transceiver since it was last read.
+     * @return current frequency.
+     */
+    public synchronized long getFrequencyHz() {
+        processBroadcasts();
         return this.freqHz;
     }
 
-    public Modulation getModulation() {
+    /**
+     * Get the current modulation setting, including any change broadcast by the transceiver since it was last read.
+     * @return current modulation setting.
+     */
+    public synchronized Modulation getModulation() {
+        processBroadcasts();
         return this.modSetting;
     }
 
-    public ResultUtils setFrequency(long freqHz) throws InterruptedException {
+    public synchronized ResultUtils setFrequency(long freqHz) throws InterruptedException {
         /*
          * Step 1: Verify frequency is within allowable range.
          */
@@ -165,184 +198,281 @@ public class TransceiverIC9100 implements Transceiver {
         }
 
         /*
-         * Step 3: Prepare frequency bytes for data portion of command (see IC-9100 page 190)
+         * Step 3: Send set frequency command (0x05), the OK acknowledgement confirms the set was successful.
          */
-        byte[] rst = new byte[5];
-        int[] digits = new int[10];
-        long modFreqHz = freqHz;
-        for (int i = 0; i < digits.length; i++) {
-            digits[i] = (int) modFreqHz % 10; // Get least significant digit
-            modFreqHz = modFreqHz / 10; // Remove least significant digit
-            if (i % 2 != 0) { // Every second digit, prepare a byte (2 digits per byte)
-                rst[i/2] = (byte) ((digits[i] << 4) | digits[i-1]); // Combine two digits into one byte
-            }
+        Log.info("Setting frequency to " + freqHz* FrequencyUtils.HzToMHz + "MHz");
+        if (!isAcknowledged(transact(codec.encodeFrequency((byte) 0x05, CivCodec.NO_SUB_COMMAND, freqHz)))) {
+            return ResultUtils.createFailedResult();
         }
+        this.freqHz = freqHz;
+        return ResultUtils.createSuccessfulResult();
+    }
 
+    public synchronized ResultUtils setModulation(Modulation mod) throws InterruptedException {
         /*
-         * Step 4: Send command
+         * Step 1: Prepare modulation byte for data portion of command (see IC-9100 page 190)
          */
-        Log.info("Setting frequency to " + freqHz* FrequencyUtils.HzToMHz + "MHz");
-        Command writeFreqCmd = new CommandBuilder().address(this.transAddr).command((byte) 0x00).data(rst)
-                .buildCommand(); // 0x00 to set frequency
-
-        this.serialUtils.open();
-        this.serialUtils.write(writeFreqCmd.getCmdByteArr());
-        TimeUnit.MILLISECONDS.sleep(200); // Delay to allow instrument to respond to command
-        this.serialUtils.close();
+        byte writeData = 0x00;
+        if (mod == Modulation.FM) {
+            writeData = 0x05;
+        } else if (mod == Modulation.AM) {
+            writeData = 0x02;
+        }
 
         /*
-         * Step 5: Read from instrument and confirm set was successful.
+         * Step 2: Send set mode command (0x06), the OK acknowledgement confirms the set was successful.
          */
-        readInstrument();
-        if (this.freqHz != freqHz) {
+        if (!isAcknowledged(transact(codec.encode((byte) 0x06, CivCodec.NO_SUB_COMMAND, writeData)))) {
             return ResultUtils.createFailedResult();
         }
+        this.modSetting = mod;
         return ResultUtils.createSuccessfulResult();
     }
 
-    public ResultUtils setModulation(Modulation mod) throws InterruptedException {
+    public boolean supportsSatelliteMode() {
+        return true;
+    }
+
+    public synchronized ResultUtils setSatelliteMode(boolean enable) throws InterruptedException {
+        // 0x16 with sub command 0x5A sets satellite mode (data 0x01 on, 0x00 off)
+        if (!isAcknowledged(transact(codec.encode((byte) 0x16, 0x5A, (byte) (enable ? 0x01 : 0x00))))) {
+            return ResultUtils.createFailedResult();
+        }
+        Log.info("Satellite mode " + (enable ? "enabled" : "disabled") + " on IC9100");
+        this.selectedBand = UNKNOWN_BAND;
+        this.bandsPlaced = false;
+
+        // Return to the main band (satellite mode leaves the sub band selected) and read its frequency and mode
+        if (!selectBand(MAIN_BAND)) {
+            return ResultUtils.createFailedResult();
+        }
+        return readInstrument();
+    }
+
+    public synchronized ResultUtils setSatelliteFrequencies(long dlFreqHz, long ulFreqHz) throws InterruptedException {
         /*
-         * Step 1: Prepare modulation bytes for data portion of command (see IC-9100 page 190), create command
+         * Step 1: Verify frequencies are in valid bands, and in different bands (main and sub cannot share a band).
          */
-        byte[] writeData = new byte[1];
-        if (mod == Modulation.FM) {
-            writeData[0] = 0x05;
-        } else if (mod == Modulation.AM) {
-            writeData[0] = 0x02;
+        if (!(FrequencyUtils.isUHF(dlFreqHz) || FrequencyUtils.isVHF(dlFreqHz))
+                || !(FrequencyUtils.isUHF(ulFreqHz) || FrequencyUtils.isVHF(ulFreqHz))
+                || FrequencyUtils.isUHF(dlFreqHz) == FrequencyUtils.isUHF(ulFreqHz)) {
+            Log.error("Downlink " + dlFreqHz + " and uplink " + ulFreqHz + " must be in different amateur bands!");
+            return ResultUtils.createFailedResult();
         }
-        Command writeModeCmd = new CommandBuilder().address(this.transAddr).command((byte) 0x01).data(writeData).buildCommand();
 
         /*
-         * Step 2: Send command
+         * Step 2: On the first update, make sure the main band is in the uplink band, swapping main and sub if not.
+         * This is the only time bands are swapped.
          */
-        this.serialUtils.open();
-        this.serialUtils.write(writeModeCmd.getCmdByteArr());
-        TimeUnit.MILLISECONDS.sleep(200);
-        this.serialUtils.close();
+        if (!this.bandsPlaced) {
+            if (!selectBand(MAIN_BAND) || !readInstrument().isSuccessful()) {
+                return ResultUtils.createFailedResult();
+            }
+            if (FrequencyUtils.isUHF(this.freqHz) != FrequencyUtils.isUHF(ulFreqHz)) {
+                if (!swapMainSub().isSuccessful()) {
+                    return ResultUtils.createFailedResult();
+                }
+                Log.debug("Main/sub band swapped on IC9100 for satellite mode");
+            }
+            this.bandsPlaced = true;
+        }
 
         /*
-         * Step 3: Read from instrument and confirm set was successful.
+         * Step 3: Set both bands, starting with the band already selected to save a select command.
          */
-        readInstrument();
-        if (this.modSetting != mod) {
+        long start = System.nanoTime();
+        boolean rst;
+        if (this.selectedBand == SUB_BAND) {
+            rst = setBandFrequency(SUB_BAND, dlFreqHz) && setBandFrequency(MAIN_BAND, ulFreqHz);
+        } else {
+            rst = setBandFrequency(MAIN_BAND, ulFreqHz) && setBandFrequency(SUB_BAND, dlFreqHz);
+        }
+        setSatFreqsLatency.recordSince(start);
+        if (!rst) {
             return ResultUtils.createFailedResult();
         }
+        this.freqHz = dlFreqHz;
+        this.ulFreqHz = ulFreqHz;
+        Log.debug("Satellite mode DL " + dlFreqHz + "Hz, UL " + ulFreqHz + "Hz");
         return ResultUtils.createSuccessfulResult();
     }
 
     /**
-     * Builder for creation of {@link Command} class. This structure allows for an instance of {@link Command} to be created
-     * with a variable number of parameters. For example, address and command fields are always required in a valid CI-V command,
-     * but subcommand and data fields may not be depending on the command being created.
+     * Get the uplink frequency last set in satellite mode.
+     * @return Uplink frequency in hertz.
      */
-    private class CommandBuilder {
-        private byte _addr;
-        private byte _cn;
-        private byte _sc = (byte) 0xff; //0xff used to indicate no subcommand
-        private byte[] _data = {}; //length 0 array to indicate no data
-
-        public CommandBuilder() {}
+    public long getUplinkFrequencyHz() {
+        return this.ulFreqHz;
+    }
 
-        public Command buildCommand() {
-            return new Command(_addr, _cn, _sc, _data);
+    /**
+     * Select the main or sub band, unless it is already selected.
+     * @param band MAIN_BAND or SUB_BAND.
+     * @return True if the band is selected.
+     * @throws InterruptedException
+     */
+    private boolean selectBand(byte band) throws InterruptedException {
+        if (this.selectedBand == band) {
+            return true;
         }
-
-        public CommandBuilder address(byte _addr) {
-            this._addr = _addr;
-            return this;
+        if (!isAcknowledged(transact(codec.encode((byte) 0x07, band & 0xFF)))) {
+            this.selectedBand = UNKNOWN_BAND;
+            return false;
         }
+        this.selectedBand = band;
+        return true;
+    }
 
-        public CommandBuilder command(byte _cn) {
-            this._cn = _cn;
-            return this;
+    /**
+     * Select a band and set its frequency (0x05).
+     * @param band MAIN_BAND or SUB_BAND.
+     * @param freqHz Frequency in hertz.
+     * @return True if acknowledged.
+     * @throws InterruptedException
+     */
+    private boolean setBandFrequency(byte band, long freqHz) throws InterruptedException {
+        return selectBand(band)
+                && isAcknowledged(transact(codec.encodeFrequency((byte) 0x05, CivCodec.NO_SUB_COMMAND, freqHz)));
+    }
+
+    /**
+     * Open the serial port if it is not already open. The port is kept open between transactions.
+     * @return True if the port is open.
+     */
+    private boolean openPort() {
+        return this.serialUtils.isOpen() || this.serialUtils.open();
+    }
+
+    /**
+     * Send the command in the codec transmit buffer and wait for the reply addressed to this controller. Broadcasts
+     * received while waiting update the cached frequency and mode.
+     * @param cmdLength Length of the encoded command.
+     * @return True if the reply was received, it can then be read from the codec.
+     * @throws InterruptedException
+     */
+    private boolean transact(int cmdLength) throws InterruptedException {
+        /*
+         * Step 1: Handle any frames already received, then send the command.
+         */
+        if (!openPort()) {
+            Log.error("TransceiverIC9100 could not open port " + this.comPort);
+            return false;
+        }
+        byte cmd = codec.getTxBuffer()[4];
+        LatencyHistogram latency = latencyOf(cmd, codec.getTxBuffer()[5]);
+        processBroadcasts();
+        long start = System.nanoTime();
+        if (!this.serialUtils.write(codec.getTxBuffer(), cmdLength)) {
+            return false;
         }
 
-        public CommandBuilder subCommand(byte _sc) {
-            this._sc = _sc;
-            return this;
+        /*
+         * Step 2: Parse frames until the reply from the transceiver to this controller arrives. Allow for the time to
+         * transmit the command and a reply of similar length (~10 bits per byte).
+         */
+        long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT_MILLIS + cmdLength * 2 * 10000L / this.baudRate;
+        while (System.currentTimeMillis() < deadline) {
+            if (!nextFrame()) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } else if (codec.isReply()) {
+                latency.recordSince(start);
+                return true;
+            } else {
+                handleBroadcast();
+            }
         }
+        latency.recordSince(start);
+        Log.warn(String.format("TransceiverIC9100 did not reply to CI-V command 0x%02X", cmd));
+        return false;
+    }
 
-        public CommandBuilder data(byte[] _data) {
-            this._data = _data;
-            return this;
+    /**
+     * Get the latency histogram of a CI-V command.
+     * @param cmd Command number.
+     * @param subCmd Byte following the command number (sub command, data or end of frame).
+     * @return The histogram.
+     */
+    private LatencyHistogram latencyOf(byte cmd, byte subCmd) {
+        return switch (cmd) {
+            case 0x03 -> readFreqLatency;
+            case 0x04 -> readModeLatency;
+            case 0x05 -> setFreqLatency;
+            case 0x06 -> setModeLatency;
+            case 0x07 -> subCmd == (byte) 0xB0 ? swapBandsLatency : selectBandLatency;
+            case 0x16 -> setSatModeLatency;
+            default -> otherLatency;
+        };
+    }
+
+    /**
+     * Check if the reply of a transaction is the OK acknowledgement.
+     * @param replied True if the transaction received a reply.
+     * @return True if the transceiver acknowledged the command.
+     */
+    private boolean isAcknowledged(boolean replied) {
+        if (replied && codec.getCommand() == CivCodec.ACK_NG) {
+            Log.warn("TransceiverIC9100 rejected command (NG)");
         }
+        return replied && codec.getCommand() == CivCodec.ACK_OK;
+    }
 
+    /**
+     * Handle all complete frames received so far without waiting for more.
+     */
+    private void processBroadcasts() {
+        if (!this.serialUtils.isOpen()) {
+            return;
+        }
+        while (nextFrame()) {
+            handleBroadcast();
+        }
     }
 
     /**
-     * Class to store the bytes of a CI-V command.
-     * See ICOM IC-9100 manual page 183 for details of command structure.
+     * Update the cached frequency or mode if the last frame is a transceive broadcast. Other frames (e.g. the echo of
+     * a command sent by this controller, or late replies) are ignored.
      */
-    private class Command {
-        private byte addr;
-        private byte cn;
-        private byte sc;
-        private byte[] data;
-        private byte[] cmd;
-
-        /**
-         * Constructor called by {@link CommandBuilder}. See IC-9100 manual page 183 for specifics of command,
-         * subcommand, and data fields.
-         * @param addr the CI-V address of the IC-9100.
-         * @param cn the command id number.
-         * @param sc the subcommand id number.
-         * @param data the data field.
-         */
-        private Command(byte addr, byte cn, byte sc, byte[] data) {
-            this.addr = addr;
-            this.cn = cn;
-            this.sc = sc;
-            this.data = data;
+    private void handleBroadcast() {
+        if (!codec.isBroadcast()) {
+            return;
         }
+        if (codec.getCommand() == 0x00 && codec.decodeFrequency(0) >= 0) { // Frequency changed
+            this.freqHz = codec.decodeFrequency(0);
+            Log.debug("TransceiverIC9100 frequency changed to " + this.freqHz + "Hz");
+        } else if (codec.getCommand() == 0x01 && codec.getPayloadLength() >= 1) { // Mode changed
+            parseModulation(codec.getPayload(0));
+            Log.debug("TransceiverIC9100 mode changed to " + this.modSetting);
+        }
+    }
 
-        /**
-         * Return a byte array of the command to be sent to the IC-9100. Command length varies based on number of
-         * parameters set using {@link CommandBuilder}
-         * @return full command byte array.
-         */
-        public byte[] getCmdByteArr() {
-            if (sc == (byte) 0xff && data.length == 0) { // No subcommand, no data
-                cmd = new byte[6];
-                cmd[0] = (byte) 0xfe;
-                cmd[1] = (byte) 0xfe;
-                cmd[2] = addr;
-                cmd[3] = 0x00;
-                cmd[4] = cn;
-                cmd[5] = (byte) 0xfd;
-            } else if (sc == (byte) 0xff && data.length != 0) { // No subcommand, data
-                cmd = new byte[6 + data.length];
-                cmd[0] = (byte) 0xfe;
-                cmd[1] = (byte) 0xfe;
-                cmd[2] = addr;
-                cmd[3] = 0x00;
-                cmd[4] = cn;
-                for (int i = 0; i < data.length; i++) {
-                    cmd[5+i] = data[i];
-                }
-                cmd[cmd.length-1] = (byte) 0xfd;
-            } else if (sc != (byte) 0xff && data.length == 0) { // Subcommand, no data
-                cmd = new byte[7];
-                cmd[0] = (byte) 0xfe;
-                cmd[1] = (byte) 0xfe;
-                cmd[2] = addr;
-                cmd[3] = 0x00;
-                cmd[4] = cn;
-                cmd[5] = sc;
-                cmd[6] = (byte) 0xfd;
-            } else if (sc != (byte) 0xff && data.length != 0) { // Subcommand and data
-                cmd = new byte[7 + data.length];
-                cmd[0] = (byte) 0xfe;
-                cmd[1] = (byte) 0xfe;
-                cmd[2] = addr;
-                cmd[3] = 0x00;
-                cmd[4] = cn;
-                cmd[5] = sc;
-                for (int i = 0; i < data.length; i++) {
-                    cmd[6+i] = data[i];
+    /**
+     * Feed received bytes to the codec until a frame is complete, reading more from the port when needed.
+     * @return True if a frame is complete and can be read from the codec, false if no complete frame has arrived.
+     */
+    private boolean nextFrame() {
+        while (true) {
+            while (rxPos < rxLength) {
+                if (codec.accept(rxBuffer[rxPos++])) {
+                    return true;
                 }
-                cmd[cmd.length-1] = (byte) 0xfd;
             }
-            return cmd;
+            rxPos = 0;
+            rxLength = Math.max(0, this.serialUtils.read(rxBuffer));
+            if (rxLength == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Parse the operating mode byte of a mode reply or broadcast.
+     * @param mode Mode byte (see IC-9100 manual pg 190).
+     */
+    private void parseModulation(byte mode) {
+        if (mode == 0x05) { // 0x05 indicates FM
+            this.modSetting = Modulation.FM;
+        } else if (mode == 0x02) { // 0x02 indicates AM
+            this.modSetting = Modulation.AM;
         }
     }
 }
@@ -33,6 +33,10 @@ import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class for interfacing with Predict via the {@link com.github.amsacode.predict4java} package.
@@ -60,13 +64,17 @@ public class SatTrackPredict4Java implements SatTrack {
         List<Double> azProfile = new ArrayList<>();
         List<Double> elProfile = new ArrayList<>();
         List<Long> freqProfile = new ArrayList<>();
+        List<Long> ulFreqProfile = new ArrayList<>();
 
-        // Step 2: Iterate through SatPos list and add azimuth, elevation, frequency to new Lists
+        // Step 2: Iterate through SatPos list and add azimuth, elevation, frequencies to new Lists
         for (SatPos p : positions) {
             azProfile.add(p.getAzimuth() / (Math.PI * 2.0) * 360); // Convert to degrees
             elProfile.add(p.getElevation() / (Math.PI * 2.0) * 360); // Convert to degrees
             try {
                 freqProfile.add(passPredictor.getDownlinkFreq(satelliteData.getNominalDlFreqHz(), p.getTime()));
+                if (satelliteData.getNominalUlFreqHz() > 0) {
+                    ulFreqProfile.add(passPredictor.getUplinkFreq(satelliteData.getNominalUlFreqHz(), p.getTime()));
+                }
             } catch (SatNotFoundException e) {
                 throw new RuntimeException(e);
             }
@@ -76,21 +84,35 @@ public class SatTrackPredict4Java implements SatTrack {
         ZonedDateTime los = TimeUtils.dateToZonedDateTime(satPassTime.getEndTime());
 
         // Step 3: Return new PassData object
-        return new PassData(satelliteData, aos, los, 5, azProfile, elProfile, freqProfile);
+        return new PassData(satelliteData, aos, los, 5, azProfile, elProfile, freqProfile, ulFreqProfile);
     }
 
-    public PassData getNextPass(SatelliteData sat) {
+    /**
+     * Create a new {@link PassPredictor} for a satellite from the ground station position in the configuration file.
+     * {@link PassPredictor} is not thread-safe, so each thread must use its own instance.
+     * @param sat Satellite being tracked.
+     * @return New {@link PassPredictor} object.
+     */
+    private PassPredictor createPassPredictor(SatelliteData sat) {
         TLE tle = new TLE(sat.getTle());
         GroundStationPosition qth = new GroundStationPosition(ConfigurationUtils.getDoubleProperty("GS_LAT"),
                 ConfigurationUtils.getDoubleProperty("GS_LON"),
                 ConfigurationUtils.getDoubleProperty("GS_ELE"),
                 ConfigurationUtils.getStrProperty("GS_CALL"));
+        try {
+            return new PassPredictor(tle, qth);
+        } catch (SatNotFoundException e) {
+            //TODO: Improve error handling
+            throw new RuntimeException(e);
+        }
+    }
+
+    public PassData getNextPass(SatelliteData sat) {
         ZonedDateTime currDate = ZonedDateTime.now(ZoneId.of("UTC"));
-        PassPredictor passPredictor;
+        PassPredictor passPredictor = createPassPredictor(sat);
         List<SatPassTime> passes;
         SatPassTime nextSatPassTime;
         try {
-            passPredictor = new PassPredictor(tle, qth);
             passes = passPredictor.getPasses(Date.from(currDate.toInstant()), 48, false);
             nextSatPassTime = passes.getFirst();
         } catch (SatNotFoundException e) {
@@ -102,24 +124,41 @@ public class SatTrackPredict4Java implements SatTrack {
     }
 
     public List<PassData> getNext48hOfPasses(SatelliteData sat) {
-        TLE tle = new TLE(sat.getTle());
-        GroundStationPosition qth = new GroundStationPosition(ConfigurationUtils.getDoubleProperty("GS_LAT"),
-                ConfigurationUtils.getDoubleProperty("GS_LON"),
-                ConfigurationUtils.getDoubleProperty("GS_ELE"),
-                ConfigurationUtils.getStrProperty("GS_CALL"));
         ZonedDateTime currDate = ZonedDateTime.now(ZoneId.of("UTC"));
-        PassPredictor passPredictor;
         List<SatPassTime> passes;
         try {
-            passPredictor = new PassPredictor(tle, qth);
-            passes = passPredictor.getPasses(Date.from(currDate.toInstant()), 48, false);
+            passes = createPassPredictor(sat).getPasses(Date.from(currDate.toInstant()), 48, false);
         } catch (SatNotFoundException e) {
             //TODO: Improve error handling
             throw new RuntimeException(e);
         }
+        if (passes.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        /*
+         * Build the profile of each pass in parallel. Each worker thread is confined to its own PassPredictor, and
+         * results are collected in the order of the pass list so the output is the same as a sequential build.
+         */
+        int numThreads = Math.min(passes.size(), Runtime.getRuntime().availableProcessors());
+        ThreadLocal<PassPredictor> threadPredictor = ThreadLocal.withInitial(() -> createPassPredictor(sat));
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
         List<PassData> result = new ArrayList<>();
-        for (SatPassTime p : passes) {
-            result.add(satPassTimeToPass(sat, p, passPredictor));
+        try {
+            List<Future<PassData>> futures = new ArrayList<>();
+            for (SatPassTime p : passes) {
+                futures.add(executor.submit(() -> satPassTimeToPass(sat, p, threadPredictor.get())));
+            }
+            for (Future<PassData> f : futures) {
+                result.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
         return result;
     }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tracking;
+
+import data.PassData;
+import instrument.Transceiver;
+import utils.Log;
+import utils.ResultUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Corrects the transceiver frequency for Doppler shift throughout a pass. The Doppler-corrected frequency profiles of
+ * the pass are interpolated at a configurable rate (1-10 Hz), and the transceiver is retuned only when the tuned
+ * frequency is further than a deadband from the desired frequency. Since a retune takes time to reach the transceiver,
+ * each retune is aimed at the frequency expected when it takes effect (predictive retune), using the command latency
+ * measured throughout the pass.
+ *
+ * <P>The error between the tuned and the desired downlink frequency is measured at every tick, and reported along
+ * with the number of retunes by {@link DopplerEngine#logSummary()}.</P>
+ */
+public class DopplerEngine {
+
+    private static final double MIN_RATE_HZ = 1;
+    private static final double MAX_RATE_HZ = 10;
+    private static final double LATENCY_SMOOTHING = 0.3; // Weight of newest latency measurement
+
+    private final Transceiver transceiver;
+    private final PassData pass;
+    private final boolean tuneUplink;
+    private final long intervalMillis;
+    private final long deadbandHz;
+    private long heldDlHz = -1; // Downlink frequency kept fixed while only the uplink is tracked, or -1
+    private long tunedDlHz = -1; // Not yet tuned
+    private long tunedUlHz = -1;
+    private double latencyMillis = 0;
+    private long tickCount = 0;
+    private long retuneCount = 0;
+    private long failedCount = 0;
+    private long errorCount = 0;
+    private double sumErrorHz = 0;
+    private long maxErrorHz = 0;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    /**
+     * Create an engine for a single pass.
+     * @param transceiver Transceiver to tune. Only called from the engine thread while running.
+     * @param pass Pass providing the Doppler-corrected frequency profiles.
+     * @param rateHz Update rate, clamped to 1-10 Hz.
+     * @param deadbandHz Retune only when the tuned frequency is further than this from the desired frequency.
+     * @param tuneUplink True to tune the uplink along with the downlink using
+     * {@link Transceiver#setSatelliteFrequencies(long, long)}.
+     */
+    public DopplerEngine(Transceiver transceiver, PassData pass, double rateHz, long deadbandHz, boolean tuneUplink) {
+        this.transceiver = transceiver;
+        this.pass = pass;
+        this.tuneUplink = tuneUplink && !pass.getUlFreqHzAdjProfile().isEmpty();
+        this.intervalMillis = Math.round(1000 / Math.max(MIN_RATE_HZ, Math.min(MAX_RATE_HZ, rateHz)));
+        this.deadbandHz = deadbandHz;
+    }
+
+    /**
+     * Keep the downlink at a fixed frequency and only track the uplink, for when the downlink Doppler shift is removed
+     * from the audio instead (DOPPLER_MODE AUDIO). The tuning error is then measured on the uplink. Call before
+     * {@link DopplerEngine#start()}, and only when tuning the uplink.
+     * @param dlFreqHz Fixed downlink frequency in hertz.
+     */
+    public void holdDownlink(long dlFreqHz) {
+        this.heldDlHz = dlFreqHz;
+    }
+
+    /**
+     * Start updating the transceiver on a new thread.
+     */
+    public void start() {
+        running = true;
+        thread = Thread.ofVirtual().name("DopplerEngine").start(() -> {
+            long nextMillis = System.currentTimeMillis();
+            while (running) {
+                try {
+                    tick(System.currentTimeMillis());
+                    nextMillis += intervalMillis;
+                    long delayMillis = nextMillis - System.currentTimeMillis();
+                    if (delayMillis > 0) {
+                        TimeUnit.MILLISECONDS.sleep(delayMillis);
+                    } else {
+                        nextMillis = System.currentTimeMillis(); // Retune took longer than the interval
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop updating the transceiver, waiting for any retune in progress to complete.
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Measure the tuning error, then retune if the frequency expected when a retune would take effect is outside the
+     * deadband. Called at the update rate.
+     * @param epochMillis Current time in milliseconds since the epoch.
+     * @throws InterruptedException
+     */
+    void tick(long epochMillis) throws InterruptedException {
+        /*
+         * Step 1: Measure the error between the tuned and the desired downlink frequency (uplink if the downlink is
+         * held).
+         */
+        tickCount++;
+        if (tunedDlHz >= 0) {
+            long errorHz = heldDlHz >= 0 && tuneUplink
+                    ? Math.abs(desiredFreqHz(pass.getUlFreqHzAdjProfile(), epochMillis) - tunedUlHz)
+                    : Math.abs(desiredFreqHz(pass.getDlFreqHzAdjProfile(), epochMillis) - tunedDlHz);
+            errorCount++;
+            sumErrorHz += errorHz;
+            maxErrorHz = Math.max(maxErrorHz, errorHz);
+        }
+
+        /*
+         * Step 2: Determine the frequencies expected when a retune sent now would take effect, and skip the retune if
+         * they are within the deadband of the tuned frequencies.
+         */
+        long effectiveMillis = epochMillis + (long) latencyMillis;
+        long dlHz = heldDlHz >= 0 ? heldDlHz : desiredFreqHz(pass.getDlFreqHzAdjProfile(), effectiveMillis);
+        long ulHz = tuneUplink ? desiredFreqHz(pass.getUlFreqHzAdjProfile(), effectiveMillis) : 0;
+        if (tunedDlHz >= 0 && Math.abs(dlHz - tunedDlHz) <= deadbandHz
+                && (!tuneUplink || Math.abs(ulHz - tunedUlHz) <= deadbandHz)) {
+            return;
+        }
+
+        /*
+         * Step 3: Retune, then update the latency estimate from the time taken.
+         */
+        long startMillis = System.currentTimeMillis();
+        ResultUtils rst = tuneUplink ? transceiver.setSatelliteFrequencies(dlHz, ulHz) : transceiver.setFrequency(dlHz);
+        latencyMillis += LATENCY_SMOOTHING * ((System.currentTimeMillis() - startMillis) - latencyMillis);
+        retuneCount++;
+        if (!rst.isSuccessful()) {
+            failedCount++;
+            Log.warn("Doppler retune to " + dlHz + "Hz failed");
+            return;
+        }
+        tunedDlHz = dlHz;
+        tunedUlHz = ulHz;
+    }
+
+    /**
+     * Get the Doppler-corrected downlink frequency at a time, for correcting the downlink by other means than retuning
+     * the transceiver.
+     * @param epochMillis Time in milliseconds since the epoch, clamped to the pass.
+     * @return Frequency in hertz.
+     */
+    public long getDownlinkFreqHz(long epochMillis) {
+        return desiredFreqHz(pass.getDlFreqHzAdjProfile(), epochMillis);
+    }
+
+    /**
+     * Interpolate a frequency profile at a time.
+     * @param profile Frequency profile sampled at {@link PassData#getProfileSampleIntervalS()} from AOS.
+     * @param epochMillis Time in milliseconds since the epoch, clamped to the profile.
+     * @return Frequency in hertz.
+     */
+    long desiredFreqHz(List<Long> profile, long epochMillis) {
+        double t = (epochMillis - pass.getAos().toInstant().toEpochMilli()) / 1000.0;
+        double idx = Math.max(0, Math.min(profile.size() - 1, t / pass.getProfileSampleIntervalS()));
+        int lo = (int) Math.floor(idx);
+        int hi = Math.min(lo + 1, profile.size() - 1);
+        return Math.round(profile.get(lo) + (profile.get(hi) - profile.get(lo)) * (idx - lo));
+    }
+
+    /**
+     * Log the number of retunes and the achieved frequency error over the pass.
+     */
+    public void logSummary() {
+        Log.info(String.format("Doppler correction: %d retunes (%d failed) over %d updates at %.1f Hz, deadband %dHz. "
+                        + "Tuning error mean %.0fHz, max %dHz. Retune latency %dms.", retuneCount, failedCount, tickCount,
+                1000.0 / intervalMillis, deadbandHz, getMeanErrorHz(), maxErrorHz, (long) latencyMillis));
+    }
+
+    /**
+     * Get the number of retunes sent to the transceiver.
+     * @return Retune count.
+     */
+    public long getRetuneCount() {
+        return retuneCount;
+    }
+
+    /**
+     * Get the mean error between the tuned and the desired downlink frequency.
+     * @return Mean error in hertz.
+     */
+    public double getMeanErrorHz() {
+        return errorCount == 0 ? 0 : sumErrorHz / errorCount;
+    }
+
+    /**
+     * Get the maximum error between the tuned and the desired downlink frequency.
+     * @return Maximum error in hertz.
+     */
+    public long getMaxErrorHz() {
+        return maxErrorHz;
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tracking;
+
+import data.PassData;
+import data.TrackPlan;
+import instrument.Rotator;
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans the positions sent to the rotator throughout a pass. On high (keyhole) passes the azimuth swings by up to
+ * 180 deg within a few seconds near zenith, which a rotator cannot follow. If the rotator can move past zenith
+ * (see {@link Rotator#getMaxEl()}), the portion of the pass before or after the time of closest approach can be
+ * flipped to (az + 180, 180 - el) so the antenna passes over zenith instead of turning around underneath it.
+ * If the rotator has overlap in azimuth (see {@link Rotator#getMinAz()} and {@link Rotator#getMaxAz()}), the azimuth
+ * track is unwrapped so a pass crossing north is followed continuously rather than unwinding a full turn mid-pass.
+ */
+public class PassPlanner {
+
+    private static final double KEYHOLE_MIN_EL_DEG = 70; // Passes below this elevation are never flipped
+    private static final double MIN_SLEW_SAVING_DEG = 30; // Only flip if it saves at least this much slew
+
+    /**
+     * Private constructor to prevent instantiation (all other methods static).
+     */
+    private PassPlanner() {}
+
+    /**
+     * Create the {@link TrackPlan} for a pass with the least total slew for the given rotator.
+     * @param pass Pass to be tracked.
+     * @param rotator Rotator that will track the pass.
+     * @return Track plan to be stored with the pass using {@link PassData#setTrackPlan(TrackPlan)}.
+     */
+    public static TrackPlan plan(PassData pass, Rotator rotator) {
+        return unwrapAz(planFlip(pass, rotator), rotator);
+    }
+
+    /**
+     * Choose between the normal track and tracks flipped over zenith, whichever has the least total slew.
+     * @param pass Pass to be tracked.
+     * @param rotator Rotator that will track the pass.
+     * @return Track plan with azimuth in the range 0-359 deg.
+     */
+    private static TrackPlan planFlip(PassData pass, Rotator rotator) {
+        List<Double> azProfile = pass.getAzProfile();
+        List<Double> elProfile = pass.getElProfile();
+        TrackPlan normal = new TrackPlan(azProfile, elProfile, false, false);
+
+        /*
+         * Step 1: Determine if the pass is a keyhole pass, and if the rotator is able to flip over zenith.
+         */
+        int tcaIdx = 0; // Index of time of closest approach (max elevation)
+        for (int i = 1; i < elProfile.size(); i++) {
+            if (elProfile.get(i) > elProfile.get(tcaIdx)) {
+                tcaIdx = i;
+            }
+        }
+        if (elProfile.isEmpty() || elProfile.get(tcaIdx) < KEYHOLE_MIN_EL_DEG) {
+            return normal;
+        }
+        if (rotator.getMaxEl() < 180) {
+            Log.debug("Keyhole pass with max El " + elProfile.get(tcaIdx) + ", rotator cannot flip over zenith");
+            return normal;
+        }
+
+        /*
+         * Step 2: Compare the total slew of the normal track with tracks flipped before and after the TCA.
+         */
+        TrackPlan flipBefore = flip(azProfile, elProfile, 0, tcaIdx);
+        TrackPlan flipAfter = flip(azProfile, elProfile, tcaIdx + 1, azProfile.size());
+        double normalSlew = totalSlew(normal);
+        double flipBeforeSlew = totalSlew(flipBefore);
+        double flipAfterSlew = totalSlew(flipAfter);
+        Log.debug("Keyhole pass total slew: normal " + normalSlew + " deg, flipped before TCA " + flipBeforeSlew
+                + " deg, flipped after TCA " + flipAfterSlew + " deg");
+
+        TrackPlan best = flipBeforeSlew <= flipAfterSlew ? flipBefore : flipAfter;
+        double bestSlew = Math.min(flipBeforeSlew, flipAfterSlew);
+        if (normalSlew - bestSlew < MIN_SLEW_SAVING_DEG) {
+            return normal;
+        }
+        Log.info("Keyhole pass detected, rotator will flip over zenith (saves " + (int) (normalSlew - bestSlew)
+                + " deg of slew)");
+        return best;
+    }
+
+    /**
+     * Flip a portion of the profile over zenith to (az + 180, 180 - el).
+     * @param azProfile Azimuth profile of the pass.
+     * @param elProfile Elevation profile of the pass.
+     * @param start First index to flip (inclusive).
+     * @param end Last index to flip (exclusive).
+     * @return Flipped track plan.
+     */
+    private static TrackPlan flip(List<Double> azProfile, List<Double> elProfile, int start, int end) {
+        List<Double> azTrack = new ArrayList<>(azProfile);
+        List<Double> elTrack = new ArrayList<>(elProfile);
+        for (int i = start; i < end; i++) {
+            azTrack.set(i, (azProfile.get(i) + 180) % 360);
+            elTrack.set(i, 180 - elProfile.get(i));
+        }
+        return new TrackPlan(azTrack, elTrack, true, false);
+    }
+
+    /**
+     * Unwrap the azimuth track so it is continuous across north, then shift it by whole turns to fit within the
+     * rotator's azimuth range. Of the shifts that fit, the one closest to the rotator's current position is used.
+     * @param plan Track plan with azimuth in the range 0-359 deg.
+     * @param rotator Rotator that will track the pass.
+     * @return Unwrapped track plan, or the original plan if the rotator has no overlap or the track does not fit.
+     */
+    private static TrackPlan unwrapAz(TrackPlan plan, Rotator rotator) {
+        List<Double> azTrack = plan.getAzTrack();
+        if (azTrack.isEmpty() || rotator.getMaxAz() - rotator.getMinAz() < 360) {
+            return plan;
+        }
+
+        /*
+         * Step 1: Make the track continuous by always taking the shortest path between successive positions.
+         */
+        List<Double> unwrapped = new ArrayList<>();
+        unwrapped.add(azTrack.getFirst());
+        double minAz = azTrack.getFirst();
+        double maxAz = azTrack.getFirst();
+        for (int i = 1; i < azTrack.size(); i++) {
+            double delta = azTrack.get(i) - azTrack.get(i-1);
+            delta -= 360 * Math.round(delta / 360); // Shortest path, in the range -180 to 180
+            double az = unwrapped.get(i-1) + delta;
+            unwrapped.add(az);
+            minAz = Math.min(minAz, az);
+            maxAz = Math.max(maxAz, az);
+        }
+
+        /*
+         * Step 2: Find the shift in whole turns that fits in the rotator range, closest to the current position.
+         */
+        int bestTurns = 0;
+        double bestDistance = Double.MAX_VALUE;
+        for (int turns = -2; turns <= 2; turns++) {
+            double shift = 360.0 * turns;
+            if (minAz + shift < rotator.getMinAz() || maxAz + shift > rotator.getMaxAz()) {
+                continue;
+            }
+            double distance = Math.abs(unwrapped.getFirst() + shift - rotator.getAzExtended());
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestTurns = turns;
+            }
+        }
+        if (bestDistance == Double.MAX_VALUE) {
+            Log.warn("Azimuth track spans " + (int) (maxAz - minAz) + " deg, does not fit in rotator range. "
+                    + "Rotator may unwind during the pass.");
+            return plan;
+        }
+        for (int i = 0; i < unwrapped.size(); i++) {
+            unwrapped.set(i, unwrapped.get(i) + 360.0 * bestTurns);
+        }
+        Log.debug("Azimuth track unwrapped to " + (int) (minAz + 360.0 * bestTurns) + " - "
+                + (int) (maxAz + 360.0 * bestTurns) + " deg");
+        return new TrackPlan(unwrapped, plan.getElTrack(), plan.isFlipped(), true);
+    }
+
+    /**
+     * Sum the azimuth and elevation movement between each position of a track. Azimuth movement takes the shortest
+     * path across north.
+     * @param plan Track to sum.
+     * @return Total slew in degrees.
+     */
+    static double totalSlew(TrackPlan plan) {
+        List<Double> azTrack = plan.getAzTrack();
+        List<Double> elTrack = plan.getElTrack();
+        double total = 0;
+        for (int i = 1; i < azTrack.size(); i++) {
+            double azDelta = Math.abs(azTrack.get(i) - azTrack.get(i-1)) % 360;
+            total += Math.min(azDelta, 360 - azDelta);
+            total += Math.abs(elTrack.get(i) - elTrack.get(i-1));
+        }
+        return total;
+    }
+
+}
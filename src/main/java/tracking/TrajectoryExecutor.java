@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tracking;
+
+import data.PassData;
+import data.TrackPlan;
+import instrument.AsyncRotator;
+import instrument.Rotator;
+import instrument.RotatorReadback;
+import instrument.RotatorTelemetry;
+import utils.Log;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Executes the {@link TrackPlan} of a pass on a rotator. Since the rotator takes time to receive a command and slew to
+ * the new position, each position is commanded ahead of time (lead pointing) such that the antenna arrives at the
+ * position at the same time as the satellite. The lead is estimated from the rotator slew rates (see
+ * {@link Rotator#getAzSlewRateDegPerS()}) and the command latency, which is measured throughout the pass. After each
+ * step the pointing error between the antenna and the satellite is reported. Steps can run asynchronously (see
+ * {@link TrajectoryExecutor#stepAsync()}) so the caller can do other work while the rotator moves.
+ */
+public class TrajectoryExecutor {
+
+    private static final double LATENCY_SMOOTHING = 0.3; // Weight of newest latency measurement
+    private static final long PRE_POSITION_MARGIN_MILLIS = 10000; // Extra time allowed to reach the AOS position
+
+    private final Rotator rotator;
+    private final AsyncRotator asyncRotator;
+    private final PassData pass;
+    private final List<Double> azTrack;
+    private final List<Double> elTrack;
+    private final boolean unwrapped;
+    // Updated on the AsyncRotator thread when each move completes. Writes and the error statistics are guarded by
+    // this, latencyMillis is also read without locking when planning the next step.
+    private volatile double latencyMillis = 500; // Initial estimate, updated after each command
+    private int stepCount = 0;
+    private double sumErrorDeg = 0;
+    private double maxErrorDeg = 0;
+
+    /**
+     * Create an executor for a single pass, sharing the rotator thread of an existing non-blocking wrapper. The wrapper
+     * is shut down by its creator, as it is reused for each pass.
+     * @param asyncRotator Non-blocking wrapper of the rotator used to track the pass.
+     * @param pass Pass to track, using the positions of {@link PassData#getTrackPlan()}.
+     */
+    public TrajectoryExecutor(AsyncRotator asyncRotator, PassData pass) {
+        this.rotator = asyncRotator.getRotator();
+        this.asyncRotator = asyncRotator;
+        this.pass = pass;
+        this.azTrack = pass.getTrackPlan().getAzTrack();
+        this.elTrack = pass.getTrackPlan().getElTrack();
+        this.unwrapped = pass.getTrackPlan().isUnwrapped();
+    }
+
+    /**
+     * Determine when the rotator must begin moving to the AOS position to arrive before AOS.
+     * @return Time to call {@link TrajectoryExecutor#prePosition()}.
+     */
+    public ZonedDateTime getPrePositionTime() {
+        double travelMillis = travelMillis(rotator.getAzExtended(), rotator.getEl(), azTrack.getFirst(), elTrack.getFirst());
+        return pass.getAos().minusNanos((long) ((travelMillis + latencyMillis + PRE_POSITION_MARGIN_MILLIS) * 1e6));
+    }
+
+    /**
+     * Move the rotator to the first position of the track and wait for it to arrive.
+     * @throws InterruptedException
+     */
+    public void prePosition() throws InterruptedException {
+        int initAz = (int) Math.round(azTrack.getFirst());
+        int initEl = (int) Math.round(elTrack.getFirst());
+        Log.debug("Moving rotator to initial position Az " + initAz + ", El " + initEl);
+        rotator.goToAzEl(initAz, initEl);
+    }
+
+    /**
+     * Command the rotator to the position the satellite will be at when the rotator arrives, then report the pointing
+     * error once the move is complete. Called periodically throughout the pass.
+     * @throws InterruptedException
+     */
+    public void step() throws InterruptedException {
+        try {
+            stepAsync().get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (CancellationException e) {
+            Log.debug("Rotator step replaced before completion");
+        }
+    }
+
+    /**
+     * Command the rotator to the position the satellite will be at when the rotator arrives without waiting for the
+     * move. The latency estimate and pointing error are updated when the move completes. Called periodically
+     * throughout the pass; wait for the returned future before the next step.
+     * @return Future completing when the rotator has arrived (or failed to arrive).
+     * @throws InterruptedException
+     */
+    public CompletableFuture<Void> stepAsync() throws InterruptedException {
+        /*
+         * Step 1: Estimate the time for the rotator to arrive at the target. The target depends on the arrival time,
+         * so refine the estimate over a few iterations.
+         */
+        long startMillis = System.currentTimeMillis();
+        double currAz = rotator.getAzExtended();
+        double currEl = rotator.getEl();
+        double travel = 0;
+        double leadMillis = latencyMillis;
+        for (int i = 0; i < 3; i++) {
+            double t = secondsSinceAos(startMillis + (long) leadMillis);
+            travel = travelMillis(currAz, currEl, interpolate(azTrack, t, !unwrapped), interpolate(elTrack, t, false));
+            leadMillis = latencyMillis + travel;
+        }
+        double travelMillis = travel;
+        double cmdT = secondsSinceAos(startMillis + (long) leadMillis);
+        double cmdAz = interpolate(azTrack, cmdT, !unwrapped);
+        double cmdEl = interpolate(elTrack, cmdT, false);
+        adjustSpeed(cmdT);
+
+        /*
+         * Step 2: Command the rotator, then update the latency estimate from the time taken beyond the travel time.
+         */
+        Log.debug("Lead pointing " + (long) leadMillis + "ms ahead to Az " + Math.round(cmdAz) + ", El " + Math.round(cmdEl));
+        return asyncRotator.goToAzEl((int) Math.round(cmdAz), (int) Math.round(cmdEl)).thenAccept(result -> {
+            long stopMillis = System.currentTimeMillis();
+            if (travelMillis > 0) { // Only measure latency when the rotator moved
+                updateLatency(Math.max(0, (stopMillis - startMillis) - travelMillis));
+            }
+
+            /*
+             * Step 3: Report the angle between the antenna and the satellite at the time the move completed.
+             */
+            double errorDeg = recordError(stopMillis);
+            Log.debug(String.format("Pointing error %.1f deg (latency %dms)", errorDeg, (long) latencyMillis));
+        });
+    }
+
+    /**
+     * Monitor a track that has been uploaded to the rotator controller with {@link Rotator#uploadTrack(TrackPlan, int)}.
+     * The controller steps through the track by itself, so the rotator is only read and the pointing error reported.
+     * Called periodically throughout the pass.
+     * @throws InterruptedException
+     */
+    public void monitor() throws InterruptedException {
+        adjustSpeed(secondsSinceAos(System.currentTimeMillis()));
+        rotator.readInstrument();
+        double errorDeg = recordError(System.currentTimeMillis());
+        int trackIdx = rotator.getTrackIndex();
+        Log.debug(String.format("Rotator at track position %d of %d, pointing error %.1f deg", trackIdx + 1,
+                azTrack.size(), errorDeg));
+    }
+
+    /**
+     * Set the rotator speed for the fastest angular rate of the track over the next two profile samples.
+     * @param t Time since AOS in seconds.
+     * @throws InterruptedException
+     */
+    private void adjustSpeed(double t) throws InterruptedException {
+        double azRate = 0;
+        double elRate = 0;
+        double intervalS = pass.getProfileSampleIntervalS();
+        for (int i = 0; i < 2; i++) {
+            double t0 = t + i * intervalS;
+            double azDelta = Math.abs(interpolate(azTrack, t0 + intervalS, !unwrapped) - interpolate(azTrack, t0, !unwrapped));
+            if (!unwrapped) {
+                azDelta = Math.min(azDelta, 360 - azDelta);
+            }
+            azRate = Math.max(azRate, azDelta / intervalS);
+            elRate = Math.max(elRate, Math.abs(interpolate(elTrack, t0 + intervalS, false)
+                    - interpolate(elTrack, t0, false)) / intervalS);
+        }
+        rotator.setSpeedForRate(azRate, elRate);
+    }
+
+    /**
+     * Determine the angle between the antenna and the satellite, and add it to the pointing error statistics. The
+     * antenna position is the last position measured by the rotator (see {@link Rotator#getLastReadback()}), compared
+     * with the satellite at the time of that measurement. The estimate from {@link Rotator#getAz()} is not used, as it
+     * assumes the rotator reached its target and would hide the error being measured.
+     * @param epochMillis Time the move completed, used with the estimated position if the rotator does not report
+     * readbacks.
+     * @return Pointing error in degrees.
+     */
+    private synchronized double recordError(long epochMillis) {
+        double az = rotator.getAz();
+        double el = rotator.getEl();
+        RotatorReadback readback = rotator.getLastReadback();
+        if (readback != null) {
+            az = readback.getAz();
+            el = readback.getEl();
+            epochMillis = readback.getTimeMillis();
+        }
+        double t = secondsSinceAos(epochMillis);
+        double errorDeg = angularSeparation(az, el, interpolate(azTrack, t, !unwrapped), interpolate(elTrack, t, false));
+        stepCount++;
+        sumErrorDeg += errorDeg;
+        maxErrorDeg = Math.max(maxErrorDeg, errorDeg);
+        return errorDeg;
+    }
+
+    /**
+     * Smooth a new measurement into the latency estimate.
+     * @param measuredLatency Time taken by a command beyond the travel time, in milliseconds.
+     */
+    private synchronized void updateLatency(double measuredLatency) {
+        latencyMillis += LATENCY_SMOOTHING * (measuredLatency - latencyMillis);
+    }
+
+    /**
+     * Log a summary of the pointing error throughout the pass.
+     */
+    public synchronized void logSummary() {
+        if (stepCount == 0) {
+            return;
+        }
+        Log.info(String.format("Pointing error over %d steps: mean %.1f deg, max %.1f deg. Rotator command latency %dms.",
+                stepCount, sumErrorDeg / stepCount, maxErrorDeg, (long) latencyMillis));
+    }
+
+    /**
+     * Log the pointing error measured from background position samples taken during the pass. Unlike
+     * {@link TrajectoryExecutor#logSummary()}, this includes the error between steps while the rotator is moving.
+     * @param telemetry Position samples, read without any serial transactions.
+     */
+    public void logTelemetrySummary(RotatorTelemetry telemetry) {
+        long[] timeMillis = new long[256];
+        double[] az = new double[timeMillis.length];
+        double[] el = new double[timeMillis.length];
+        RotatorTelemetry.Cursor cursor = telemetry.newCursor();
+        long losMillis = pass.getLos().toInstant().toEpochMilli();
+        int count = 0;
+        double sumDeg = 0;
+        double maxDeg = 0;
+        int n;
+        while ((n = telemetry.read(cursor, timeMillis, az, el)) > 0) {
+            for (int i = 0; i < n; i++) {
+                double t = secondsSinceAos(timeMillis[i]);
+                if (t < 0 || timeMillis[i] > losMillis) {
+                    continue;
+                }
+                double errorDeg = angularSeparation(az[i], el[i], interpolate(azTrack, t, !unwrapped),
+                        interpolate(elTrack, t, false));
+                count++;
+                sumDeg += errorDeg;
+                maxDeg = Math.max(maxDeg, errorDeg);
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        Log.info(String.format("Measured pointing error over %d telemetry samples: mean %.1f deg, max %.1f deg.",
+                count, sumDeg / count, maxDeg));
+    }
+
+    /**
+     * Get the mean pointing error of all steps so far.
+     * @return Mean pointing error in degrees.
+     */
+    public synchronized double getMeanErrorDeg() {
+        return stepCount == 0 ? 0 : sumErrorDeg / stepCount;
+    }
+
+    /**
+     * Get the maximum pointing error of all steps so far.
+     * @return Maximum pointing error in degrees.
+     */
+    public synchronized double getMaxErrorDeg() {
+        return maxErrorDeg;
+    }
+
+    /**
+     * Convert an epoch time to seconds relative to AOS.
+     * @param epochMillis Time in milliseconds since the epoch.
+     * @return Seconds since AOS (negative before AOS).
+     */
+    private double secondsSinceAos(long epochMillis) {
+        return (epochMillis - pass.getAos().toInstant().toEpochMilli()) / 1000.0;
+    }
+
+    /**
+     * Estimate the time for the rotator to move between two positions, with both axes moving at the same time. The
+     * rotator moves straight between azimuth positions without crossing north (see {@link Rotator#getAzExtended()}).
+     * @return Travel time in milliseconds.
+     */
+    private double travelMillis(double fromAz, double fromEl, double toAz, double toEl) {
+        double azDelta = Math.abs(toAz - fromAz);
+        double elDelta = Math.abs(toEl - fromEl);
+        return Math.max(azDelta / rotator.getAzSlewRateDegPerS(), elDelta / rotator.getElSlewRateDegPerS()) * 1000;
+    }
+
+    /**
+     * Linearly interpolate a track at a time since AOS. Times outside the pass are clamped to the first/last position.
+     * @param track Track sampled at {@link PassData#getProfileSampleIntervalS()}.
+     * @param t Time since AOS in seconds.
+     * @param wrapAz True if the track is azimuth in the range 0-359 deg (interpolate across north).
+     * @return Interpolated position in degrees.
+     */
+    double interpolate(List<Double> track, double t, boolean wrapAz) {
+        double idx = Math.max(0, Math.min(track.size() - 1, t / pass.getProfileSampleIntervalS()));
+        int lo = (int) Math.floor(idx);
+        int hi = Math.min(lo + 1, track.size() - 1);
+        double delta = track.get(hi) - track.get(lo);
+        if (wrapAz) {
+            delta -= 360 * Math.round(delta / 360); // Shortest path across north
+        }
+        double value = track.get(lo) + delta * (idx - lo);
+        return wrapAz ? (value + 360) % 360 : value;
+    }
+
+    /**
+     * Determine the angle between two pointing directions. Elevations above 90 deg (flipped over zenith) are handled
+     * by converting each direction to a unit vector.
+     * @return Angle in degrees.
+     */
+    static double angularSeparation(double az1, double el1, double az2, double el2) {
+        double a1 = Math.toRadians(az1);
+        double e1 = Math.toRadians(el1);
+        double a2 = Math.toRadians(az2);
+        double e2 = Math.toRadians(el2);
+        double dot = Math.cos(e1) * Math.sin(a1) * Math.cos(e2) * Math.sin(a2)
+                + Math.cos(e1) * Math.cos(a1) * Math.cos(e2) * Math.cos(a2)
+                + Math.sin(e1) * Math.sin(e2);
+        return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, dot))));
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in the style of HdrHistogram. Values are counted in buckets whose width doubles
+ * every 64 buckets, so every value is stored with a resolution of better than 1 part in 64 (about 1.6%) while a
+ * range of 1ns to about 68s needs fewer than 2000 counters. Recording is a few atomic increments and does not
+ * allocate or lock, so it can be done from any thread on every command; percentiles are computed when read.
+ *
+ * <P>Values larger than the range are counted in the last bucket (the maximum is still exact).</P>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7; // 128 values per half-open power of two range
+    private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int MAX_VALUE_BITS = 36; // About 68s in nanoseconds
+    private static final long MAX_TRACKABLE_NANOS = (1L << MAX_VALUE_BITS) - 1;
+    private static final int NUM_BUCKETS = indexOf(MAX_TRACKABLE_NANOS) + 1;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Create an empty histogram (normally obtained from the {@link LatencyRegistry}).
+     * @param name Name of what is measured, e.g. "RotatorGS232B read position".
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record a latency.
+     * @param nanos Latency in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(Math.min(nanos, MAX_TRACKABLE_NANOS)));
+        totalCount.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Record the time elapsed since a start time.
+     * @param startNanos Start time from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Get the bucket of a value: values below 128 have a bucket each, above that the top 7 bits select the bucket.
+     */
+    private static int indexOf(long nanos) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS);
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (nanos >>> shift);
+    }
+
+    /**
+     * Get the largest value counted in a bucket.
+     */
+    private static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKET_HALF) {
+            return index;
+        }
+        int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long subBucket = index - ((long) shift << (SUB_BUCKET_BITS - 1));
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Get the mean latency.
+     * @return Mean in nanoseconds, 0 if nothing has been recorded.
+     */
+    public double getMeanNanos() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalNanos.get() / count;
+    }
+
+    /**
+     * Get the latency at or below which a percentage of the recorded latencies fall.
+     * @param percentile Percentage, 0 to 100.
+     * @return Latency in nanoseconds (the upper end of the bucket, at most the maximum), 0 if nothing has been
+     * recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) { // Counts recorded during the copy are either fully in or left out
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Clear all recorded latencies. Latencies recorded during the reset may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /**
+     * Summarise the histogram in milliseconds, e.g. for the log.
+     */
+    @Override
+    public String toString() {
+        return String.format("%s: n=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms", name, getCount(),
+                getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(90) / 1e6,
+                getPercentileNanos(99) / 1e6, getMaxNanos() / 1e6);
+    }
+}
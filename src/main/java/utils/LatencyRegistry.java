@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link LatencyHistogram}s of this program, one per command type (e.g. "RotatorGS232B read position",
+ * "TransceiverIC9100 set freq") and per serial port operation. Histograms are created on first use and kept for the
+ * whole run, so callers can look them up once and keep a reference.
+ *
+ * <P>Command latencies include any fixed wait of the driver: the GS-232B and Rot2Prog drivers wait a fixed 250ms and
+ * 600ms for a position reply, so their "read position" entries mostly measure these waits. The serial port read
+ * entries give the time of the reads that returned data.</P>
+ */
+public class LatencyRegistry {
+
+    private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor to prevent instantiation (all other methods static).
+     */
+    private LatencyRegistry() {}
+
+    /**
+     * Get the histogram for a name, creating it if needed.
+     * @param name Name of what is measured.
+     * @return The histogram.
+     */
+    public static LatencyHistogram get(String name) {
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Get all histograms, sorted by name.
+     * @return The histograms.
+     */
+    public static List<LatencyHistogram> getHistograms() {
+        List<LatencyHistogram> all = new ArrayList<>(histograms.values());
+        all.sort(Comparator.comparing(LatencyHistogram::getName));
+        return all;
+    }
+
+    /**
+     * Log the histograms with recorded latencies.
+     */
+    public static void logSummary() {
+        for (LatencyHistogram histogram : getHistograms()) {
+            if (histogram.getCount() > 0) {
+                Log.info("Latency " + histogram);
+            }
+        }
+    }
+
+    /**
+     * Clear the recorded latencies of all histograms (e.g. to measure each pass on its own).
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
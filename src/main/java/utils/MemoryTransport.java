@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Transport} over an in-process pipe, so instrument drivers can talk to simulated controllers without hardware.
+ * Each named pipe has a host end, used by {@link SerialUtils} for ports named {@code mem://<name>}, and a device end
+ * used by the simulator. Either end may be created first.
+ *
+ * <P>Like a serial line, bytes written to the host end while it is closed are lost. Each end buffers up to
+ * {@value #CAPACITY} bytes, after which the writer blocks until the reader catches up.</P>
+ */
+public class MemoryTransport implements Transport {
+
+    private static final int CAPACITY = 65536;
+    private static final Map<String, MemoryTransport> HOSTS = new ConcurrentHashMap<>();
+    private static final Map<String, MemoryTransport> DEVICES = new ConcurrentHashMap<>();
+
+    private final byte[] rxBuffer = new byte[CAPACITY];
+    private int rxHead = 0; // Index of the oldest unread byte
+    private int rxCount = 0;
+    private final boolean device;
+    private MemoryTransport peer;
+    private volatile boolean open;
+
+    private MemoryTransport(boolean device) {
+        this.device = device;
+        this.open = device; // The device end is always listening
+    }
+
+    /**
+     * Get the host end of a named pipe, creating the pipe if needed.
+     * @param name Name of the pipe.
+     * @return Host end, closed until {@link MemoryTransport#open()}.
+     */
+    public static MemoryTransport host(String name) {
+        createPipe(name);
+        return HOSTS.get(name);
+    }
+
+    /**
+     * Get the device end of a named pipe, creating the pipe if needed.
+     * @param name Name of the pipe.
+     * @return Device end.
+     */
+    public static MemoryTransport device(String name) {
+        createPipe(name);
+        return DEVICES.get(name);
+    }
+
+    /**
+     * Remove a named pipe, so the next use of the name creates a new pipe.
+     * @param name Name of the pipe.
+     */
+    public static synchronized void removePipe(String name) {
+        HOSTS.remove(name);
+        DEVICES.remove(name);
+    }
+
+    private static synchronized void createPipe(String name) {
+        if (!HOSTS.containsKey(name)) {
+            MemoryTransport host = new MemoryTransport(false);
+            MemoryTransport device = new MemoryTransport(true);
+            host.peer = device;
+            device.peer = host;
+            DEVICES.put(name, device);
+            HOSTS.put(name, host);
+        }
+    }
+
+    public boolean open() {
+        this.open = true;
+        return true;
+    }
+
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    public int write(byte[] data, int length) {
+        return write(data, 0, length);
+    }
+
+    /**
+     * Write bytes from part of a byte array.
+     * @param data Data to write.
+     * @param offset Index of the first byte to write.
+     * @param length Number of bytes to write.
+     * @return Number of bytes written, or -1 if this end is closed.
+     */
+    public int write(byte[] data, int offset, int length) {
+        if (!this.open) {
+            return -1;
+        }
+        return peer.receive(data, offset, length);
+    }
+
+    public synchronized int bytesAvailable() {
+        return this.open ? rxCount : -1;
+    }
+
+    public synchronized int read(byte[] buffer, int length) {
+        if (!this.open) {
+            return -1;
+        }
+        int n = Math.min(rxCount, length);
+        for (int i = 0; i < n; i++) {
+            buffer[i] = rxBuffer[(rxHead + i) % CAPACITY];
+        }
+        rxHead = (rxHead + n) % CAPACITY;
+        rxCount -= n;
+        notifyAll(); // Wake a writer waiting for space
+        return n;
+    }
+
+    /**
+     * Read bytes, waiting for at least one byte to arrive.
+     * @param buffer Buffer to read into.
+     * @param length Maximum number of bytes to read.
+     * @param timeoutMillis Maximum time to wait.
+     * @return Number of bytes read (0 on timeout), or -1 if this end is closed.
+     * @throws InterruptedException
+     */
+    public synchronized int read(byte[] buffer, int length, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (this.open && rxCount == 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return 0;
+            }
+            wait(remaining);
+        }
+        return read(buffer, length);
+    }
+
+    /**
+     * Close this end. Unread bytes are discarded. The device end cannot be closed.
+     * @return True.
+     */
+    public synchronized boolean close() {
+        if (!device) {
+            this.open = false;
+            rxHead = 0;
+            rxCount = 0;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Store bytes written by the peer, discarding them if this end is closed.
+     * @return Number of bytes accepted by the pipe.
+     */
+    private synchronized int receive(byte[] data, int offset, int length) {
+        if (!this.open) {
+            return length; // Lost, as on a serial line with nothing listening
+        }
+        for (int i = 0; i < length; i++) {
+            while (rxCount == CAPACITY && this.open) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return i;
+                }
+            }
+            if (!this.open) {
+                return length;
+            }
+            rxBuffer[(rxHead + rxCount) % CAPACITY] = data[offset + i];
+            rxCount++;
+        }
+        notifyAll(); // Wake a reader waiting for data
+        return length;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package utils;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+/**
+ * {@link Transport} over a local serial port using the {@link com.fazecast.jSerialComm} package.
+ */
+public class SerialTransport implements Transport {
+
+    private final SerialPort port;
+
+    /**
+     * Create a transport for a serial port. The port is not opened until {@link SerialTransport#open()}.
+     * @param comID COM port.
+     * @param baud Baud rate.
+     * @param numDataBits Number of data bits.
+     * @param numStopBits Number of stop bits.
+     * @param parity Parity.
+     */
+    public SerialTransport(String comID, int baud, int numDataBits, int numStopBits, int parity) {
+        this.port = SerialPort.getCommPort(comID);
+        this.port.setBaudRate(baud);
+        this.port.setNumDataBits(numDataBits);
+        this.port.setNumStopBits(numStopBits);
+        this.port.setParity(parity);
+    }
+
+    public boolean open() {
+        return this.port.openPort();
+    }
+
+    public boolean isOpen() {
+        return this.port.isOpen();
+    }
+
+    public int write(byte[] data, int length) {
+        return this.port.writeBytes(data, length);
+    }
+
+    public int bytesAvailable() {
+        return this.port.bytesAvailable();
+    }
+
+    public int read(byte[] buffer, int length) {
+        int available = port.bytesAvailable();
+        if (available <= 0) {
+            return available;
+        }
+        return port.readBytes(buffer, Math.min(available, length));
+    }
+
+    public boolean close() {
+        return this.port.closePort();
+    }
+
+}
@@ -17,31 +17,88 @@
 
 package utils;
 
-import com.fazecast.jSerialComm.*;
+import com.fazecast.jSerialComm.SerialPort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * Wrapper for {@link com.fazecast.jSerialComm} package designed specifically for the communication requirements of
- * this program.
+ * Connection to an instrument controller designed specifically for the communication requirements of this program.
+ * The port string selects the {@link Transport}: {@code tcp://host:port} connects to a serial server such as ser2net
+ * ({@link TcpTransport}), {@code mem://name} to an in-process simulator ({@link MemoryTransport}), and anything else is
+ * a local serial port ({@link SerialTransport}). Drivers use this class the same way whichever transport is selected.
+ * The time taken to open the port, write, and read is recorded per port in the {@link LatencyRegistry}. Only reads that
+ * return data are recorded, as drivers poll without blocking and most polls find nothing.
  * TODO: Methods should return ResultUtils for readability and consistency.
  */
 public class SerialUtils {
 
-    private final SerialPort port;
+    private static final String TCP_PREFIX = "tcp://";
+    private static final String MEMORY_PREFIX = "mem://";
+
+    private final Transport port;
+    private final LatencyHistogram openLatency;
+    private final LatencyHistogram writeLatency;
+    private final LatencyHistogram readLatency;
 
     /**
      * Create a new instance (typically one per instrument).
-     * @param comID COM port.
+     * @param comID COM port, tcp://host:port or mem://name.
      * @param baud Baud rate.
      * @param numDataBits Number of data bits.
      * @param numStopBits Number of stop bits.
      * @param parity Parity.
      */
     public SerialUtils(String comID, int baud, int numDataBits, int numStopBits, int parity) {
-        this.port = SerialPort.getCommPort(comID);
-        this.port.setBaudRate(baud);
-        this.port.setNumDataBits(numDataBits);
-        this.port.setNumStopBits(numStopBits);
-        this.port.setParity(parity);
+        this(createTransport(comID, baud, numDataBits, numStopBits, parity), comID);
+    }
+
+    /**
+     * Create a new instance using a transport directly.
+     * @param transport Transport to the instrument.
+     */
+    public SerialUtils(Transport transport) {
+        this(transport, transport.getClass().getSimpleName());
+    }
+
+    /**
+     * Create a new instance using a transport, recording latencies under a port name.
+     */
+    private SerialUtils(Transport transport, String portName) {
+        this.port = transport;
+        this.openLatency = LatencyRegistry.get("Serial " + portName + " open");
+        this.writeLatency = LatencyRegistry.get("Serial " + portName + " write");
+        this.readLatency = LatencyRegistry.get("Serial " + portName + " read");
+    }
+
+    /**
+     * List the serial ports present on this computer.
+     * @return System port names, e.g. COM3.
+     */
+    public static List<String> listPorts() {
+        List<String> ports = new ArrayList<>();
+        for (SerialPort port : SerialPort.getCommPorts()) {
+            ports.add(port.getSystemPortName());
+        }
+        return ports;
+    }
+
+    /**
+     * Select the transport for a port string.
+     */
+    private static Transport createTransport(String comID, int baud, int numDataBits, int numStopBits, int parity) {
+        if (comID.regionMatches(true, 0, TCP_PREFIX, 0, TCP_PREFIX.length())) {
+            String address = comID.substring(TCP_PREFIX.length());
+            int sep = address.lastIndexOf(':');
+            if (sep < 1) {
+                throw new RuntimeException("TCP port must be in the form tcp://host:port, got " + comID);
+            }
+            return new TcpTransport(address.substring(0, sep), Integer.parseInt(address.substring(sep + 1)));
+        } else if (comID.regionMatches(true, 0, MEMORY_PREFIX, 0, MEMORY_PREFIX.length())) {
+            return MemoryTransport.host(comID.substring(MEMORY_PREFIX.length()));
+        }
+        return new SerialTransport(comID, baud, numDataBits, numStopBits, parity);
     }
 
     /**
@@ -49,7 +106,18 @@ public class SerialUtils {
      * @return True if successful, false if failed.
      */
     public boolean open() {
-        return this.port.openPort();
+        long start = System.nanoTime();
+        boolean rst = this.port.open();
+        openLatency.recordSince(start);
+        return rst;
+    }
+
+    /**
+     * Check if the serial connection is open.
+     * @return True if open.
+     */
+    public boolean isOpen() {
+        return this.port.isOpen();
     }
 
     /**
@@ -58,21 +126,54 @@ public class SerialUtils {
      * @return True if successful, false if failed.
      */
     public boolean write(byte[] data) {
-        int rst = this.port.writeBytes(data, data.length);
+        return write(data, data.length);
+    }
+
+    /**
+     * Write the first bytes of a byte array to the serial port.
+     * @param data Data to write.
+     * @param length Number of bytes to write.
+     * @return True if successful, false if failed.
+     */
+    public boolean write(byte[] data, int length) {
+        long start = System.nanoTime();
+        int rst = this.port.write(data, length);
+        writeLatency.recordSince(start);
         return rst != -1;
     }
 
+    /**
+     * Read the bytes available on the serial port into a buffer, without allocating.
+     * @param buffer Buffer to read into.
+     * @return Number of bytes read (0 if no bytes are available), or -1 if the read failed.
+     */
+    public int read(byte[] buffer) {
+        long start = System.nanoTime();
+        int n = port.read(buffer, buffer.length);
+        if (n > 0) {
+            readLatency.recordSince(start);
+        }
+        return n;
+    }
+
     /**
      * Read a byte array from the serial port.
      * @return Data read from port. Empty array if no bytes are available on the port.
      */
     public byte[] read() {
-        if (port.bytesAvailable() != 0) {
-            byte[] newData = new byte[port.bytesAvailable()];
-            port.readBytes(newData, newData.length);
-            return newData;
+        long start = System.nanoTime();
+        int available = port.bytesAvailable();
+        byte[] newData = new byte[Math.max(0, available)];
+        if (available > 0) {
+            int n = port.read(newData, newData.length);
+            if (n != newData.length) {
+                newData = Arrays.copyOf(newData, Math.max(0, n));
+            }
+        }
+        if (newData.length > 0) {
+            readLatency.recordSince(start);
         }
-        return new byte[]{};
+        return newData;
     }
 
     /**
@@ -80,6 +181,6 @@ public class SerialUtils {
      * @return True if successful, false if failed.
      */
     public boolean close() {
-        return this.port.closePort();
+        return this.port.close();
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * {@link Transport} over a raw TCP connection, for instrument controllers behind a serial server such as ser2net
+ * (raw mode). The connection uses TCP_NODELAY so short commands are sent immediately rather than being held back to
+ * be combined with later data, and non-blocking NIO reads so polling for a reply never blocks. Serial settings (baud
+ * rate etc.) are configured on the serial server. If the connection is dropped (e.g. the serial server restarts) the
+ * transport closes, so the next {@link TcpTransport#open()} reconnects.
+ */
+public class TcpTransport implements Transport {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private final String host;
+    private final int port;
+    private final ByteBuffer rxBuffer = ByteBuffer.allocate(4096);
+    private SocketChannel channel;
+
+    /**
+     * Create a transport for a TCP address. The connection is not opened until {@link TcpTransport#open()}.
+     * @param host Host name or address.
+     * @param port TCP port.
+     */
+    public TcpTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public synchronized boolean open() {
+        if (isOpen()) {
+            return true;
+        }
+        try {
+            channel = SocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            channel.configureBlocking(false);
+            rxBuffer.clear().flip();
+            return true;
+        } catch (IOException e) {
+            Log.error("Could not connect to " + host + ":" + port + ": " + e.getMessage());
+            close();
+            return false;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return channel != null && channel.isConnected();
+    }
+
+    public synchronized int write(byte[] data, int length) {
+        if (!isOpen()) {
+            return -1;
+        }
+        try {
+            ByteBuffer txBuffer = ByteBuffer.wrap(data, 0, length);
+            while (txBuffer.hasRemaining()) {
+                if (channel.write(txBuffer) == 0) {
+                    Thread.onSpinWait(); // Socket send buffer full
+                }
+            }
+            return length;
+        } catch (IOException e) {
+            Log.error("Write to " + host + ":" + port + " failed: " + e.getMessage());
+            close(); // Reconnect on the next open()
+            return -1;
+        }
+    }
+
+    public synchronized int bytesAvailable() {
+        if (!isOpen()) {
+            return -1;
+        }
+        try {
+            rxBuffer.compact();
+            int n = channel.read(rxBuffer);
+            rxBuffer.flip();
+            if (n < 0 && !rxBuffer.hasRemaining()) {
+                Log.warn("Connection closed by " + host + ":" + port);
+                close(); // Reconnect on the next open()
+                return -1;
+            }
+        } catch (IOException e) {
+            Log.error("Read from " + host + ":" + port + " failed: " + e.getMessage());
+            close();
+            return -1;
+        }
+        return rxBuffer.remaining();
+    }
+
+    public synchronized int read(byte[] buffer, int length) {
+        int available = bytesAvailable();
+        if (available <= 0) {
+            return available;
+        }
+        int n = Math.min(available, length);
+        rxBuffer.get(buffer, 0, n);
+        return n;
+    }
+
+    public synchronized boolean close() {
+        if (channel == null) {
+            return true;
+        }
+        try {
+            channel.close();
+            return true;
+        } catch (IOException e) {
+            Log.error("Could not close connection to " + host + ":" + port + ": " + e.getMessage());
+            return false;
+        } finally {
+            channel = null;
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package utils;
+
+/**
+ * Byte stream connection to an instrument controller, used by {@link SerialUtils}. Implementations are a local serial
+ * port ({@link SerialTransport}), a raw TCP connection to a serial server such as ser2net ({@link TcpTransport}) and an
+ * in-process pipe for simulators and tests ({@link MemoryTransport}).
+ */
+public interface Transport {
+
+    /**
+     * Open the connection.
+     * @return True if successful, false if failed.
+     */
+    boolean open();
+
+    /**
+     * Check if the connection is open.
+     * @return True if open.
+     */
+    boolean isOpen();
+
+    /**
+     * Write the first bytes of a byte array, blocking until all bytes are written.
+     * @param data Data to write.
+     * @param length Number of bytes to write.
+     * @return Number of bytes written, or -1 if the write failed.
+     */
+    int write(byte[] data, int length);
+
+    /**
+     * Get the number of bytes that can be read without blocking.
+     * @return Number of bytes available, or -1 if the connection has failed.
+     */
+    int bytesAvailable();
+
+    /**
+     * Read available bytes without blocking.
+     * @param buffer Buffer to read into.
+     * @param length Maximum number of bytes to read.
+     * @return Number of bytes read (0 if none are available), or -1 if the read failed.
+     */
+    int read(byte[] buffer, int length);
+
+    /**
+     * Close the connection.
+     * @return True if successful, false if failed.
+     */
+    boolean close();
+
+}
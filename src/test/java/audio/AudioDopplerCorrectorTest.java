@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package audio;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.enums.Verbosity;
+
+import java.lang.management.ManagementFactory;
+
+import static org.testng.Assert.*;
+
+public class AudioDopplerCorrectorTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @BeforeClass
+    public void setup() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @Test
+    public void testShiftDown() {
+        byte[] audio = tone(1500, SAMPLE_RATE);
+        AudioDopplerCorrector c = new AudioDopplerCorrector(SAMPLE_RATE);
+        c.setShiftHz(-500);
+        c.process(audio, audio.length);
+
+        // Tone moved to 1000 Hz with the image at 2000 Hz suppressed
+        double shifted = power(audio, 1000);
+        assertTrue(shifted > 1000 * power(audio, 1500));
+        assertTrue(shifted > 1000 * power(audio, 2000));
+    }
+
+    @Test
+    public void testShiftUpInBuffers() {
+        byte[] audio = tone(1000, SAMPLE_RATE);
+        AudioDopplerCorrector c = new AudioDopplerCorrector(SAMPLE_RATE);
+        c.setShiftHz(700);
+        for (int i = 0; i < audio.length; i += 4096) { // Phase carries across buffers
+            byte[] buffer = new byte[Math.min(4096, audio.length - i)];
+            System.arraycopy(audio, i, buffer, 0, buffer.length);
+            c.process(buffer, buffer.length);
+            System.arraycopy(buffer, 0, audio, i, buffer.length);
+        }
+
+        double shifted = power(audio, 1700);
+        assertTrue(shifted > 1000 * power(audio, 1000));
+        assertTrue(shifted > 1000 * power(audio, 300));
+        assertEquals(c.getProcessedSamples(), SAMPLE_RATE);
+    }
+
+    @Test
+    public void testNoShiftPreservesTone() {
+        byte[] audio = tone(1200, SAMPLE_RATE);
+        double before = power(audio, 1200);
+        AudioDopplerCorrector c = new AudioDopplerCorrector(SAMPLE_RATE);
+        c.process(audio, audio.length);
+        assertEquals(power(audio, 1200), before, before * 0.05);
+    }
+
+    @Test
+    public void testRealTimeWithoutAllocation() {
+        byte[] buffer = tone(1000, 1024);
+        AudioDopplerCorrector c = new AudioDopplerCorrector(SAMPLE_RATE);
+        for (int i = 0; i < 2000; i++) { // Warm up
+            c.setShiftHz(i % 200 - 100);
+            c.process(buffer, buffer.length);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long startBytes = threads.getCurrentThreadAllocatedBytes();
+        long startNanos = System.nanoTime();
+        int buffers = 10 * SAMPLE_RATE / 1024; // 10 s of audio
+        for (int i = 0; i < buffers; i++) {
+            c.setShiftHz(i % 200 - 100);
+            c.process(buffer, buffer.length);
+        }
+        double elapsedS = (System.nanoTime() - startNanos) / 1e9;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - startBytes;
+
+        assertEquals(allocated, 0);
+        assertTrue(elapsedS < 1, "10 s of audio took " + elapsedS + "s"); // At least 10x faster than real time
+        c.logSummary();
+    }
+
+    /**
+     * Generate a tone as signed 16 bit big-endian samples.
+     */
+    private static byte[] tone(double freqHz, int samples) {
+        byte[] audio = new byte[2 * samples];
+        for (int i = 0; i < samples; i++) {
+            short s = (short) Math.round(10000 * Math.sin(2 * Math.PI * freqHz * i / SAMPLE_RATE));
+            audio[2 * i] = (byte) (s >> 8);
+            audio[2 * i + 1] = (byte) s;
+        }
+        return audio;
+    }
+
+    /**
+     * Power of the audio at a frequency using the Goertzel algorithm, skipping the filter start up.
+     */
+    private static double power(byte[] audio, double freqHz) {
+        double coeff = 2 * Math.cos(2 * Math.PI * freqHz / SAMPLE_RATE);
+        double s1 = 0, s2 = 0;
+        for (int i = 2 * 200; i < audio.length; i += 2) {
+            double x = (short) ((audio[i] << 8) | (audio[i + 1] & 0xFF));
+            double s0 = x + coeff * s1 - s2;
+            s2 = s1;
+            s1 = s0;
+        }
+        return s1 * s1 + s2 * s2 - coeff * s1 * s2;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package audio;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.testng.Assert.*;
+
+public class AudioRingBufferTest {
+
+    /**
+     * Create big-endian PCM for samples counting up from a starting value.
+     */
+    private static byte[] pcm(long start, int count) {
+        byte[] data = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            short value = (short) (start + i);
+            data[2 * i] = (byte) (value >> 8);
+            data[2 * i + 1] = (byte) value;
+        }
+        return data;
+    }
+
+    @Test
+    public void testReadInPlaceAcrossWrap() throws IOException {
+        AudioRingBuffer ring = new AudioRingBuffer(100);
+        assertEquals(ring.getCapacity(), 128);
+        AudioRingBuffer.Cursor cursor = ring.newCursor(0);
+        List<Short> read = new ArrayList<>();
+        AudioRingBuffer.SampleHandler handler = (samples, offset, length) -> {
+            for (int i = 0; i < length; i++) {
+                read.add(samples[offset + i]);
+            }
+        };
+        for (int i = 0; i < 5; i++) {
+            ring.write(pcm(i * 40, 40), 80);
+            assertEquals(ring.available(cursor), 40);
+            assertEquals(ring.poll(cursor, handler, 1000), 40);
+        }
+        assertEquals(ring.poll(cursor, handler, 1000), 0);
+        assertEquals(read.size(), 200);
+        for (int i = 0; i < 200; i++) {
+            assertEquals((short) read.get(i), (short) i);
+        }
+        assertEquals(cursor.getOverruns(), 0);
+    }
+
+    @Test
+    public void testBacklogAndOverrun() throws IOException {
+        AudioRingBuffer ring = new AudioRingBuffer(128);
+        ring.write(pcm(0, 100), 200);
+        AudioRingBuffer.Cursor backlog = ring.newCursor(50);
+        assertEquals(backlog.getPosition(), 50);
+        assertEquals(ring.newCursor(1000).getPosition(), 4); // Limited to the capacity less the headroom
+
+        for (int i = 1; i < 4; i++) {
+            ring.write(pcm(i * 100, 100), 200);
+        }
+        List<Short> firsts = new ArrayList<>();
+        assertEquals(ring.poll(backlog, (samples, offset, length) -> firsts.add(samples[offset]), 1000), 96);
+        assertEquals(firsts, List.of((short) 304, (short) 384)); // Moved forward to leave the headroom, then wrapped
+        assertEquals(backlog.getOverruns(), 1);
+        assertEquals(backlog.getDroppedSamples(), 254);
+        assertEquals(backlog.getPosition(), ring.getWritten());
+    }
+
+    @Test
+    public void testConcurrentConsumers() throws InterruptedException {
+        AudioRingBuffer ring = new AudioRingBuffer(16384);
+        int chunk = 256;
+        long total = 4000L * chunk;
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<AudioRingBuffer.Cursor> cursors = new ArrayList<>();
+        List<long[]> handled = new ArrayList<>(); // Samples handled and contiguity errors per consumer
+        List<Thread> consumers = new ArrayList<>();
+        for (int c = 0; c < 3; c++) {
+            boolean slow = c == 2;
+            AudioRingBuffer.Cursor cursor = ring.newCursor(0);
+            long[] counts = new long[2];
+            cursors.add(cursor);
+            handled.add(counts);
+            consumers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    while (!done.get() || ring.available(cursor) > 0) {
+                        long overruns = cursor.getOverruns();
+                        short[] last = new short[1];
+                        int n = ring.poll(cursor, (samples, offset, length) -> {
+                            for (int i = 1; i < length; i++) {
+                                if (((samples[offset + i] - samples[offset] - i) & 0xFFFF) != 0) { // Sequence, modulo 16 bits
+                                    counts[1]++;
+                                }
+                            }
+                            last[0] = samples[offset + length - 1];
+                        }, slow ? 1000 : Integer.MAX_VALUE);
+                        counts[0] += n;
+                        if (n > 0 && cursor.getOverruns() == overruns && ((last[0] - cursor.getPosition() + 1) & 0xFFFF) != 0) {
+                            counts[1]++;
+                        }
+                        if (slow) {
+                            TimeUnit.MILLISECONDS.sleep(20);
+                        } else if (n == 0) {
+                            Thread.yield();
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (long written = 0; written < total; written += chunk) {
+            ring.write(pcm(written, chunk), 2 * chunk);
+            LockSupport.parkNanos(20_000);
+        }
+        long producerMillis = (System.nanoTime() - start) / 1_000_000;
+        done.set(true);
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+
+        for (int c = 0; c < 3; c++) {
+            AudioRingBuffer.Cursor cursor = cursors.get(c);
+            assertEquals(cursor.getPosition(), total);
+            assertEquals(handled.get(c)[0] + cursor.getDroppedSamples(), total, "Consumer " + c);
+            if (cursor.getOverruns() == 0) {
+                assertEquals(handled.get(c)[1], 0, "Consumer " + c);
+            }
+        }
+        assertTrue(cursors.get(2).getOverruns() > 0); // Slow consumer detected, not waited for
+        assertTrue(producerMillis < 10000, "Producer took " + producerMillis + "ms");
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package audio;
+
+import org.testng.annotations.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.testng.Assert.*;
+
+public class WavFileWriterTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, true);
+
+    /**
+     * Create big-endian samples counting up from a starting value.
+     */
+    private static byte[] samples(int start, int count) {
+        byte[] data = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            data[2 * i] = (byte) ((start + i) >> 8);
+            data[2 * i + 1] = (byte) (start + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void testWriteAndReadBack() throws IOException, UnsupportedAudioFileException {
+        File file = Files.createTempFile("wavWriter", ".wav").toFile();
+        file.deleteOnExit();
+        try (WavFileWriter writer = new WavFileWriter(file, FORMAT, 10L * SAMPLE_RATE * 2)) {
+            for (int i = 0; i < 3; i++) {
+                byte[] data = samples(i * 1000, 1000);
+                writer.write(data, data.length);
+            }
+            assertEquals(writer.getDataBytes(), 6000);
+        }
+        assertEquals(file.length(), 44 + 6000); // Preallocated space removed
+
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat format = in.getFormat();
+            assertEquals(format.getSampleRate(), (float) SAMPLE_RATE);
+            assertEquals(format.getSampleSizeInBits(), 16);
+            assertEquals(format.getChannels(), 1);
+            assertFalse(format.isBigEndian());
+            assertEquals(in.getFrameLength(), 3000);
+            byte[] data = in.readAllBytes();
+            for (int i = 0; i < 3000; i++) { // Little-endian in the file
+                assertEquals((short) ((data[2 * i] & 0xFF) | (data[2 * i + 1] << 8)), (short) i);
+            }
+        }
+    }
+
+    @Test
+    public void testPartialFileReadable() throws IOException, UnsupportedAudioFileException {
+        File file = Files.createTempFile("wavWriterPartial", ".wav").toFile();
+        file.deleteOnExit();
+        WavFileWriter writer = new WavFileWriter(file, FORMAT, 60L * SAMPLE_RATE * 2);
+        byte[] data = samples(0, SAMPLE_RATE); // One second, header updated
+        writer.write(data, data.length);
+        writer.write(data, 100); // Not yet in the header
+
+        // Read while still open, as after the program stopped during a pass
+        assertEquals(file.length(), 44 + 60L * SAMPLE_RATE * 2);
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            assertEquals(in.getFrameLength(), SAMPLE_RATE);
+        }
+        writer.close();
+        writer.close();
+        assertEquals(file.length(), 44 + 2L * SAMPLE_RATE + 100);
+    }
+}
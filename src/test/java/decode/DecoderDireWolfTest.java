@@ -17,12 +17,23 @@
 
 package decode;
 
+import audio.AudioRingBuffer;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
+import utils.ConfigurationUtils;
 import utils.Log;
 import utils.enums.Verbosity;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
 
 public class DecoderDireWolfTest {
 
@@ -42,4 +53,38 @@ public class DecoderDireWolfTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testPreflight() throws IOException {
+        DecoderDireWolf dec = new DecoderDireWolf();
+        Path dir = Files.createTempDirectory("direwolf");
+        dec.setDecoderPath(dir.toString());
+        assertFalse(dec.preflight().isSuccessful()); // No executable
+
+        Files.createFile(dir.resolve("direwolf.exe"));
+        assertTrue(dec.preflight().isSuccessful());
+
+        int kissPort = ConfigurationUtils.getIntProperty("DECODER_KISS_PORT");
+        try (ServerSocket other = new ServerSocket(kissPort, 1, InetAddress.getLoopbackAddress())) {
+            assertTrue(other.isBound());
+            assertFalse(dec.preflight().isSuccessful()); // KISS port in use
+        }
+    }
+
+
+    @Test
+    public void testFeedAudio() throws InterruptedException {
+        DecoderDireWolf dec = new DecoderDireWolf();
+        AudioRingBuffer ring = new AudioRingBuffer(1024);
+        AtomicReference<AudioRingBuffer> source = new AtomicReference<>(); // Not capturing yet
+        assertTrue(dec.setAudioSource(source::get, 48000).isSuccessful());
+        ByteArrayOutputStream stdin = new ByteArrayOutputStream();
+        Thread feeder = Thread.ofPlatform().start(() -> dec.feedAudio(stdin, System.currentTimeMillis() + 300));
+
+        Thread.sleep(50);
+        source.set(ring); // Capture starts
+        Thread.sleep(50);
+        ring.write(new byte[]{0x12, 0x34, (byte) 0xFF, (byte) 0xFE}, 4); // Big-endian 0x1234, -2
+        feeder.join();
+        assertEquals(stdin.toByteArray(), new byte[]{0x34, 0x12, (byte) 0xFE, (byte) 0xFF}); // Little-endian
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.ResultUtils;
+import utils.enums.Verbosity;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class AsyncRotatorTest {
+
+    @BeforeClass
+    public void setUp() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @Test
+    public void testMoveCompletes() throws Exception {
+        Rotator rotator = Mockito.mock(Rotator.class);
+        Mockito.when(rotator.goToAzEl(10, 20)).thenReturn(ResultUtils.createSuccessfulResult());
+        AsyncRotator asyncRotator = new AsyncRotator(rotator);
+        assertTrue(asyncRotator.goToAzEl(10, 20).get(5, TimeUnit.SECONDS).isSuccessful());
+        assertFalse(asyncRotator.isMoving());
+        asyncRotator.shutdown();
+    }
+
+    @Test
+    public void testReplaceTarget() throws Exception {
+        Rotator rotator = Mockito.mock(Rotator.class);
+        Mockito.when(rotator.goToAzEl(10, 20)).thenAnswer(invocation -> {
+            TimeUnit.SECONDS.sleep(1); // Slow move, fails if interrupted
+            return ResultUtils.createSuccessfulResult();
+        });
+        Mockito.when(rotator.goToAzEl(30, 40)).thenReturn(ResultUtils.createSuccessfulResult());
+        Mockito.when(rotator.goToAzEl(50, 60)).thenReturn(ResultUtils.createSuccessfulResult());
+        AsyncRotator asyncRotator = new AsyncRotator(rotator);
+        CompletableFuture<ResultUtils> first = asyncRotator.goToAzEl(10, 20);
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertTrue(asyncRotator.isMoving());
+        CompletableFuture<ResultUtils> second = asyncRotator.goToAzEl(30, 40);
+        CompletableFuture<ResultUtils> third = asyncRotator.goToAzEl(50, 60);
+        assertTrue(second.isCancelled()); // Replaced before it started
+        assertTrue(third.get(5, TimeUnit.SECONDS).isSuccessful());
+        assertTrue(first.get().isSuccessful()); // Move in flight not interrupted
+        Mockito.verify(rotator, Mockito.never()).goToAzEl(30, 40);
+        asyncRotator.shutdown();
+    }
+
+    @Test
+    public void testRetargetMoveInFlight() throws Exception {
+        try (GS232BSimulator simulator = new GS232BSimulator("gs232bRetarget", 9600, 20, 10, 15)) {
+            simulator.start();
+            simulator.setPosition(0, 10);
+            RotatorGS232B rotator = new RotatorGS232B(simulator.getPort(), 9600);
+            assertTrue(rotator.readInstrument().isSuccessful());
+            AsyncRotator asyncRotator = new AsyncRotator(rotator);
+            long start = System.currentTimeMillis();
+            CompletableFuture<ResultUtils> first = asyncRotator.goToAzEl(300, 10); // 30 s move
+            TimeUnit.SECONDS.sleep(2);
+            CompletableFuture<ResultUtils> second = asyncRotator.goToAzEl(40, 10);
+            assertTrue(second.get(20, TimeUnit.SECONDS).isSuccessful());
+            assertTrue(first.get().isSuccessful()); // Redirected, so completes at the new target
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(elapsed < 15000, "Retarget took " + elapsed + "ms, move in flight was not redirected");
+            assertEquals(simulator.getAz(), 40, 2);
+            assertEquals(simulator.getAzTargetCount(), 2); // One W command per target, no resend
+            assertFalse(rotator.retarget(90, 10)); // No move in flight
+            asyncRotator.shutdown();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of {@link CivCodec} encoding and parsing, the work done for every Doppler update. Run with:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main CivCodecBenchmark -prof gc
+ * </pre>
+ * The gc profiler should report no allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CivCodecBenchmark {
+
+    // Echo of a read frequency command, a frequency broadcast, then the reply
+    private static final byte[] STREAM = {
+            (byte) 0xFE, (byte) 0xFE, 0x7C, (byte) 0xE0, 0x03, (byte) 0xFD,
+            (byte) 0xFE, (byte) 0xFE, 0x00, 0x7C, 0x00, 0x00, 0x50, 0x40, 0x45, 0x01, (byte) 0xFD,
+            (byte) 0xFE, (byte) 0xFE, (byte) 0xE0, 0x7C, 0x03, 0x00, 0x00, 0x31, 0x35, 0x04, (byte) 0xFD};
+
+    private CivCodec codec;
+    private long freqHz = 145800000L;
+
+    @Setup
+    public void setUp() {
+        codec = new CivCodec((byte) 0x7C, (byte) 0xE0);
+    }
+
+    @Benchmark
+    public int encodeFrequency() {
+        freqHz = freqHz == 145800000L ? 145801234L : 145800000L;
+        return codec.encodeFrequency((byte) 0x00, CivCodec.NO_SUB_COMMAND, freqHz);
+    }
+
+    @Benchmark
+    public long parseStream() {
+        long sum = 0;
+        for (byte b : STREAM) {
+            if (codec.accept(b) && codec.getCommand() <= 0x03) {
+                sum += codec.decodeFrequency(0);
+            }
+        }
+        return sum;
+    }
+
+}
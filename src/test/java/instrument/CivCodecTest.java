@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class CivCodecTest {
+
+    private static final byte RADIO = 0x7C;
+    private static final byte CONTROLLER = (byte) 0xE0;
+
+    /**
+     * Convert a captured byte stream written as hex to bytes.
+     */
+    private static byte[] hex(String stream) {
+        String[] parts = stream.trim().split("\\s+");
+        byte[] bytes = new byte[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(parts[i], 16);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testEncode() {
+        CivCodec codec = new CivCodec(RADIO, CONTROLLER);
+        int len = codec.encodeFrequency((byte) 0x00, CivCodec.NO_SUB_COMMAND, 145800000L);
+        assertEquals(java.util.Arrays.copyOf(codec.getTxBuffer(), len), hex("FE FE 7C E0 00 00 00 80 45 01 FD"));
+        len = codec.encode((byte) 0x07, 0xB0);
+        assertEquals(java.util.Arrays.copyOf(codec.getTxBuffer(), len), hex("FE FE 7C E0 07 B0 FD"));
+        len = codec.encode((byte) 0x01, CivCodec.NO_SUB_COMMAND, (byte) 0x05);
+        assertEquals(java.util.Arrays.copyOf(codec.getTxBuffer(), len), hex("FE FE 7C E0 01 05 FD"));
+    }
+
+    @Test
+    public void testEchoThenReply() {
+        // Read frequency: echo of the command, then the reply (435.310 MHz)
+        CivCodec codec = new CivCodec(RADIO, CONTROLLER);
+        byte[] stream = hex("FE FE 7C E0 03 FD FE FE E0 7C 03 00 00 31 35 04 FD");
+        int frames = 0;
+        for (byte b : stream) {
+            if (codec.accept(b)) {
+                frames++;
+                if (frames == 1) {
+                    assertFalse(codec.isReply()); // Echo
+                    assertEquals(codec.getFrom(), CONTROLLER);
+                } else {
+                    assertTrue(codec.isReply());
+                    assertEquals(codec.getCommand(), 0x03);
+                    assertEquals(codec.decodeFrequency(0), 435310000L);
+                }
+            }
+        }
+        assertEquals(frames, 2);
+    }
+
+    @Test
+    public void testInterleavedBroadcastAndAck() {
+        // Frequency broadcast (knob turned) arrives before the acknowledgement of a set mode command, split across
+        // several reads, with extra preamble bytes and noise between frames
+        CivCodec codec = new CivCodec(RADIO, CONTROLLER);
+        byte[][] reads = {hex("FE FE 7C E0 01 05 FD 00 FE FE FE 00"), hex("7C 00 00 50 40 45 01 FD FE"),
+                hex("FE E0 7C FB FD")};
+        int frames = 0;
+        for (byte[] read : reads) {
+            for (byte b : read) {
+                if (codec.accept(b)) {
+                    frames++;
+                    if (codec.isBroadcast()) {
+                        assertEquals(codec.decodeFrequency(0), 145405000L);
+                    } else if (codec.isReply()) {
+                        assertEquals(codec.getCommand(), CivCodec.ACK_OK);
+                        assertEquals(codec.getPayloadLength(), 0);
+                    }
+                }
+            }
+        }
+        assertEquals(frames, 3);
+        assertEquals(codec.getDiscardedFrames(), 0);
+    }
+
+    @Test
+    public void testCollisionAndTruncatedFrame() {
+        CivCodec codec = new CivCodec(RADIO, CONTROLLER);
+        // Collision (FC jammer), truncated frame restarted by a new preamble, then a valid NG acknowledgement
+        byte[] stream = hex("FE FE 7C E0 FC FC FC FD FE FE E0 7C 03 00 FE FE E0 7C FA FD");
+        int frames = 0;
+        for (byte b : stream) {
+            if (codec.accept(b)) {
+                frames++;
+                assertTrue(codec.isReply());
+                assertEquals(codec.getCommand(), CivCodec.ACK_NG);
+            }
+        }
+        assertEquals(frames, 1);
+        assertEquals(codec.getDiscardedFrames(), 2);
+    }
+
+    @Test
+    public void testInvalidBcd() {
+        CivCodec codec = new CivCodec(RADIO, CONTROLLER);
+        for (byte b : hex("FE FE E0 7C 03 00 0A 31 35 04 FD")) {
+            codec.accept(b);
+        }
+        assertEquals(codec.decodeFrequency(0), -1);
+    }
+}
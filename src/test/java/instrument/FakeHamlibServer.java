@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Minimal stand-in for rigctld/rotctld answering extended response commands, for testing the Hamlib instruments
+ * without Hamlib installed.
+ */
+class FakeHamlibServer implements AutoCloseable {
+
+    private final ServerSocket server;
+    private final Function<String[], String> handler;
+    private final List<String> commands = new CopyOnWriteArrayList<>();
+    private volatile int maxCommandsPerRead = 0;
+    private volatile Socket client;
+
+    /**
+     * Start a server on a free local port.
+     * @param handler Called with the command name and arguments (e.g. set_freq, 145000000). Returns the value lines
+     * of the response (e.g. "Frequency: 145000000\n"), or null to fail the command.
+     */
+    FakeHamlibServer(Function<String[], String> handler) throws IOException {
+        this.handler = handler;
+        this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this::serve, "FakeHamlibServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getAddress() {
+        return "localhost:" + server.getLocalPort();
+    }
+
+    List<String> getCommands() {
+        return commands;
+    }
+
+    int getMaxCommandsPerRead() {
+        return maxCommandsPerRead;
+    }
+
+    /**
+     * Drop the current connection, as if the daemon was restarted.
+     */
+    void dropClient() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket s = server.accept()) {
+                client = s;
+                InputStream in = s.getInputStream();
+                OutputStream out = s.getOutputStream();
+                byte[] buffer = new byte[1024];
+                StringBuilder line = new StringBuilder();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    StringBuilder reply = new StringBuilder();
+                    int count = 0;
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] != '\n') {
+                            line.append((char) buffer[i]);
+                            continue;
+                        }
+                        String[] cmd = line.toString().replaceFirst("^\\+\\\\", "").split(" ");
+                        line.setLength(0);
+                        commands.add(String.join(" ", cmd));
+                        count++;
+                        String body = handler.apply(cmd);
+                        reply.append(cmd[0]).append(':');
+                        for (int a = 1; a < cmd.length; a++) {
+                            reply.append(' ').append(cmd[a]);
+                        }
+                        reply.append('\n').append(body == null ? "" : body).append(body == null ? "RPRT -1\n" : "RPRT 0\n");
+                    }
+                    maxCommandsPerRead = Math.max(maxCommandsPerRead, count);
+                    out.write(reply.toString().getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Connection dropped or server closed, wait for the next connection
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        dropClient();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import data.TrackPlan;
+import utils.Log;
+import utils.enums.Verbosity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class GS232BSimulatorTest {
+
+    private GS232BSimulator simulator;
+    private RotatorGS232B rotator;
+
+    @BeforeClass
+    public void setupLog() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @BeforeMethod
+    public void setup() {
+        simulator = new GS232BSimulator("gs232bTest", 9600, 20, 30, 15);
+        simulator.start();
+        rotator = new RotatorGS232B(simulator.getPort(), 9600);
+    }
+
+    @AfterMethod
+    public void teardown() throws InterruptedException {
+        simulator.close();
+    }
+
+    @Test
+    public void testReadPosition() throws InterruptedException {
+        simulator.setPosition(123, 45);
+        assertTrue(rotator.readInstrument().isSuccessful());
+        assertEquals(rotator.getAz(), 123);
+        assertEquals(rotator.getEl(), 45);
+    }
+
+    @Test
+    public void testGoToAzElTakesSlewTime() throws InterruptedException {
+        assertTrue(rotator.readInstrument().isSuccessful());
+        long start = System.currentTimeMillis();
+        assertTrue(rotator.goToAzEl(60, 30).isSuccessful()); // 2 s for both axes
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 1800, "Move took " + elapsed + "ms");
+        assertEquals(simulator.getAz(), 60, 2);
+        assertEquals(simulator.getEl(), 30, 2);
+    }
+
+    @Test
+    public void testMoveAcrossNorthTravelsTheLongWay() throws InterruptedException {
+        // The controller never crosses north, so 350 to 10 deg is a 340 deg swing taking 8.5 s, not 20 deg
+        try (GS232BSimulator swing = new GS232BSimulator("gs232bSwing", 9600, 20, 40, 15)) {
+            swing.start();
+            RotatorGS232B swinging = new RotatorGS232B(swing.getPort(), 9600);
+            swing.setPosition(350, 10);
+            assertTrue(swinging.readInstrument().isSuccessful());
+            assertTrue(swinging.goToAzEl(10, 10).isSuccessful());
+            assertEquals(swing.getAz(), 10, 2);
+            assertEquals(swing.getAzTargetCount(), 1); // Not taken as stalled and resent
+        }
+    }
+
+    @Test
+    public void testTcpConnectionKeptOpen() throws IOException, InterruptedException {
+        // Stand-in for ser2net in front of the controller, answering every command with the position
+        AtomicInteger connections = new AtomicInteger();
+        try (ServerSocket ser2net = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread server = new Thread(() -> {
+                while (!ser2net.isClosed()) {
+                    try (Socket s = ser2net.accept()) {
+                        connections.incrementAndGet();
+                        InputStream in = s.getInputStream();
+                        int b;
+                        while ((b = in.read()) >= 0) {
+                            if (b == '\r') {
+                                s.getOutputStream().write("AZ=123  EL=045\r\n".getBytes(StandardCharsets.US_ASCII));
+                            }
+                        }
+                    } catch (IOException e) {
+                        // Connection closed by the driver or the server
+                    }
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+
+            RotatorGS232B tcpRotator = new RotatorGS232B("tcp://localhost:" + ser2net.getLocalPort(), 9600);
+            for (int i = 0; i < 5; i++) {
+                assertTrue(tcpRotator.readInstrument().isSuccessful());
+                assertEquals(tcpRotator.getAz(), 123);
+            }
+            assertEquals(connections.get(), 1); // Not reconnected for every command
+            tcpRotator.close();
+        }
+    }
+
+    @Test
+    public void testFirstSpeedIsAlwaysSent() throws InterruptedException {
+        simulator.setAzSpeedFraction(0.5); // Controller left at X2 by a previous run
+        assertEquals(rotator.getSpeedLevel(), 0);
+        assertTrue(rotator.setSpeedForRate(100, 0).isSuccessful()); // Needs full speed
+        assertEquals(rotator.getSpeedLevel(), 4);
+        assertEquals(simulator.getAzSpeedFraction(), 1.0);
+    }
+
+    @Test
+    public void testSlowBaudTruncatesReply() throws InterruptedException {
+        // At 600 baud the 16 byte reply takes longer than the driver waits, as it would with the hardware
+        try (GS232BSimulator slowSim = new GS232BSimulator("gs232bSlow", 600, 20, 30, 15)) {
+            slowSim.start();
+            RotatorGS232B slow = new RotatorGS232B(slowSim.getPort(), 600);
+            assertFalse(slow.readInstrument().isSuccessful());
+        }
+    }
+
+    @Test
+    public void testTimedTrack() throws InterruptedException {
+        simulator.setPosition(10, 10);
+        TrackPlan plan = new TrackPlan(List.of(10.0, 12.0, 14.0), List.of(10.0, 11.0, 12.0), false, false);
+        assertTrue(rotator.uploadTrack(plan, 1).isSuccessful());
+        assertTrue(rotator.startTrack().isSuccessful());
+        Thread.sleep(1300);
+        assertEquals(rotator.getTrackIndex(), 1);
+        assertEquals(simulator.getAz(), 12, 0.5);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import utils.ConfigurationUtils;
+import utils.LatencyHistogram;
+import utils.LatencyRegistry;
+import utils.Log;
+import utils.enums.Modulation;
+import utils.enums.Verbosity;
+
+import static org.testng.Assert.*;
+
+public class IC9100SimulatorTest {
+
+    private IC9100Simulator simulator;
+    private TransceiverIC9100 transceiver;
+
+    @BeforeClass
+    public void setupLog() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @BeforeMethod
+    public void setup() {
+        simulator = new IC9100Simulator("ic9100Test", 19200, 5, ConfigurationUtils.getByteProperty("TRANSCEIVER_ADDRESS"));
+        simulator.start();
+        transceiver = new TransceiverIC9100(simulator.getPort(), 19200);
+    }
+
+    @AfterMethod
+    public void teardown() throws InterruptedException {
+        simulator.close();
+    }
+
+    @Test
+    public void testReadInstrument() throws InterruptedException {
+        assertTrue(transceiver.testConnect().isSuccessful());
+        assertEquals(transceiver.getFrequencyHz(), 145800000);
+        assertEquals(transceiver.getModulation(), Modulation.FM);
+    }
+
+    @Test
+    public void testCommandLatencyRecorded() throws InterruptedException {
+        LatencyHistogram readFreq = LatencyRegistry.get("TransceiverIC9100 read freq");
+        long before = readFreq.getCount();
+        assertTrue(transceiver.readInstrument().isSuccessful());
+        assertEquals(readFreq.getCount(), before + 1);
+        assertTrue(readFreq.getMaxNanos() >= 5_000_000); // At least the simulator latency
+        assertTrue(LatencyRegistry.get("Serial " + simulator.getPort() + " write").getCount() > 0);
+    }
+
+    @Test
+    public void testSetFrequencySwapsBands() throws InterruptedException {
+        assertTrue(transceiver.readInstrument().isSuccessful());
+        assertTrue(transceiver.setFrequency(435310000).isSuccessful()); // UHF is on the sub band, needs a swap
+        assertEquals(simulator.getMainFrequencyHz(), 435310000);
+        assertEquals(simulator.getSubFrequencyHz(), 145800000);
+        assertTrue(transceiver.setModulation(Modulation.AM).isSuccessful());
+        assertTrue(transceiver.readInstrument().isSuccessful());
+        assertEquals(transceiver.getModulation(), Modulation.AM);
+    }
+
+    @Test
+    public void testSatelliteMode() throws InterruptedException {
+        assertTrue(transceiver.setSatelliteMode(true).isSuccessful());
+        assertTrue(simulator.isSatelliteMode());
+        assertTrue(transceiver.setSatelliteFrequencies(435310000, 145910000).isSuccessful());
+        assertEquals(simulator.getMainFrequencyHz(), 145910000); // Uplink on main
+        assertEquals(simulator.getSubFrequencyHz(), 435310000);
+        assertTrue(transceiver.setSatelliteFrequencies(435309000, 145911000).isSuccessful());
+        assertEquals(simulator.getSubFrequencyHz(), 435309000);
+        assertTrue(transceiver.setSatelliteMode(false).isSuccessful());
+        assertEquals(transceiver.getFrequencyHz(), 145911000); // Main band selected again, not the downlink
+    }
+
+    @Test
+    public void testTransceiveBroadcast() throws InterruptedException {
+        assertTrue(transceiver.readInstrument().isSuccessful());
+        assertTrue(simulator.turnDial(145850000));
+        Thread.sleep(50);
+        assertEquals(transceiver.getFrequencyHz(), 145850000);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.MemoryTransport;
+import utils.ResultUtils;
+import utils.enums.Verbosity;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class InstrumentDiscoveryTest {
+
+    @BeforeClass
+    public void setup() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @Test
+    public void testVerify() throws InterruptedException {
+        try (GS232BSimulator simulator = new GS232BSimulator("discoveryVerify", 9600, 5, 30, 15)) {
+            simulator.start();
+            assertTrue(InstrumentDiscovery.verify(new RotatorGS232B(simulator.getPort(), 9600)).isSuccessful());
+        }
+        assertFalse(InstrumentDiscovery.verify(new RotatorGS232B("mem://discoveryNobody", 9600)).isSuccessful());
+        MemoryTransport.removePipe("discoveryNobody");
+    }
+
+    @Test
+    public void testScanFindsPortInParallel() throws InterruptedException {
+        try (GS232BSimulator simulator = new GS232BSimulator("discovery1", 9600, 5, 30, 15)) {
+            simulator.start();
+            List<String> ports = List.of("mem://discovery0", "mem://discovery1", "mem://discovery2");
+            long start = System.currentTimeMillis();
+            Rotator found = InstrumentDiscovery.scan("RotatorGS232B", ports, new int[]{4800, 9600},
+                    (port, baud) -> InstrumentFactory.createRotator("RotatorGS232B", port, baud));
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertNotNull(found);
+            assertTrue(found.readInstrument().isSuccessful());
+            // Each failed port takes 2 attempts of at least 250ms, done one port after another this would take 1.5s
+            assertTrue(elapsed < 1200, "Scan took " + elapsed + "ms");
+        } finally {
+            MemoryTransport.removePipe("discovery0");
+            MemoryTransport.removePipe("discovery2");
+        }
+    }
+
+    @Test
+    public void testScanNotFound() throws InterruptedException {
+        Rotator found = InstrumentDiscovery.scan("RotatorGS232B", List.of("mem://discoveryNone", "COM_DOES_NOT_EXIST"),
+                new int[]{9600}, (port, baud) -> InstrumentFactory.createRotator("RotatorGS232B", port, baud));
+        assertNull(found);
+        MemoryTransport.removePipe("discoveryNone");
+    }
+
+    @Test
+    public void testScanClosesFailedCandidates() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        Instrument found = InstrumentDiscovery.scan("CountingInstrument", List.of("A", "B", "C"), new int[]{4800, 9600},
+                (port, baud) -> {
+                    created.incrementAndGet();
+                    boolean present = !port.equals("A") && baud == 9600; // Answers on both B and C
+                    return new Instrument() {
+                        public ResultUtils readInstrument() {
+                            return present ? ResultUtils.createSuccessfulResult() : ResultUtils.createFailedResult();
+                        }
+
+                        public ResultUtils testConnect() {
+                            return readInstrument();
+                        }
+
+                        public void close() {
+                            closed.incrementAndGet();
+                        }
+                    };
+                });
+
+        assertNotNull(found);
+        assertEquals(created.get(), 6);
+        // 4 failed attempts, plus the instrument found on C as B comes first
+        assertEquals(closed.get(), 5);
+    }
+}
@@ -58,6 +58,12 @@ public class InstrumentFactoryTest {
         }
     }
 
+    @Test
+    public void testCreateInstrumentHamlib() throws InterruptedException {
+        assertTrue(InstrumentFactory.createRotator("RotatorHamlib") instanceof RotatorHamlib);
+        assertTrue(InstrumentFactory.createTransceiver("TransceiverHamlib") instanceof TransceiverHamlib);
+    }
+
     @Test
     public void testCreateInstrumentEmptyString() {
         assertThrows(RuntimeException.class, () -> {
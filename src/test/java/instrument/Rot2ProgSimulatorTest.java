@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.MemoryTransport;
+import utils.enums.Verbosity;
+
+import static org.testng.Assert.*;
+
+public class Rot2ProgSimulatorTest {
+
+    private Rot2ProgSimulator simulator;
+    private RotatorRot2ProgImpl rotator;
+
+    @BeforeClass
+    public void setupLog() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @BeforeMethod
+    public void setup() {
+        simulator = new Rot2ProgSimulator("rot2progTest", 600, 20, 30, 15);
+        simulator.start();
+        rotator = new RotatorRot2ProgImpl(simulator.getPort(), 600);
+    }
+
+    @AfterMethod
+    public void teardown() throws InterruptedException {
+        simulator.close();
+    }
+
+    @Test
+    public void testReadPositionEncoding() throws InterruptedException {
+        simulator.setPosition(-20, 100); // Sent as 340 and 460
+        assertTrue(rotator.readInstrument().isSuccessful());
+        assertEquals(rotator.getAz(), 340); // Reported in the 0-359 range
+        assertEquals(rotator.getEl(), 100);
+    }
+
+    @Test
+    public void testGoToExtendedAz() throws InterruptedException {
+        simulator.setPosition(350, 10);
+        assertTrue(rotator.readInstrument().isSuccessful());
+        assertTrue(rotator.goToAzEl(370, 10).isSuccessful()); // Across north without unwinding
+        assertEquals(simulator.getAz(), 370, 1);
+    }
+
+    @Test
+    public void testWholeTurnIsNotArrival() throws InterruptedException {
+        try (Rot2ProgSimulator fast = new Rot2ProgSimulator("rot2progTurn", 600, 20, 180, 15)) {
+            fast.start();
+            RotatorRot2ProgImpl turning = new RotatorRot2ProgImpl(fast.getPort(), 600);
+            fast.setPosition(-60, 10);
+            assertTrue(turning.readInstrument().isSuccessful());
+            assertEquals(turning.getAz(), 300);
+            assertEquals(turning.getAzExtended(), -60);
+            assertTrue(turning.goToAzEl(300, 10).isSuccessful()); // Same direction, but a whole turn away
+            assertEquals(fast.getAz(), 300, 1);
+            assertEquals(turning.getAzExtended(), 300, 1);
+        }
+    }
+
+    @Test
+    public void testStatusFrame() throws InterruptedException {
+        simulator.setPosition(10.5, 0);
+        MemoryTransport host = MemoryTransport.host("rot2progTest");
+        host.open();
+        byte[] status = {0x57, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x1F, 0x20};
+        host.write(status, status.length);
+        Thread.sleep(600); // 13 bytes out and 12 back at 600 baud
+        byte[] rst = new byte[16];
+        assertEquals(host.read(rst, rst.length), 12);
+        assertEquals(new byte[]{rst[1], rst[2], rst[3], rst[4], rst[5]}, new byte[]{3, 7, 0, 5, 10}); // 370.5 deg
+        assertEquals(new byte[]{rst[6], rst[7], rst[8], rst[9]}, new byte[]{3, 6, 0, 0}); // 360.0 deg
+        host.close();
+    }
+}
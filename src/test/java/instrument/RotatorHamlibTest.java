@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.enums.Verbosity;
+
+import java.io.IOException;
+
+import static org.testng.Assert.*;
+
+public class RotatorHamlibTest {
+
+    private FakeHamlibServer rotctld;
+    private RotatorHamlib rotator;
+    private volatile double az;
+    private volatile double el;
+    private volatile boolean stuck;
+    private volatile long replyDelayMillis; // Delay of the next get_pos reply
+
+    @BeforeClass
+    public void setupLog() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        az = 10.4;
+        el = 5.0;
+        stuck = false;
+        replyDelayMillis = 0;
+        rotctld = new FakeHamlibServer(cmd -> switch (cmd[0]) {
+            case "get_pos" -> position();
+            case "set_pos" -> {
+                if (!stuck) { // Arrives by the next poll
+                    az = Double.parseDouble(cmd[1]);
+                    el = Double.parseDouble(cmd[2]);
+                }
+                yield "";
+            }
+            default -> null;
+        });
+        rotator = new RotatorHamlib(rotctld.getAddress());
+    }
+
+    /**
+     * Reply to get_pos with the position at the time the command was received, after any reply delay.
+     */
+    private String position() {
+        String rst = String.format("Azimuth: %.6f\nElevation: %.6f\n", az, el);
+        long delay = replyDelayMillis;
+        replyDelayMillis = 0;
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return rst;
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        rotator.close();
+        rotctld.close();
+    }
+
+    @Test
+    public void testReadInstrument() throws InterruptedException {
+        assertTrue(rotator.testConnect().isSuccessful());
+        assertEquals(rotator.getAz(), 10);
+        assertEquals(rotator.getEl(), 5);
+    }
+
+    @Test
+    public void testLateReplyIsDiscarded() throws InterruptedException {
+        replyDelayMillis = 2500; // Longer than the response timeout
+        assertFalse(rotator.readInstrument().isSuccessful());
+        az = 200.0;
+        assertTrue(rotator.readInstrument().isSuccessful());
+        assertEquals(rotator.getAz(), 200); // Not the late reply to the first read
+    }
+
+    @Test
+    public void testGoToAzEl() throws InterruptedException {
+        assertTrue(rotator.readInstrument().isSuccessful());
+        assertTrue(rotator.goToAzEl(200, 45).isSuccessful());
+        assertTrue(rotctld.getCommands().contains("set_pos 200 45"));
+        assertEquals(rotator.getAz(), 200, 1);
+        assertEquals(rotator.getEl(), 45, 1);
+    }
+
+    @Test
+    public void testGoToWithinTolerance() throws InterruptedException {
+        assertTrue(rotator.readInstrument().isSuccessful());
+        assertTrue(rotator.goToAzEl(11, 6).isSuccessful());
+        assertEquals(rotctld.getCommands().size(), 1); // Only the read
+    }
+
+    @Test
+    public void testGoToOutOfRange() throws InterruptedException {
+        assertFalse(rotator.goToAzEl(360, 0).isSuccessful());
+        assertFalse(rotator.goToAzEl(0, rotator.getMaxEl() + 1).isSuccessful());
+    }
+
+    @Test
+    public void testStalledRotatorFails() throws InterruptedException {
+        stuck = true;
+        assertTrue(rotator.readInstrument().isSuccessful());
+        long start = System.currentTimeMillis();
+        assertFalse(rotator.goToAzEl(40, 5).isSuccessful());
+        assertTrue(System.currentTimeMillis() - start < 40000);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class RotatorMotionModelTest {
+
+    @Test
+    public void testPredictScalesWithDistance() {
+        RotatorMotionModel model = new RotatorMotionModel(6, 3, 2, 2);
+        assertEquals(model.predictMillis(0, 0, 60, 0), 10000);
+        assertEquals(model.predictMillis(0, 0, 0, 60), 20000);
+        assertEquals(model.predictMillis(350, 0, 10, 0), model.predictMillis(0, 0, 20, 0)); // Shortest path across north
+        model.startMove(0, 0, 6, 0);
+        assertTrue(model.getTimeoutMillis() < 40000);
+    }
+
+    @Test
+    public void testLearnSlewRate() throws InterruptedException {
+        RotatorMotionModel model = new RotatorMotionModel(1, 1, 2, 2);
+        model.startMove(0, 0, 180, 0);
+        for (int az = 10; az <= 100; az += 10) { // Moving at ~20 deg/s
+            TimeUnit.MILLISECONDS.sleep(500);
+            model.update(az, 0);
+        }
+        assertTrue(model.getAzRateDegPerS() > 10);
+        assertEquals(model.getElRateDegPerS(), 1, 1e-9); // Elevation did not move
+        assertFalse(model.isStalled());
+    }
+
+    @Test
+    public void testStallDetected() throws InterruptedException {
+        RotatorMotionModel model = new RotatorMotionModel(6, 3, 2, 2);
+        model.startMove(0, 0, 90, 0);
+        for (int i = 0; i < 9; i++) { // No progress for 4.5 s
+            TimeUnit.MILLISECONDS.sleep(500);
+            model.update(0, 0);
+        }
+        assertTrue(model.isStalled());
+        assertFalse(model.isTimedOut());
+    }
+}
@@ -65,7 +65,8 @@ public class RotatorRot2ProgImplTest {
         Log.info("AZ: " + rotatorRot2Prog.getAz());
         Log.info("EL: " + rotatorRot2Prog.getEl());
 
-        Assert.assertFalse(rotatorRot2Prog.goToAz(-1).isSuccessful());
+        Assert.assertFalse(rotatorRot2Prog.goToAz(-181).isSuccessful()); // Outside of -180 - 540 overlap range
+        Assert.assertFalse(rotatorRot2Prog.goToAz(541).isSuccessful());
         Assert.assertFalse(rotatorRot2Prog.goToEl(-1).isSuccessful());
 
     }
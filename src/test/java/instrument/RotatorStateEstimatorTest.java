@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class RotatorStateEstimatorTest {
+
+    @Test
+    public void testPredictMove() throws InterruptedException {
+        RotatorStateEstimator estimator = new RotatorStateEstimator(new RotatorMotionModel(20, 10, 2, 2));
+        estimator.correct(0, 0);
+        assertEquals(estimator.getAz(), 0, 0.1);
+        assertTrue(estimator.getUncertaintyDeg() < 1);
+
+        estimator.startMove(100, 5);
+        TimeUnit.MILLISECONDS.sleep(1000);
+        assertEquals(estimator.getAz(), 20, 3); // Moving at 20 deg/s
+        assertEquals(estimator.getEl(), 5, 1e-9); // Arrived after 0.5 s
+        assertTrue(estimator.getUncertaintyDeg() > 1); // Uncertain after moving without a readback
+    }
+
+    @Test
+    public void testCorrect() {
+        RotatorStateEstimator estimator = new RotatorStateEstimator(new RotatorMotionModel(6, 3, 2, 2));
+        estimator.correct(10, 10);
+        estimator.correct(11, 10); // Within expected error, filtered
+        assertTrue(estimator.getAz() > 10 && estimator.getAz() < 11);
+        estimator.correct(90, 45); // Far outside expected error (e.g. moved by hand), taken as-is
+        assertEquals(estimator.getAz(), 90, 1e-9);
+        assertEquals(estimator.getEl(), 45, 1e-9);
+    }
+
+    @Test
+    public void testPollDelay() {
+        RotatorStateEstimator estimator = new RotatorStateEstimator(new RotatorMotionModel(6, 3, 2, 2));
+        estimator.correct(0, 0);
+        estimator.startMove(180, 0);
+        long delayMillis = estimator.getPollDelayMillis();
+        assertTrue(delayMillis > 200 && delayMillis <= 2000); // Long move, poll at the uncertainty limit
+
+        estimator.correct(179, 0);
+        assertEquals(estimator.getPollDelayMillis(), 200); // About to arrive, poll to confirm
+    }
+}
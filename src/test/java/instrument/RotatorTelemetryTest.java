@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.enums.Verbosity;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class RotatorTelemetryTest {
+
+    @BeforeClass
+    public void setUp() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @Test
+    public void testRingBufferWrap() {
+        RotatorTelemetry telemetry = new RotatorTelemetry(Mockito.mock(Rotator.class), 1, 4);
+        RotatorTelemetry.Cursor cursor = telemetry.newCursor();
+        long[] t = new long[8];
+        double[] az = new double[8];
+        double[] el = new double[8];
+        for (int i = 0; i < 3; i++) {
+            telemetry.record(1000L * i, i, 2 * i);
+        }
+        assertEquals(telemetry.read(cursor, t, az, el), 3);
+        assertEquals(az[2], 2.0);
+        assertEquals(el[2], 4.0);
+        assertEquals(telemetry.read(cursor, t, az, el), 0); // Nothing new
+
+        for (int i = 3; i < 10; i++) { // Overwrites samples 3 to 5 before they are read
+            telemetry.record(1000L * i, i, 2 * i);
+        }
+        assertEquals(telemetry.read(cursor, t, az, el), 4);
+        assertEquals(t[0], 6000);
+        assertEquals(az[3], 9.0);
+        assertEquals(cursor.getMissed(), 3);
+        assertEquals(telemetry.getSequence(), 10);
+    }
+
+    @Test
+    public void testSampler() throws InterruptedException {
+        Rotator rotator = Mockito.mock(Rotator.class);
+        Mockito.when(rotator.getLastReadback()).thenAnswer(invocation ->
+                new RotatorReadback(System.currentTimeMillis(), 123, 45)); // Driver polling faster than the sampler
+        RotatorTelemetry telemetry = new RotatorTelemetry(rotator, 20, 100);
+        telemetry.start();
+        TimeUnit.MILLISECONDS.sleep(500);
+        telemetry.stop();
+
+        long[] t = new long[100];
+        double[] az = new double[100];
+        double[] el = new double[100];
+        int n = telemetry.read(telemetry.newCursor(), t, az, el);
+        assertTrue(n >= 5);
+        assertEquals(az[n-1], 123.0);
+        assertEquals(el[n-1], 45.0);
+        assertTrue(t[n-1] >= t[0]);
+        Mockito.verify(rotator, Mockito.never()).readInstrument(); // No serial transactions of its own
+    }
+
+    @Test
+    public void testSamplerRecordsEachReadbackOnce() throws InterruptedException {
+        try (GS232BSimulator simulator = new GS232BSimulator("gs232bTelemetry", 9600, 20, 30, 15)) {
+            simulator.start();
+            RotatorGS232B rotator = new RotatorGS232B(simulator.getPort(), 9600);
+            RotatorTelemetry telemetry = new RotatorTelemetry(rotator, 20, 100);
+            telemetry.start();
+            TimeUnit.MILLISECONDS.sleep(200);
+            assertEquals(telemetry.getSequence(), 0); // Not read yet
+            assertTrue(rotator.readInstrument().isSuccessful());
+            TimeUnit.MILLISECONDS.sleep(200);
+            assertEquals(telemetry.getSequence(), 1); // Same readback not recorded again
+            assertTrue(rotator.goToAzEl(60, 30).isSuccessful()); // Polled while moving
+            TimeUnit.MILLISECONDS.sleep(200); // Collect the poll on arrival
+            telemetry.stop();
+
+            long[] t = new long[100];
+            double[] az = new double[100];
+            double[] el = new double[100];
+            int n = telemetry.read(telemetry.newCursor(), t, az, el);
+            assertTrue(n >= 2, "Only " + n + " samples"); // At least the read above and the poll on arrival
+            assertEquals(az[n-1], 60, 2);
+            assertEquals(el[n-1], 30, 2);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package instrument;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.ResultUtils;
+import utils.enums.Verbosity;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class SetpointActorTest {
+
+    @BeforeClass
+    public void setUp() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @Test
+    public void testLatestSetpointWins() throws InterruptedException {
+        List<Integer> sent = new CopyOnWriteArrayList<>();
+        SetpointActor<Integer> actor = SetpointActor.start("Slow", setpoint -> {
+            TimeUnit.MILLISECONDS.sleep(300); // Slow instrument
+            sent.add(setpoint);
+            return ResultUtils.createSuccessfulResult();
+        });
+        actor.submit(1);
+        TimeUnit.MILLISECONDS.sleep(100); // First setpoint in progress
+        for (int i = 2; i <= 5; i++) {
+            actor.submit(i);
+        }
+        actor.close();
+        assertEquals(sent, List.of(1, 5));
+        assertEquals(actor.getSubmittedCount(), 5);
+        assertEquals(actor.getCoalescedCount(), 3);
+        assertFalse(actor.isBusy());
+    }
+
+    @Test
+    public void testFailureCounted() throws InterruptedException {
+        SetpointActor<Long> actor = SetpointActor.start("Failing", setpoint -> ResultUtils.createFailedResult());
+        actor.submit(145800000L);
+        actor.close();
+        assertEquals(actor.getFailedCount(), 1);
+        assertEquals(actor.getCoalescedCount(), 0);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package instrument;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.enums.Modulation;
+import utils.enums.Verbosity;
+
+import java.io.IOException;
+
+import static org.testng.Assert.*;
+
+public class TransceiverHamlibTest {
+
+    private FakeHamlibServer rigctld;
+    private TransceiverHamlib transceiver;
+    private volatile long freqHz;
+    private volatile long splitFreqHz;
+    private volatile String mode;
+    private volatile boolean fail;
+
+    @BeforeClass
+    public void setupLog() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        freqHz = 435300000;
+        splitFreqHz = 0;
+        mode = "FM";
+        fail = false;
+        rigctld = new FakeHamlibServer(cmd -> fail ? null : switch (cmd[0]) {
+            case "get_freq" -> "Frequency: " + freqHz + "\n";
+            case "get_mode" -> "Mode: " + mode + "\nPassband: 15000\n";
+            case "set_freq" -> {
+                freqHz = Long.parseLong(cmd[1]);
+                yield "";
+            }
+            case "set_split_freq" -> {
+                splitFreqHz = Long.parseLong(cmd[1]);
+                yield "";
+            }
+            case "set_mode" -> {
+                mode = cmd[1];
+                yield "";
+            }
+            case "set_split_vfo" -> "";
+            default -> null;
+        });
+        transceiver = new TransceiverHamlib(rigctld.getAddress());
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        transceiver.close();
+        rigctld.close();
+    }
+
+    @Test
+    public void testReadInstrumentPipelined() throws InterruptedException {
+        assertTrue(transceiver.testConnect().isSuccessful());
+        assertEquals(transceiver.getFrequencyHz(), 435300000);
+        assertEquals(transceiver.getModulation(), Modulation.FM);
+        assertEquals(rigctld.getMaxCommandsPerRead(), 2); // get_freq and get_mode sent together
+    }
+
+    @Test
+    public void testSetFrequencyAndMode() throws InterruptedException {
+        assertTrue(transceiver.setFrequency(145800000).isSuccessful());
+        assertTrue(transceiver.setModulation(Modulation.AM).isSuccessful());
+        assertTrue(transceiver.readInstrument().isSuccessful());
+        assertEquals(transceiver.getFrequencyHz(), 145800000);
+        assertEquals(transceiver.getModulation(), Modulation.AM);
+        assertEquals(rigctld.getCommands().get(1), "set_mode AM 0");
+    }
+
+    @Test
+    public void testSetFrequencyOutOfBand() throws InterruptedException {
+        assertFalse(transceiver.setFrequency(1000).isSuccessful());
+        assertTrue(rigctld.getCommands().isEmpty());
+    }
+
+    @Test
+    public void testSatelliteFrequencies() throws InterruptedException {
+        assertTrue(transceiver.supportsSatelliteMode());
+        assertTrue(transceiver.setSatelliteMode(true).isSuccessful());
+        assertTrue(transceiver.setSatelliteFrequencies(435310000, 145910000).isSuccessful());
+        assertEquals(freqHz, 435310000);
+        assertEquals(splitFreqHz, 145910000);
+        assertEquals(transceiver.getUplinkFrequencyHz(), 145910000);
+    }
+
+    @Test
+    public void testHamlibError() throws InterruptedException, IOException {
+        mode = "USB";
+        assertTrue(transceiver.readInstrument().isSuccessful()); // Unsupported mode leaves modulation unchanged
+        assertNull(transceiver.getModulation());
+        fail = true;
+        assertFalse(transceiver.setSatelliteFrequencies(435310000, 145910000).isSuccessful());
+        assertEquals(transceiver.getUplinkFrequencyHz(), 0);
+        rigctld.close();
+        assertFalse(transceiver.readInstrument().isSuccessful());
+    }
+
+    @Test
+    public void testReconnect() throws InterruptedException, IOException {
+        assertTrue(transceiver.readInstrument().isSuccessful());
+        rigctld.dropClient();
+        Thread.sleep(100);
+        assertTrue(transceiver.readInstrument().isSuccessful());
+    }
+}
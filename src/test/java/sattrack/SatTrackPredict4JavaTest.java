@@ -23,6 +23,10 @@ import org.mockito.Mockito;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.util.List;
+
+import static org.testng.Assert.*;
+
 public class SatTrackPredict4JavaTest {
 
     SatelliteData sat;
@@ -48,4 +52,15 @@ public class SatTrackPredict4JavaTest {
         System.out.println(nextPass);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGetNext48hOfPassesOrdered() {
+        SatTrack tracker = new SatTrackPredict4Java();
+        List<PassData> passes = tracker.getNext48hOfPasses(sat);
+        assertFalse(passes.isEmpty());
+        for (int i = 1; i < passes.size(); i++) { // Passes must be returned in AOS order
+            assertTrue(passes.get(i).getAos().isAfter(passes.get(i-1).getAos()));
+            assertEquals(passes.get(i).getAzProfile().size(), passes.get(i).getElProfile().size());
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tracking;
+
+import data.PassData;
+import data.SatelliteData;
+import instrument.Transceiver;
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.ResultUtils;
+import utils.enums.Verbosity;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class DopplerEngineTest {
+
+    @BeforeClass
+    public void setup() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    /**
+     * Create a pass with the downlink falling 1 kHz per 5 s sample and the uplink rising 300 Hz per sample.
+     */
+    private PassData createPass(ZonedDateTime aos) {
+        List<Double> azProfile = new ArrayList<>();
+        List<Double> elProfile = new ArrayList<>();
+        List<Long> dlProfile = new ArrayList<>();
+        List<Long> ulProfile = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            azProfile.add(0.0);
+            elProfile.add(10.0);
+            dlProfile.add(435310000L - 1000L * i);
+            ulProfile.add(145850000L + 300L * i);
+        }
+        return new PassData(Mockito.mock(SatelliteData.class), aos, aos.plusSeconds(45), 5, azProfile, elProfile,
+                dlProfile, ulProfile);
+    }
+
+    @Test
+    public void testInterpolate() {
+        ZonedDateTime aos = ZonedDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+        PassData pass = createPass(aos);
+        DopplerEngine engine = new DopplerEngine(Mockito.mock(Transceiver.class), pass, 2, 50, false);
+        long aosMillis = aos.toInstant().toEpochMilli();
+        assertEquals(engine.desiredFreqHz(pass.getDlFreqHzAdjProfile(), aosMillis + 2500), 435309500L);
+        assertEquals(engine.desiredFreqHz(pass.getDlFreqHzAdjProfile(), aosMillis - 1000), 435310000L); // Before AOS
+        assertEquals(engine.desiredFreqHz(pass.getDlFreqHzAdjProfile(), aosMillis + 100000), 435301000L); // After LOS
+    }
+
+    @Test
+    public void testDeadband() throws InterruptedException {
+        ZonedDateTime aos = ZonedDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+        Transceiver transceiver = Mockito.mock(Transceiver.class);
+        Mockito.when(transceiver.setFrequency(Mockito.anyLong())).thenReturn(ResultUtils.createSuccessfulResult());
+        DopplerEngine engine = new DopplerEngine(transceiver, createPass(aos), 10, 50, false);
+        long aosMillis = aos.toInstant().toEpochMilli();
+        for (long t = 0; t <= 5000; t += 100) { // 200 Hz/s, so a retune every ~300 ms with a 50 Hz deadband
+            engine.tick(aosMillis + t);
+        }
+        assertTrue(engine.getRetuneCount() >= 15 && engine.getRetuneCount() <= 20);
+        assertTrue(engine.getMaxErrorHz() <= 80);
+        Mockito.verify(transceiver).setFrequency(435310000L); // First retune at AOS
+    }
+
+    @Test
+    public void testSatelliteMode() throws InterruptedException {
+        ZonedDateTime aos = ZonedDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+        Transceiver transceiver = Mockito.mock(Transceiver.class);
+        Mockito.when(transceiver.setSatelliteFrequencies(Mockito.anyLong(), Mockito.anyLong()))
+                .thenReturn(ResultUtils.createSuccessfulResult());
+        DopplerEngine engine = new DopplerEngine(transceiver, createPass(aos), 1, 1000, true);
+        long aosMillis = aos.toInstant().toEpochMilli();
+        engine.tick(aosMillis);
+        engine.tick(aosMillis + 1000); // Within the deadband on both bands
+        Mockito.verify(transceiver, Mockito.times(1)).setSatelliteFrequencies(435310000L, 145850000L);
+        Mockito.verify(transceiver, Mockito.never()).setFrequency(Mockito.anyLong());
+        assertEquals(engine.getRetuneCount(), 1);
+    }
+
+    @Test
+    public void testHoldDownlink() throws InterruptedException {
+        ZonedDateTime aos = ZonedDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+        Transceiver transceiver = Mockito.mock(Transceiver.class);
+        Mockito.when(transceiver.setSatelliteFrequencies(Mockito.anyLong(), Mockito.anyLong()))
+                .thenReturn(ResultUtils.createSuccessfulResult());
+        DopplerEngine engine = new DopplerEngine(transceiver, createPass(aos), 1, 100, true);
+        engine.holdDownlink(435310000L);
+        long aosMillis = aos.toInstant().toEpochMilli();
+        for (long t = 0; t <= 10000; t += 1000) { // Uplink rises 60 Hz/s, downlink falls 200 Hz/s
+            engine.tick(aosMillis + t);
+        }
+        Mockito.verify(transceiver).setSatelliteFrequencies(435310000L, 145850000L);
+        Mockito.verify(transceiver).setSatelliteFrequencies(435310000L, 145850120L); // Uplink retuned, downlink held
+        Mockito.verify(transceiver, Mockito.never()).setSatelliteFrequencies(Mockito.longThat(f -> f != 435310000L),
+                Mockito.anyLong());
+        assertTrue(engine.getMaxErrorHz() <= 120); // Uplink error, the downlink shift is removed from the audio
+    }
+}
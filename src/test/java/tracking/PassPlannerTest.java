@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tracking;
+
+import data.PassData;
+import data.SatelliteData;
+import data.TrackPlan;
+import instrument.Rotator;
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.enums.Verbosity;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class PassPlannerTest {
+
+    SatelliteData sat;
+
+    @BeforeClass
+    public void setup() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+        sat = Mockito.mock(SatelliteData.class);
+    }
+
+    /**
+     * Create a pass travelling along a straight line from startAz through to startAz + 180, peaking at maxEl.
+     */
+    private PassData createPass(double startAz, double maxEl) {
+        List<Double> azProfile = new ArrayList<>();
+        List<Double> elProfile = new ArrayList<>();
+        List<Long> freqProfile = new ArrayList<>();
+        int numSamples = 61;
+        for (int i = 0; i < numSamples; i++) {
+            double el = maxEl * Math.sin(Math.PI * i / (numSamples - 1));
+            azProfile.add(i < numSamples / 2 ? startAz : (startAz + 180) % 360);
+            elProfile.add(el);
+            freqProfile.add(435000000L);
+        }
+        ZonedDateTime aos = ZonedDateTime.now(ZoneId.of("UTC"));
+        return new PassData(sat, aos, aos.plusSeconds(5 * (numSamples - 1)), 5, azProfile, elProfile, freqProfile);
+    }
+
+    private Rotator createRotator(int maxEl) {
+        return createRotator(maxEl, 0, 359);
+    }
+
+    private Rotator createRotator(int maxEl, int minAz, int maxAz) {
+        Rotator rotator = Mockito.mock(Rotator.class);
+        Mockito.when(rotator.getMaxEl()).thenReturn(maxEl);
+        Mockito.when(rotator.getMinAz()).thenReturn(minAz);
+        Mockito.when(rotator.getMaxAz()).thenReturn(maxAz);
+        Mockito.when(rotator.getAz()).thenReturn(0);
+        return rotator;
+    }
+
+    /**
+     * Create a low pass sweeping in azimuth from startAz by sweepAz degrees.
+     */
+    private PassData createSweepPass(double startAz, double sweepAz) {
+        List<Double> azProfile = new ArrayList<>();
+        List<Double> elProfile = new ArrayList<>();
+        List<Long> freqProfile = new ArrayList<>();
+        int numSamples = 61;
+        for (int i = 0; i < numSamples; i++) {
+            azProfile.add((startAz + sweepAz * i / (numSamples - 1)) % 360);
+            elProfile.add(30 * Math.sin(Math.PI * i / (numSamples - 1)));
+            freqProfile.add(435000000L);
+        }
+        ZonedDateTime aos = ZonedDateTime.now(ZoneId.of("UTC"));
+        return new PassData(sat, aos, aos.plusSeconds(5 * (numSamples - 1)), 5, azProfile, elProfile, freqProfile);
+    }
+
+    @Test
+    public void testKeyholePassFlipped() {
+        PassData pass = createPass(10, 89);
+        TrackPlan plan = PassPlanner.plan(pass, createRotator(180));
+        assertTrue(plan.isFlipped());
+        assertTrue(PassPlanner.totalSlew(plan) < PassPlanner.totalSlew(pass.getTrackPlan()));
+        for (int i = 0; i < plan.getAzTrack().size(); i++) { // Azimuth held constant, elevation passes over zenith
+            assertEquals(plan.getAzTrack().get(i), plan.getAzTrack().getFirst(), 1e-9);
+            assertTrue(plan.getElTrack().get(i) >= 0 && plan.getElTrack().get(i) <= 180);
+        }
+    }
+
+    @Test
+    public void testKeyholePassNotFlippedWithoutRotatorSupport() {
+        PassData pass = createPass(10, 89);
+        TrackPlan plan = PassPlanner.plan(pass, createRotator(90));
+        assertFalse(plan.isFlipped());
+        assertEquals(plan.getAzTrack(), pass.getAzProfile());
+        assertEquals(plan.getElTrack(), pass.getElProfile());
+    }
+
+    @Test
+    public void testLowPassNotFlipped() {
+        PassData pass = createPass(10, 30);
+        TrackPlan plan = PassPlanner.plan(pass, createRotator(180));
+        assertFalse(plan.isFlipped());
+    }
+
+    @Test
+    public void testUnwrapFromExtendedPosition() {
+        PassData pass = createSweepPass(300, 120);
+        Rotator rotator = createRotator(180, -180, 540);
+        Mockito.when(rotator.getAz()).thenReturn(300); // Turned anticlockwise past north to -60 deg
+        Mockito.when(rotator.getAzExtended()).thenReturn(-60);
+        TrackPlan plan = PassPlanner.plan(pass, rotator);
+        assertTrue(plan.isUnwrapped());
+        assertEquals(plan.getAzTrack().getFirst(), -60.0, 1e-9); // Not 300, a whole turn away
+        assertEquals(plan.getAzTrack().getLast(), 60.0, 1e-9);
+
+        Mockito.when(rotator.getAz()).thenReturn(60); // Turned clockwise past north to 420 deg
+        Mockito.when(rotator.getAzExtended()).thenReturn(420);
+        plan = PassPlanner.plan(pass, rotator);
+        assertEquals(plan.getAzTrack().getFirst(), 300.0, 1e-9);
+        assertEquals(plan.getAzTrack().getLast(), 420.0, 1e-9);
+    }
+
+    @Test
+    public void testPassCrossingNorthUnwrapped() {
+        PassData pass = createSweepPass(300, 120);
+        TrackPlan plan = PassPlanner.plan(pass, createRotator(180, -180, 540));
+        assertTrue(plan.isUnwrapped());
+        List<Double> azTrack = plan.getAzTrack();
+        assertEquals(azTrack.getFirst(), -60.0, 1e-9); // Closest to the current position of 0 deg
+        for (int i = 1; i < azTrack.size(); i++) { // Rotator never reverses across north
+            assertTrue(azTrack.get(i) > azTrack.get(i-1));
+            assertTrue(azTrack.get(i) >= -180 && azTrack.get(i) <= 540);
+        }
+    }
+
+    @Test
+    public void testPassCrossingNorthNotUnwrappedWithoutOverlap() {
+        PassData pass = createSweepPass(300, 120);
+        TrackPlan plan = PassPlanner.plan(pass, createRotator(180));
+        assertFalse(plan.isUnwrapped());
+        assertEquals(plan.getAzTrack(), pass.getAzProfile());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package tracking;
+
+import data.PassData;
+import data.SatelliteData;
+import instrument.AsyncRotator;
+import instrument.InstrumentFactory;
+import instrument.Rotator;
+import instrument.RotatorReadback;
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.Log;
+import utils.ResultUtils;
+import utils.enums.Verbosity;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class TrajectoryExecutorTest {
+
+    SatelliteData sat;
+
+    @BeforeClass
+    public void setup() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+        sat = Mockito.mock(SatelliteData.class);
+    }
+
+    private PassData createPass(ZonedDateTime aos, List<Double> azProfile, List<Double> elProfile) {
+        List<Long> freqProfile = new ArrayList<>();
+        for (int i = 0; i < azProfile.size(); i++) {
+            freqProfile.add(435000000L);
+        }
+        return new PassData(sat, aos, aos.plusSeconds(5L * (azProfile.size() - 1)), 5, azProfile, elProfile, freqProfile);
+    }
+
+    @Test
+    public void testAngularSeparation() {
+        assertEquals(TrajectoryExecutor.angularSeparation(10, 20, 10, 20), 0, 1e-6);
+        assertEquals(TrajectoryExecutor.angularSeparation(0, 0, 90, 0), 90, 1e-6);
+        assertEquals(TrajectoryExecutor.angularSeparation(359, 0, 1, 0), 2, 1e-6);
+        // Flipped position points in the same direction as the normal position
+        assertEquals(TrajectoryExecutor.angularSeparation(30, 80, 210, 100), 0, 1e-6);
+    }
+
+    @Test
+    public void testInterpolateAcrossNorth() {
+        ZonedDateTime aos = ZonedDateTime.now(ZoneId.of("UTC"));
+        PassData pass = createPass(aos, List.of(350.0, 10.0), List.of(0.0, 10.0));
+        AsyncRotator asyncRotator = new AsyncRotator(Mockito.mock(Rotator.class));
+        TrajectoryExecutor executor = new TrajectoryExecutor(asyncRotator, pass);
+        assertEquals(executor.interpolate(pass.getAzProfile(), 2.5, true), 0, 1e-6);
+        assertEquals(executor.interpolate(pass.getAzProfile(), 3.75, true), 5, 1e-6);
+        assertEquals(executor.interpolate(pass.getElProfile(), 2.5, false), 5, 1e-6);
+        assertEquals(executor.interpolate(pass.getElProfile(), -10, false), 0, 1e-6); // Clamped before AOS
+        assertEquals(executor.interpolate(pass.getElProfile(), 100, false), 10, 1e-6); // Clamped after LOS
+        asyncRotator.shutdown();
+    }
+
+    @Test
+    public void testPrePositionAllowsSwingAcrossNorth() {
+        ZonedDateTime aos = ZonedDateTime.now(ZoneId.of("UTC")).plusMinutes(10);
+        PassData pass = createPass(aos, List.of(10.0, 20.0), List.of(0.0, 10.0));
+        Rotator rotator = Mockito.mock(Rotator.class);
+        Mockito.when(rotator.getAzExtended()).thenReturn(350);
+        Mockito.when(rotator.getAzSlewRateDegPerS()).thenReturn(6.0);
+        Mockito.when(rotator.getElSlewRateDegPerS()).thenReturn(3.0);
+        AsyncRotator asyncRotator = new AsyncRotator(rotator);
+        TrajectoryExecutor executor = new TrajectoryExecutor(asyncRotator, pass);
+        // The rotator swings 340 deg to reach 10 deg, not 20 deg across north
+        assertTrue(executor.getPrePositionTime().isBefore(aos.minusSeconds(340 / 6)));
+        asyncRotator.shutdown();
+    }
+
+    @Test
+    public void testStepLeadsSatellite() throws InterruptedException {
+        // Satellite moving 1 deg/s in azimuth, pass started 10 s ago
+        List<Double> azProfile = new ArrayList<>();
+        List<Double> elProfile = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            azProfile.add(100.0 + 5 * i);
+            elProfile.add(45.0);
+        }
+        ZonedDateTime aos = ZonedDateTime.now(ZoneId.of("UTC")).minusSeconds(10);
+        PassData pass = createPass(aos, azProfile, elProfile);
+        Rotator rotator = InstrumentFactory.createRotator("StubRotator");
+        AsyncRotator asyncRotator = new AsyncRotator(rotator);
+        TrajectoryExecutor executor = new TrajectoryExecutor(asyncRotator, pass);
+
+        executor.step();
+        assertTrue(rotator.getAz() > 110); // Commanded ahead of the satellite's current position
+        assertEquals(rotator.getEl(), 45);
+        executor.logSummary();
+        asyncRotator.shutdown();
+    }
+
+    @Test
+    public void testErrorUsesMeasuredPosition() throws InterruptedException {
+        // Satellite at Az 110 now, the estimate assumes the rotator got there but it was last read at Az 100
+        ZonedDateTime aos = ZonedDateTime.now(ZoneId.of("UTC")).minusSeconds(10);
+        PassData pass = createPass(aos, List.of(100.0, 105.0, 110.0, 115.0, 120.0), List.of(45.0, 45.0, 45.0, 45.0, 45.0));
+        Rotator rotator = Mockito.mock(Rotator.class);
+        Mockito.when(rotator.readInstrument()).thenReturn(ResultUtils.createSuccessfulResult());
+        Mockito.when(rotator.getAz()).thenReturn(110);
+        Mockito.when(rotator.getEl()).thenReturn(45);
+        Mockito.when(rotator.getLastReadback()).thenReturn(new RotatorReadback(System.currentTimeMillis(), 100, 45));
+        AsyncRotator asyncRotator = new AsyncRotator(rotator);
+        TrajectoryExecutor executor = new TrajectoryExecutor(asyncRotator, pass);
+
+        executor.monitor();
+        assertEquals(executor.getMeanErrorDeg(), TrajectoryExecutor.angularSeparation(100, 45, 110, 45), 0.5);
+        asyncRotator.shutdown();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package utils;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(histogram.getPercentileNanos(50), 0);
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000); // 1us to 10ms
+        }
+        assertEquals(histogram.getCount(), 10000);
+        assertEquals(histogram.getMaxNanos(), 10_000_000);
+        assertEquals(histogram.getMeanNanos(), 5_000_500, 1);
+        assertEquals(histogram.getPercentileNanos(50), 5_000_000, 5_000_000 / 64.0);
+        assertEquals(histogram.getPercentileNanos(99), 9_900_000, 9_900_000 / 64.0);
+        assertEquals(histogram.getPercentileNanos(100), 10_000_000);
+        assertEquals(histogram.getPercentileNanos(0), 1000, 1000 / 64.0);
+    }
+
+    @Test
+    public void testSmallAndLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(-5);
+        histogram.record(100);
+        histogram.record(200_000_000_000L); // Beyond the range, counted in the last bucket
+        assertEquals(histogram.getPercentileNanos(33), 0);
+        assertEquals(histogram.getPercentileNanos(66), 100);
+        assertEquals(histogram.getMaxNanos(), 200_000_000_000L);
+        assertTrue(histogram.getPercentileNanos(100) > 60_000_000_000L);
+
+        histogram.reset();
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMaxNanos(), 0);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(histogram.getCount(), 400000);
+        assertEquals(histogram.getMaxNanos(), 99999);
+    }
+
+    @Test
+    public void testRegistry() {
+        LatencyHistogram histogram = LatencyRegistry.get("LatencyHistogramTest");
+        assertSame(LatencyRegistry.get("LatencyHistogramTest"), histogram);
+        histogram.record(1_500_000);
+        assertTrue(LatencyRegistry.getHistograms().contains(histogram));
+        assertTrue(histogram.toString().contains("n=1"));
+        LatencyRegistry.reset();
+        assertEquals(histogram.getCount(), 0);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2024  Benjamin Graham
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package utils;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import utils.enums.Verbosity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.testng.Assert.*;
+
+public class SerialUtilsTest {
+
+    @BeforeClass
+    public void setup() {
+        new Log(".\\logs\\", Verbosity.DEBUG);
+    }
+
+    @Test
+    public void testMemoryRoundTrip() throws InterruptedException {
+        MemoryTransport device = MemoryTransport.device("roundTrip");
+        SerialUtils serial = new SerialUtils("mem://roundTrip", 9600, 8, 1, 0);
+        assertTrue(serial.open());
+        assertTrue(serial.write(new byte[]{0x43, 0x32, 0x0D}));
+
+        byte[] buffer = new byte[16];
+        assertEquals(device.read(buffer, buffer.length, 100), 3);
+        assertEquals(buffer[1], 0x32);
+        assertEquals(device.write(new byte[]{1, 2}, 2), 2);
+        assertEquals(serial.read(), new byte[]{1, 2});
+        assertEquals(serial.read().length, 0);
+        assertEquals(LatencyRegistry.get("Serial mem://roundTrip read").getCount(), 1); // Empty poll not recorded
+        assertTrue(serial.close());
+        MemoryTransport.removePipe("roundTrip");
+    }
+
+    @Test
+    public void testMemoryClosedHostLosesBytes() throws InterruptedException {
+        MemoryTransport device = MemoryTransport.device("closedHost");
+        SerialUtils serial = new SerialUtils("mem://closedHost", 9600, 8, 1, 0);
+        assertFalse(serial.write(new byte[]{1}));
+        device.write(new byte[]{1, 2, 3}, 3); // Nobody listening
+        assertTrue(serial.open());
+        assertEquals(serial.read(new byte[8]), 0);
+        assertEquals(device.read(new byte[8], 8, 20), 0); // Times out
+        MemoryTransport.removePipe("closedHost");
+    }
+
+    @Test
+    public void testTcpRoundTrip() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread echo = new Thread(() -> {
+                try (Socket s = server.accept()) {
+                    InputStream in = s.getInputStream();
+                    OutputStream out = s.getOutputStream();
+                    int b;
+                    while ((b = in.read()) >= 0) {
+                        out.write(b + 1);
+                    }
+                } catch (IOException e) {
+                    // Client closed
+                }
+            });
+            echo.start();
+
+            SerialUtils serial = new SerialUtils("tcp://localhost:" + server.getLocalPort(), 9600, 8, 1, 0);
+            assertTrue(serial.open());
+            assertTrue(serial.isOpen());
+            assertTrue(serial.write(new byte[]{10, 20, 30}));
+            byte[] buffer = new byte[8];
+            int total = 0;
+            long deadline = System.currentTimeMillis() + 1000;
+            while (total < 3 && System.currentTimeMillis() < deadline) {
+                total += Math.max(0, serial.read(buffer));
+            }
+            assertEquals(total, 3);
+            assertEquals(buffer[2], 31);
+            assertTrue(serial.close());
+            assertFalse(serial.isOpen());
+        }
+    }
+
+    @Test
+    public void testTcpReconnect() throws IOException, InterruptedException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            SerialUtils serial = new SerialUtils("tcp://localhost:" + server.getLocalPort(), 9600, 8, 1, 0);
+            assertTrue(serial.open());
+            server.accept().close(); // Serial server drops the connection
+
+            // The dropped connection is detected by a read and closed
+            long deadline = System.currentTimeMillis() + 1000;
+            while (serial.read(new byte[8]) >= 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertFalse(serial.isOpen());
+
+            // Open connects again
+            assertTrue(serial.open());
+            try (Socket s = server.accept()) {
+                assertTrue(serial.write(new byte[]{42}));
+                assertEquals(s.getInputStream().read(), 42);
+            }
+            assertTrue(serial.close());
+        }
+    }
+
+    @Test
+    public void testTcpRefused() throws IOException {
+        int port;
+        try (ServerSocket server = new ServerSocket(0)) {
+            port = server.getLocalPort();
+        }
+        SerialUtils serial = new SerialUtils("tcp://localhost:" + port, 9600, 8, 1, 0);
+        assertFalse(serial.open());
+        assertFalse(serial.write(new byte[]{1}));
+        assertEquals(serial.read(new byte[1]), -1);
+    }
+
+    @Test
+    public void testInvalidTcpAddress() {
+        assertThrows(RuntimeException.class, () -> new SerialUtils("tcp://nohost", 9600, 8, 1, 0));
+    }
+}